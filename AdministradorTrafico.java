@@ -4,87 +4,72 @@ import java.io.*;  // Para manejo de entradas/salidas
 import java.net.*; // Para manejo de sockets y direcciones de red
 
 // Clase principal que actúa como un proxy simple para redirigir tráfico a dos servidores
+// (o a N servidores en modo de balanceo, ver Balanceador)
 class AdministradorTrafico {
+    // Modo del proxy: "espejo" (Servidor-1 responde y Servidor-2 recibe una copia, por defecto)
+    // o "balanceo" (las peticiones se reparten entre todos los servidores indicados)
+    static final String MODO = Configuracion.texto("proxy.modo", "espejo");
+
     // Variables para almacenar IPs y puertos de los servidores y el puerto local donde escuchará el proxy
-    static String servidor1;
-    static int puertoServidor1;
-    static String servidor2;
-    static int puertoServidor2;
+    static String[] servidores;
+    static int[] puertos;
     static int puertoLocal;
+    static EspejoServidor2 espejo;  // Copia asíncrona de las peticiones hacia el Servidor-2 (null en modo balanceo)
+    static PoolConexiones pool;     // Conexiones persistentes hacia los servidores que responden
+    static Balanceador balanceador; // Servidores que responden: solo el Servidor-1 en modo espejo
+    static Despachador despachador; // Caché, espejo y envío al servidor elegido de cada petición
 
-    // Clase interna que maneja cada conexión entrante como un hilo separado
-    static class Worker extends Thread {
+    // Clase interna que maneja cada conexión entrante de forma concurrente (ver Ejecutor)
+    static class Worker implements Runnable {
         Socket cliente; // Socket que representa la conexión con el cliente
+        final Admision.Conexion admitida; // Avisa a Admision cuándo llegó la petición y cuándo termina la conexión
+        final long aceptada = System.nanoTime(); // Momento en que se aceptó la conexión (ver Metricas)
 
         // Constructor que recibe el socket del cliente
-        Worker(Socket cliente) {
+        Worker(Socket cliente, Admision.Conexion admitida) {
             this.cliente = cliente;
+            this.admitida = admitida;
         }
 
         public void run() {
+            // Petición del cliente, analizada en su lugar dentro de un buffer del pool (ver PeticionHTTP)
+            PeticionHTTP peticion = new PeticionHTTP();
+            Despachador.CONEXIONES.increment();
             try {
-                // Establece conexión con los dos servidores de destino
-                Socket servidor1Socket = new Socket(servidor1, puertoServidor1);
-                Socket servidor2Socket = new Socket(servidor2, puertoServidor2);
-
-                // Configura los flujos de entrada/salida para cliente y servidores
-                BufferedReader entradaCliente = new BufferedReader(new InputStreamReader(cliente.getInputStream()));
-                PrintWriter salidaServidor1 = new PrintWriter(servidor1Socket.getOutputStream(), true);
-                PrintWriter salidaServidor2 = new PrintWriter(servidor2Socket.getOutputStream(), true);
-                InputStream entradaServidor1Binaria = servidor1Socket.getInputStream();
-                InputStream entradaServidor2Binaria = servidor2Socket.getInputStream();
-                OutputStream salidaCliente = cliente.getOutputStream();
-
-                // Variables auxiliares para construir la petición HTTP
-                String linea;
-                StringBuilder peticion = new StringBuilder();
-                boolean primerLinea = true;
-                String ifModifiedSince = null;
-
-                // Lectura de la petición HTTP del cliente
-                while ((linea = entradaCliente.readLine()) != null && !linea.isEmpty()) {
-                    if (primerLinea) {
-                        // Imprime la primera línea de la petición (ej. GET /index.html HTTP/1.1)
-                        System.out.println("Petición recibida en el proxy: " + linea);
-                        primerLinea = false;
-                    }
-                    // Captura cabecera "If-Modified-Since" si existe
-                    if (linea.startsWith("If-Modified-Since: ")) {
-                        ifModifiedSince = linea.substring(19);
-                    }
-                    // Agrega la línea a la petición completa
-                    peticion.append(linea).append("\r\n");
-                }
-                peticion.append("\r\n"); // Marca el final de la petición HTTP
-
-                // Envía la misma petición a ambos servidores
-                salidaServidor1.print(peticion.toString());
-                salidaServidor1.flush();
-                salidaServidor2.print(peticion.toString());
-                salidaServidor2.flush();
-
-                // Lectura de la respuesta del servidor 1
-                ByteArrayOutputStream respuestaServidor1 = new ByteArrayOutputStream();
-                byte[] buffer = new byte[4096]; // Buffer para lectura binaria
-                int bytesRead;
-                while ((bytesRead = entradaServidor1Binaria.read(buffer)) != -1) {
-                    respuestaServidor1.write(buffer, 0, bytesRead); // Guarda respuesta
+                // Configura los flujos de entrada/salida con el cliente (los servidores se atienden desde Despachador)
+                InputStream entradaCliente = cliente.getInputStream();
+                // La salida mide el tiempo desde que se aceptó la conexión hasta el primer byte de la respuesta
+                OutputStream salidaCliente = new Metricas.PrimerByte(cliente.getOutputStream(), Despachador.PRIMER_BYTE, aceptada);
+
+                // Lectura de la línea de petición y los encabezados del cliente
+                int resultado = peticion.leer(entradaCliente);
+                if (resultado == PeticionHTTP.CERRADA) {
+                    return; // El cliente cerró la conexión sin enviar una petición
                 }
-
-                // Lectura de la respuesta del servidor 2, pero no se utiliza
-                while ((bytesRead = entradaServidor2Binaria.read(buffer)) != -1) {
-                    // Se lee, pero no se procesa ni reenvía
+                if (resultado == PeticionHTTP.COMPLETA) resultado = peticion.delimitarCuerpo();
+                if (resultado != PeticionHTTP.COMPLETA) {
+                    PeticionHTTP.rechazar(resultado, salidaCliente); // 431, 411, 413 o 400
+                    return;
                 }
-                System.out.println("Respuesta del Servidor-2 recibida, pero no enviada al cliente.");
-
-                // Envía la respuesta del servidor 1 al cliente
-                salidaCliente.write(respuestaServidor1.toByteArray());
-                salidaCliente.flush();
+                // El cuerpo (Content-Length) se lee completo para reenviarlo junto con la petición; el
+                // 100 Continue no pasa por la salida medida porque no es el primer byte de la respuesta
+                peticion.leerCuerpo(entradaCliente, cliente.getOutputStream());
+                admitida.atendiendo(); // Petición completa: ya no la vigila el recolector de Admision
+                Despachador.PETICIONES.increment();
+                // Imprime la primera línea de la petición (ej. GET /index.html HTTP/1.1)
+                if (Registro.muestrear()) Registro.escribir("Petición recibida en el proxy: " + peticion.lineaPeticion());
+
+                // Copia para el servidor 2, respuesta desde la caché o envío al servidor 1 por el pool
+                // reenviando su respuesta al cliente conforme llega (ver Despachador)
+                despachador.atender(peticion, salidaCliente);
 
             } catch (IOException e) {
                 // Manejo de errores de conexión
                 System.err.println("Error en la conexión: " + e.getMessage());
             } finally {
+                Despachador.CONEXIONES.decrement();
+                admitida.liberar();
+                peticion.liberar();
                 // Cierra la conexión con el cliente si no es nula
                 try {
                     if (cliente != null) cliente.close();
@@ -97,30 +82,65 @@ class AdministradorTrafico {
 
     // Método principal del programa
     public static void main(String[] args) throws Exception {
-        // Verifica que se pasen exactamente 5 argumentos
-        if (args.length != 5) {
+        // Verifica los argumentos: exactamente 2 servidores en modo espejo, 1 o más en modo balanceo
+        boolean balanceo = MODO.equals("balanceo");
+        if (balanceo ? args.length < 3 || args.length % 2 == 0 : args.length != 5) {
             System.err.println("Uso: java AdministradorTrafico <puerto-local> <IP-Servidor-1> <puerto-Servidor-1> <IP-Servidor-2> <puerto-Servidor-2>");
+            System.err.println("     java -Dproxy.modo=balanceo AdministradorTrafico <puerto-local> <IP-Servidor> <puerto-Servidor> [<IP-Servidor> <puerto-Servidor> ...]");
             System.exit(1); // Termina el programa con error
         }
 
         // Asigna los parámetros pasados por consola a las variables globales
         puertoLocal = Integer.parseInt(args[0]);
-        servidor1 = args[1];
-        puertoServidor1 = Integer.parseInt(args[2]);
-        servidor2 = args[3];
-        puertoServidor2 = Integer.parseInt(args[4]);
+        servidores = new String[(args.length - 1) / 2];
+        puertos = new int[servidores.length];
+        for (int i = 0; i < servidores.length; i++) {
+            servidores[i] = args[1 + 2 * i];
+            puertos[i] = Integer.parseInt(args[2 + 2 * i]);
+        }
 
         // Mensajes informativos de inicio
         System.out.println("Proxy escuchando en puerto: " + puertoLocal);
-        System.out.println("Redirigiendo tráfico entre " + servidor1 + ":" + puertoServidor1 + " y " + servidor2 + ":" + puertoServidor2);
+        pool = new PoolConexiones(Balanceador.LECTURA_MS);
+        if (balanceo) {
+            // Todos los servidores responden peticiones
+            balanceador = new Balanceador(pool, servidores, puertos);
+            balanceador.iniciarReporte();
+            System.out.println("Balanceando tráfico (" + Balanceador.ALGORITMO + ") entre " + servidores.length + " servidores");
+        } else {
+            // Inicia la etapa de espejo hacia el servidor 2 y el reporte periódico de sus contadores;
+            // el servidor 1 es el que responde; el servidor 2 es su respaldo para reintentos y coberturas
+            // de las peticiones idempotentes (se desactiva con -Dproxy.respaldo=false)
+            System.out.println("Redirigiendo tráfico entre " + servidores[0] + ":" + puertos[0] + " y " + servidores[1] + ":" + puertos[1]);
+            espejo = new EspejoServidor2(servidores[1], puertos[1]);
+            espejo.iniciarReporte();
+            balanceador = Configuracion.booleano("proxy.respaldo", true)
+                    ? new Balanceador(pool, new String[] {servidores[0]}, new int[] {puertos[0]}, servidores[1], puertos[1])
+                    : new Balanceador(pool, new String[] {servidores[0]}, new int[] {puertos[0]});
+        }
+        despachador = new Despachador(balanceador, espejo, new CacheRespuestas());
+        Metricas.iniciarAdministracion();
+
+        // Motor de atención elegido al iniciar: "hilos" (un hilo por conexión, por defecto)
+        // o "nio" (bucles de eventos no bloqueantes, ver MotorNIO)
+        if (Configuracion.texto("proxy.motor", "hilos").equals("nio")) {
+            new MotorNIO(balanceador, espejo).iniciar(puertoLocal, new Admision("proxy", true));
+            return;
+        }
 
         // Crea el socket del servidor que escucha en el puerto local
-        ServerSocket serverSocket = new ServerSocket(puertoLocal);
+        ServerSocket serverSocket = new ServerSocket(puertoLocal, Ejecutor.BACKLOG);
+        Ejecutor ejecutor = new Ejecutor("proxy");
+        Admision admision = new Admision("proxy", true);
 
         // Bucle infinito que acepta conexiones de clientes
         while (true) {
             Socket cliente = serverSocket.accept(); // Espera conexión de cliente
-            new Worker(cliente).start(); // Crea un hilo para manejar la conexión
+            // Con sobrecarga o si el cliente excede su tasa se rechaza aquí, sin crear el Worker (ver Admision)
+            Admision.Conexion admitida = admision.admitir(cliente);
+            if (admitida == null) continue;
+            // Atiende la conexión según el modelo de ejecución
+            if (!ejecutor.ejecutar(new Worker(cliente, admitida), cliente)) admitida.liberar();
         }
     }
 }
\ No newline at end of file
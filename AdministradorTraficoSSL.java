@@ -6,85 +6,89 @@ import javax.net.ssl.*;                     // Clases para conexiones seguras SS
 import java.security.KeyStore;              // Para cargar y gestionar almacenes de claves (keystore) utilizados en SSL/TLS.
 import javax.net.ssl.KeyManagerFactory;     // Para gestionar claves privadas y certificados del servidor en conexiones SSL.
 import javax.net.ssl.SSLContext;            // Configura el entorno SSL/TLS, incluyendo claves y protocolos usados en la comunicación segura.
+import java.util.ArrayList;                 // Lista de suites de cifrado soportadas que se habilitan
+import java.util.Arrays;                    // Búsqueda en las listas de protocolos y suites soportados
+import java.util.List;                      // Tipo de la lista de suites habilitadas
 
 // Clase principal que actúa como un proxy inverso con soporte para conexiones seguras mediante SSL
 class AdministradorTraficoSSL {
+    // Modo del proxy: "espejo" (Servidor-1 responde y Servidor-2 recibe una copia) o "balanceo" (N servidores)
+    static final String MODO = Configuracion.texto("proxy.modo", "espejo");
+
     // Variables estáticas para almacenar configuración del proxy y contexto SSL
-    static String servidor1;
-    static int puertoServidor1;
-    static String servidor2;
-    static int puertoServidor2;
+    static String[] servidores;
+    static int[] puertos;
     static int puertoLocal;
+    static EspejoServidor2 espejo;  // Copia asíncrona de las peticiones hacia el Servidor-2 (null en modo balanceo)
+    static PoolConexiones pool;     // Conexiones persistentes hacia los servidores que responden
+    static Balanceador balanceador; // Servidores que responden: solo el Servidor-1 en modo espejo
+    static Despachador despachador; // Caché, espejo y envío al servidor elegido de cada petición
     static SSLContext sslContext;
 
+    // Ajustes de TLS configurables con -Dnombre=valor
+    static final int CACHE_SESIONES = Configuracion.entero("ssl.cache.sesiones", 20480);  // Sesiones guardadas para reanudación
+    static final int DURACION_SESION_S = Configuracion.entero("ssl.cache.segundos", 86400); // Vigencia de una sesión en la caché
+    static final boolean TICKETS = Configuracion.booleano("ssl.tickets", true);           // Tickets de sesión (reanudación sin estado)
+    static final String PROTOCOLOS = Configuracion.texto("ssl.protocolos", "TLSv1.3,TLSv1.2");
+    static final String KEYSTORE = Configuracion.texto("ssl.keystore", "keystore_servidor.jks");  // Archivo con el certificado del servidor
+    static final String CLAVE_KEYSTORE = Configuracion.texto("ssl.keystore.clave", "password");
+    // Suites AEAD rápidas (AES-GCM y ChaCha20-Poly1305) con intercambio de llaves efímero
+    static final String SUITES = Configuracion.texto("ssl.suites",
+            "TLS_AES_128_GCM_SHA256,TLS_AES_256_GCM_SHA384,TLS_CHACHA20_POLY1305_SHA256,"
+            + "TLS_ECDHE_ECDSA_WITH_AES_128_GCM_SHA256,TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256,"
+            + "TLS_ECDHE_ECDSA_WITH_AES_256_GCM_SHA384,TLS_ECDHE_RSA_WITH_AES_256_GCM_SHA384,"
+            + "TLS_ECDHE_ECDSA_WITH_CHACHA20_POLY1305_SHA256,TLS_ECDHE_RSA_WITH_CHACHA20_POLY1305_SHA256");
+
     // Clase interna Worker encargada de manejar cada conexión entrante de forma concurrente
-    static class Worker extends Thread {
+    static class Worker implements Runnable {
         SSLSocket cliente;
+        final Admision.Conexion admitida; // Avisa a Admision cuándo llegó la petición y cuándo termina la conexión
+        final long aceptada = System.nanoTime(); // Momento en que se aceptó la conexión (ver Metricas)
 
-        Worker(SSLSocket cliente) {
+        Worker(SSLSocket cliente, Admision.Conexion admitida) {
             this.cliente = cliente;
+            this.admitida = admitida;
         }
 
         public void run() {
+            // Petición del cliente, analizada en su lugar dentro de un buffer del pool (ver PeticionHTTP)
+            PeticionHTTP peticion = new PeticionHTTP();
+            Despachador.CONEXIONES.increment();
             try {
-                // Se establecen conexiones con los dos servidores HTTP definidos
-                Socket servidor1Socket = new Socket(servidor1, puertoServidor1);
-                Socket servidor2Socket = new Socket(servidor2, puertoServidor2);
-
-                // Se crean los flujos de entrada y salida para la comunicación con el cliente y los servidores
-                BufferedReader entradaCliente = new BufferedReader(new InputStreamReader(cliente.getInputStream()));
-                PrintWriter salidaServidor1 = new PrintWriter(servidor1Socket.getOutputStream(), true);
-                PrintWriter salidaServidor2 = new PrintWriter(servidor2Socket.getOutputStream(), true);
-                InputStream entradaServidor1Binaria = servidor1Socket.getInputStream();
-                InputStream entradaServidor2Binaria = servidor2Socket.getInputStream();
-                OutputStream salidaCliente = cliente.getOutputStream();
-
-                // Se prepara para recibir la petición HTTP del cliente
-                String linea;
-                StringBuilder peticion = new StringBuilder();
-                boolean primerLinea = true;
-                String ifModifiedSince = null;
-
-                // Lectura de la petición HTTP línea por línea hasta encontrar una línea vacía (fin de cabeceras)
-                while ((linea = entradaCliente.readLine()) != null && !linea.isEmpty()) {
-                    if (primerLinea) {
-                        System.out.println("Petición recibida en el proxy: " + linea);
-                        primerLinea = false;
-                    }
-                    if (linea.startsWith("If-Modified-Since: ")) {
-                        ifModifiedSince = linea.substring(19); // Extrae la fecha si está presente
-                    }
-                    peticion.append(linea).append("\r\n");
+                // Handshake TLS explícito para medir su duración y si la sesión fue reanudada (ver MetricasTLS)
+                MetricasTLS.handshake(cliente);
+
+                // Se crean los flujos de entrada y salida para la comunicación con el cliente
+                InputStream entradaCliente = cliente.getInputStream();
+                // La salida mide el tiempo desde que se aceptó la conexión hasta el primer byte de la respuesta
+                OutputStream salidaCliente = new Metricas.PrimerByte(cliente.getOutputStream(), Despachador.PRIMER_BYTE, aceptada);
+
+                // Lectura de la petición HTTP hasta la línea vacía que termina los encabezados
+                int resultado = peticion.leer(entradaCliente);
+                if (resultado == PeticionHTTP.CERRADA) {
+                    return; // El cliente cerró la conexión sin enviar una petición
                 }
-                peticion.append("\r\n"); // Finaliza la petición HTTP
-
-                // Envía la misma petición HTTP a ambos servidores
-                salidaServidor1.print(peticion.toString());
-                salidaServidor1.flush();
-                salidaServidor2.print(peticion.toString());
-                salidaServidor2.flush();
-
-                // Lee la respuesta binaria del servidor 1
-                ByteArrayOutputStream respuestaServidor1 = new ByteArrayOutputStream();
-                byte[] buffer = new byte[4096];
-                int bytesRead;
-                while ((bytesRead = entradaServidor1Binaria.read(buffer)) != -1) {
-                    respuestaServidor1.write(buffer, 0, bytesRead);
-                }
-
-                // Lee la respuesta del servidor 2 pero no la reenvía al cliente
-                while ((bytesRead = entradaServidor2Binaria.read(buffer)) != -1) {
-                    // No se almacena ni se procesa la respuesta del servidor 2
+                if (resultado == PeticionHTTP.COMPLETA) resultado = peticion.delimitarCuerpo();
+                if (resultado != PeticionHTTP.COMPLETA) {
+                    PeticionHTTP.rechazar(resultado, salidaCliente); // Encabezados o cuerpo demasiado grandes, cuerpo sin Content-Length o petición mal formada
+                    return;
                 }
-                System.out.println("Respuesta del Servidor-2 recibida, pero no enviada al cliente.");
+                // Cuerpo completo para reenviarlo junto con la petición (el 100 Continue va por la salida sin medir)
+                peticion.leerCuerpo(entradaCliente, cliente.getOutputStream());
+                admitida.atendiendo(); // Petición completa: ya no la vigila el recolector de Admision
+                Despachador.PETICIONES.increment();
+                // Imprime la primera línea de la petición (ej. GET /index.html HTTP/1.1)
+                if (Registro.muestrear()) Registro.escribir("Petición recibida en el proxy: " + peticion.lineaPeticion());
 
-                // Envia al cliente la respuesta obtenida del servidor 1
-                salidaCliente.write(respuestaServidor1.toByteArray());
-                salidaCliente.flush();
+                // Copia para el servidor 2, respuesta desde la caché compartida o envío al servidor 1 (ver Despachador)
+                despachador.atender(peticion, salidaCliente);
 
             } catch (IOException e) {
                 System.err.println("Error en la conexión: " + e.getMessage());
             } finally {
+                Despachador.CONEXIONES.decrement();
+                admitida.liberar();
+                peticion.liberar();
                 try {
                     if (cliente != null) cliente.close(); // Cierra la conexión con el cliente
                 } catch (IOException e2) {
@@ -94,45 +98,105 @@ class AdministradorTraficoSSL {
         }
     }
 
+    // Restringe el socket a los protocolos y suites configurados que la JVM soporte, con preferencia del servidor
+    static void configurarSocket(SSLServerSocket serverSocket) {
+        List<String> soportados = Arrays.asList(serverSocket.getSupportedProtocols());
+        List<String> protocolos = new ArrayList<>();
+        for (String protocolo : PROTOCOLOS.split(",")) {
+            if (soportados.contains(protocolo.trim())) protocolos.add(protocolo.trim());
+        }
+        List<String> soportadas = Arrays.asList(serverSocket.getSupportedCipherSuites());
+        List<String> suites = new ArrayList<>();
+        for (String suite : SUITES.split(",")) {
+            if (soportadas.contains(suite.trim())) suites.add(suite.trim());
+        }
+
+        SSLParameters parametros = serverSocket.getSSLParameters();
+        if (!protocolos.isEmpty()) parametros.setProtocols(protocolos.toArray(new String[0]));
+        if (!suites.isEmpty()) parametros.setCipherSuites(suites.toArray(new String[0]));
+        parametros.setUseCipherSuitesOrder(true); // El servidor elige la suite según su propio orden
+        serverSocket.setSSLParameters(parametros);
+        System.out.println("Protocolos TLS: " + protocolos + ", suites: " + suites.size()
+                + ", caché de sesiones: " + CACHE_SESIONES + " por " + DURACION_SESION_S + " s, tickets: " + TICKETS);
+    }
+
     public static void main(String[] args) throws Exception {
-        // Validación de argumentos de entrada
-        if (args.length != 5) {
+        // Validación de argumentos de entrada: exactamente 2 servidores en modo espejo, 1 o más en modo balanceo
+        boolean balanceo = MODO.equals("balanceo");
+        if (balanceo ? args.length < 3 || args.length % 2 == 0 : args.length != 5) {
             System.err.println("Uso: java AdministradorTraficoSSL <puerto-local> <IP-Servidor-1> <puerto-Servidor-1> <IP-Servidor-2> <puerto-Servidor-2>");
+            System.err.println("     java -Dproxy.modo=balanceo AdministradorTraficoSSL <puerto-local> <IP-Servidor> <puerto-Servidor> [<IP-Servidor> <puerto-Servidor> ...]");
             System.exit(1);
         }
 
         // Asignación de parámetros desde los argumentos
         puertoLocal = Integer.parseInt(args[0]);
-        servidor1 = args[1];
-        puertoServidor1 = Integer.parseInt(args[2]);
-        servidor2 = args[3];
-        puertoServidor2 = Integer.parseInt(args[4]);
+        servidores = new String[(args.length - 1) / 2];
+        puertos = new int[servidores.length];
+        for (int i = 0; i < servidores.length; i++) {
+            servidores[i] = args[1 + 2 * i];
+            puertos[i] = Integer.parseInt(args[2 + 2 * i]);
+        }
 
         // Mensajes informativos sobre el estado del proxy
         System.out.println("Proxy SSL escuchando en puerto: " + puertoLocal);
-        System.out.println("Redirigiendo tráfico entre " + servidor1 + ":" + puertoServidor1 + " y " + servidor2 + ":" + puertoServidor2);
+        pool = new PoolConexiones(Balanceador.LECTURA_MS);
+        if (balanceo) {
+            // Todos los servidores responden peticiones
+            balanceador = new Balanceador(pool, servidores, puertos);
+            balanceador.iniciarReporte();
+            System.out.println("Balanceando tráfico (" + Balanceador.ALGORITMO + ") entre " + servidores.length + " servidores");
+        } else {
+            // Inicia la etapa de espejo hacia el servidor 2 y el reporte periódico de sus contadores
+            System.out.println("Redirigiendo tráfico entre " + servidores[0] + ":" + puertos[0] + " y " + servidores[1] + ":" + puertos[1]);
+            espejo = new EspejoServidor2(servidores[1], puertos[1]);
+            espejo.iniciarReporte();
+            // El servidor 2 es además el respaldo del servidor 1 para reintentos y coberturas (-Dproxy.respaldo=false lo evita)
+            balanceador = Configuracion.booleano("proxy.respaldo", true)
+                    ? new Balanceador(pool, new String[] {servidores[0]}, new int[] {puertos[0]}, servidores[1], puertos[1])
+                    : new Balanceador(pool, new String[] {servidores[0]}, new int[] {puertos[0]});
+        }
+        despachador = new Despachador(balanceador, espejo, new CacheRespuestas());
+        Metricas.iniciarAdministracion();
+
+        // Tickets de sesión: el cliente guarda el estado cifrado de la sesión y el servidor no necesita la caché
+        // para reanudarla. La propiedad del JDK debe fijarse antes de crear el contexto SSL.
+        System.setProperty("jdk.tls.server.enableSessionTicketExtension", String.valueOf(TICKETS));
 
         // Configuración del contexto SSL con el keystore que contiene el certificado del servidor
         sslContext = SSLContext.getInstance("TLS");
         KeyStore keyStore = KeyStore.getInstance("PKCS12"); // También puede ser "JKS" dependiendo del formato
-        FileInputStream keyFile = new FileInputStream("keystore_servidor.jks"); // Carga el keystore desde el archivo
-        keyStore.load(keyFile, "password".toCharArray()); // Desbloquea el keystore con la contraseña
+        FileInputStream keyFile = new FileInputStream(KEYSTORE); // Carga el keystore desde el archivo
+        keyStore.load(keyFile, CLAVE_KEYSTORE.toCharArray()); // Desbloquea el keystore con la contraseña
 
         // Inicializa el KeyManagerFactory con las llaves del keystore
         KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
-        keyManagerFactory.init(keyStore, "password".toCharArray()); // Usa la misma contraseña para las claves
+        keyManagerFactory.init(keyStore, CLAVE_KEYSTORE.toCharArray()); // Usa la misma contraseña para las claves
 
         // Inicializa el contexto SSL con los KeyManagers
         sslContext.init(keyManagerFactory.getKeyManagers(), null, null);
 
+        // Caché de sesiones del servidor: tamaño y vigencia para reanudar sesiones sin un handshake completo
+        SSLSessionContext sesiones = sslContext.getServerSessionContext();
+        sesiones.setSessionCacheSize(CACHE_SESIONES);
+        sesiones.setSessionTimeout(DURACION_SESION_S);
+
         // Crea el socket SSL del servidor que escucha conexiones entrantes en el puerto especificado
         SSLServerSocketFactory sslServerSocketFactory = sslContext.getServerSocketFactory();
-        SSLServerSocket serverSocket = (SSLServerSocket) sslServerSocketFactory.createServerSocket(puertoLocal);
+        SSLServerSocket serverSocket = (SSLServerSocket) sslServerSocketFactory.createServerSocket(puertoLocal, Ejecutor.BACKLOG);
+        configurarSocket(serverSocket);
+        MetricasTLS.iniciarReporte();
+        Ejecutor ejecutor = new Ejecutor("proxy-ssl");
+        // Los rechazos solo cierran la conexión: responder requeriría el handshake en el hilo que acepta
+        Admision admision = new Admision("proxy-ssl", false);
 
         // Bucle infinito para aceptar y manejar conexiones entrantes de clientes
         while (true) {
             SSLSocket cliente = (SSLSocket) serverSocket.accept(); // Espera conexión entrante
-            new Worker(cliente).start(); // Crea un hilo Worker para manejar la conexión de manera concurrente
+            Admision.Conexion admitida = admision.admitir(cliente); // null si se rechazó (ver Admision)
+            if (admitida == null) continue;
+            // Atiende la conexión con un hilo propio, virtual o del pool (ver Ejecutor)
+            if (!ejecutor.ejecutar(new Worker(cliente, admitida), cliente)) admitida.liberar();
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,275 @@
+// Admision.java
+
+import java.io.IOException;                             // Errores al rechazar o cerrar una conexión
+import java.io.InputStream;                             // Lo que envían las conexiones rechazadas antes del cierre
+import java.net.InetAddress;                            // Dirección del cliente que identifica su cubeta
+import java.net.Socket;                                 // Conexión aceptada que se admite o se rechaza
+import java.nio.charset.StandardCharsets;               // Codificación de las respuestas de rechazo
+import java.util.Set;                                   // Conexiones vigiladas por el recolector
+import java.util.concurrent.ConcurrentHashMap;          // Cubetas por cliente y conexiones vigiladas
+import java.util.concurrent.ConcurrentLinkedQueue;      // Conexiones rechazadas que esperan su cierre
+import java.util.concurrent.TimeUnit;                   // Conversión de los plazos a nanosegundos
+import java.util.concurrent.atomic.AtomicBoolean;       // Liberación única de cada conexión
+import java.util.concurrent.atomic.AtomicInteger;       // Conexiones en curso
+import java.util.concurrent.atomic.AtomicLong;          // Estado de cada cubeta, actualizado sin bloqueos
+import java.util.concurrent.atomic.LongAdder;           // Contadores de rechazos y cierres
+
+// Control de admisión en el hilo que acepta, antes de crear el Worker de cada conexión:
+//   - límite global de conexiones en curso (-Dadmision.maximo): al alcanzarlo se responde 503 de inmediato
+//   - límite de conexiones por cliente con una cubeta de fichas por IP (-Dadmision.ip.tasa y admision.ip.rafaga):
+//     al agotarla se responde 429 con el tiempo de espera en Retry-After
+//   - recolección de conexiones que no completan una petición en admision.espera.ms (clientes lentos o inactivos
+//     que retienen un hilo sin enviar nada, ej. slowloris). MotorNIO no retiene hilos pero aplica el mismo plazo
+//     desde sus bucles (ver admitir con vigilar=false)
+// Rechazar cuesta una escritura de un arreglo precodificado, sin hilo ni buffers, así que con sobrecarga el
+// proxy descarta conexiones en lugar de acumular hilos. El cierre se difiere admision.cierre.ms: cerrar con la
+// petición del cliente sin leer enviaría un RST que puede hacerle perder el 503 o el 429, así que se cierra la
+// salida y el recolector descarta lo que llegue hasta cerrar. Los límites de conexiones (admision.maximo y
+// admision.ip.tasa) están desactivados por defecto; la recolección sí está activa, con un plazo de 30 s
+// (-Dadmision.espera.ms=0 la desactiva).
+// Si se usa junto con -Dejecutor.max.concurrencia, admision.maximo debe ser menor o igual: de lo contrario el
+// hilo que acepta se bloquea en el Ejecutor antes de poder rechazar.
+class Admision {
+    static final int MAXIMO = Configuracion.entero("admision.maximo", 0);                 // Conexiones en curso (0 = sin límite)
+    static final double TASA_IP = Configuracion.decimal("admision.ip.tasa", 0);          // Conexiones por segundo por cliente (0 = sin límite)
+    static final int RAFAGA_IP = Configuracion.entero("admision.ip.rafaga", 20);         // Conexiones seguidas antes de aplicar la tasa
+    static final int ENTRADAS_IP = Configuracion.entero("admision.ip.entradas", 65536);  // Clientes seguidos a la vez
+    static final long ESPERA_MS = Configuracion.largo("admision.espera.ms", 30000);      // Plazo para recibir una petición completa (0 = sin plazo)
+    static final long CIERRE_MS = Configuracion.largo("admision.cierre.ms", 500);        // Espera entre un rechazo y el cierre
+    static final int MAXIMO_CIERRES = 4096; // Rechazadas esperando su cierre; con más se cierran de inmediato
+
+    static final byte[] RESPUESTA_503 = ("HTTP/1.1 503 Service Unavailable\r\n"
+            + "Retry-After: 1\r\nContent-length: 0\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+
+    // Conexión admitida: el Worker indica cuándo espera una petición (vigilada por el recolector) y cuándo la atiende
+    static class Conexion {
+        final Admision admision;
+        final Socket socket;
+        volatile long esperandoDesde; // Inicio de la espera de la petición actual; 0 mientras se atiende
+        final AtomicBoolean liberada = new AtomicBoolean();
+
+        Conexion(Admision admision, Socket socket) {
+            this.admision = admision;
+            this.socket = socket;
+            esperando();
+        }
+
+        void esperando() {
+            esperandoDesde = System.nanoTime() | 1; // Nunca 0
+        }
+
+        void atendiendo() {
+            esperandoDesde = 0;
+        }
+
+        // Al terminar el Worker (o si el Ejecutor no lo pudo lanzar); se puede llamar más de una vez
+        void liberar() {
+            if (liberada.compareAndSet(false, true)) admision.liberar(this);
+        }
+    }
+
+    // Conexión rechazada que espera su cierre diferido
+    static class Cierre {
+        final Socket socket;
+        final long vence; // Momento (System.nanoTime) del cierre
+
+        Cierre(Socket socket, long vence) {
+            this.socket = socket;
+            this.vence = vence;
+        }
+    }
+
+    final String nombre;
+    final boolean responder; // false en TLS: no se puede responder en claro y el handshake no se hace en el hilo que acepta
+    final int maximo;
+    final long intervalo;    // Tiempo (ns) que tarda en reponerse una ficha (0 = sin límite por cliente)
+    final long rafaga;       // Adelanto máximo (ns) de la cubeta: la ráfaga en tiempo
+    final long espera;       // Plazo (ns) para recibir una petición completa (0 = sin plazo)
+    final AtomicInteger enCurso = new AtomicInteger();
+    // Cubeta de fichas de cada cliente guardada como un solo número (GCRA): el momento teórico en que volvería a
+    // estar llena. Cada conexión lo adelanta un intervalo; se rechaza si quedaría más de una ráfaga por delante.
+    final ConcurrentHashMap<Long, AtomicLong> cubetas = new ConcurrentHashMap<>();
+    final Set<Conexion> vigiladas = ConcurrentHashMap.newKeySet();
+    final ConcurrentLinkedQueue<Cierre> cierres = new ConcurrentLinkedQueue<>(); // En orden de vencimiento
+    final AtomicInteger pendientes = new AtomicInteger();                        // Tamaño de cierres
+
+    final LongAdder saturadas;
+    final LongAdder limitadas;
+    final LongAdder recolectadas;
+
+    Admision(String nombre, boolean responder) {
+        this(nombre, responder, MAXIMO, TASA_IP, RAFAGA_IP, ESPERA_MS);
+    }
+
+    // Con límites propios en lugar de los configurados (ej. en las pruebas)
+    Admision(String nombre, boolean responder, int maximo, double tasaIp, int rafagaIp, long esperaMs) {
+        this.nombre = nombre;
+        this.responder = responder;
+        this.maximo = maximo;
+        this.intervalo = tasaIp > 0 ? (long) (1_000_000_000L / tasaIp) : 0;
+        this.rafaga = intervalo * Math.max(1, rafagaIp);
+        this.espera = TimeUnit.MILLISECONDS.toNanos(esperaMs);
+        String etiqueta = "componente=\"" + nombre + "\"";
+        String ayuda = "Conexiones rechazadas al aceptarlas";
+        this.saturadas = Metricas.contador("admision_rechazadas_total", ayuda, etiqueta + ",motivo=\"saturado\"");
+        this.limitadas = Metricas.contador("admision_rechazadas_total", ayuda, etiqueta + ",motivo=\"tasa\"");
+        this.recolectadas = Metricas.contador("admision_recolectadas_total",
+                "Conexiones cerradas por no completar una petición en admision.espera.ms", etiqueta);
+        Metricas.exponer("admision_en_curso", "Conexiones admitidas que no han terminado", Metricas.MEDIDOR, etiqueta, enCurso::get);
+        Metricas.exponer("admision_clientes", "Clientes con cubeta de fichas vigente", Metricas.MEDIDOR, etiqueta, cubetas::size);
+
+        if (espera > 0 || intervalo > 0 || maximo > 0) {
+            Thread recolector = new Thread(this::recolectar, "admision-" + nombre);
+            recolector.setDaemon(true);
+            recolector.start();
+        }
+        if (maximo > 0 || intervalo > 0) {
+            System.out.println("Admisión: " + (maximo > 0 ? "máximo " + maximo + " conexiones" : "sin máximo")
+                    + (intervalo > 0 ? ", " + tasaIp + " conexiones/s por cliente (ráfaga " + rafagaIp + ")" : ""));
+        }
+    }
+
+    Conexion admitir(Socket socket) {
+        return admitir(socket, true);
+    }
+
+    // Decide en el hilo que acepta si la conexión se atiende; si no, la rechaza y devuelve null. Con vigilar=false
+    // el recolector no la vigila: quien la atiende aplica el plazo de la petición (espera) y cuenta en
+    // recolectadas las que cierra (ej. MotorNIO, cuyos canales solo se cierran desde su bucle)
+    Conexion admitir(Socket socket, boolean vigilar) {
+        if (intervalo > 0) {
+            long adelanto = reservar(clave(socket.getInetAddress()), System.nanoTime());
+            if (adelanto > 0) {
+                limitadas.increment();
+                long segundos = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(adelanto + 999_999_999L));
+                rechazar(socket, ("HTTP/1.1 429 Too Many Requests\r\nRetry-After: " + segundos
+                        + "\r\nContent-length: 0\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                return null;
+            }
+        }
+        if (enCurso.incrementAndGet() > maximo && maximo > 0) {
+            enCurso.decrementAndGet();
+            saturadas.increment();
+            rechazar(socket, RESPUESTA_503);
+            return null;
+        }
+        Conexion conexion = new Conexion(this, socket);
+        if (espera > 0 && vigilar) vigiladas.add(conexion);
+        return conexion;
+    }
+
+    void liberar(Conexion conexion) {
+        enCurso.decrementAndGet();
+        vigiladas.remove(conexion);
+    }
+
+    // Respuesta precodificada escrita sin esperar la petición (cabe en el buffer del socket) seguida del cierre
+    // de la salida; el cierre del socket lo hace el recolector tras CIERRE_MS (ver recolectar)
+    void rechazar(Socket socket, byte[] respuesta) {
+        try {
+            if (responder) {
+                socket.getOutputStream().write(respuesta);
+                socket.shutdownOutput();
+                if (pendientes.incrementAndGet() <= MAXIMO_CIERRES) {
+                    cierres.add(new Cierre(socket, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CIERRE_MS)));
+                    return;
+                }
+                pendientes.decrementAndGet(); // Demasiadas esperando: se cierra ya, aunque se pierda alguna respuesta
+            }
+        } catch (IOException e) {
+            // El cliente ya cerró: solo queda liberar el socket
+        }
+        cerrar(socket);
+    }
+
+    static void cerrar(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            System.err.println("Error en close: " + e.getMessage());
+        }
+    }
+
+    // Toma una ficha de la cubeta del cliente; devuelve 0 si la conexión se admite o cuánto falta para la siguiente ficha
+    long reservar(long clave, long ahora) {
+        AtomicLong cubeta = cubetas.get(clave);
+        if (cubeta == null) {
+            if (cubetas.size() >= ENTRADAS_IP) return 0; // Tabla llena: el cliente se admite sin seguirlo
+            cubeta = cubetas.computeIfAbsent(clave, k -> new AtomicLong(ahora));
+        }
+        while (true) {
+            long llena = cubeta.get();
+            long siguiente = Math.max(llena, ahora) + intervalo;
+            long exceso = siguiente - ahora - rafaga;
+            if (exceso > 0) return exceso;
+            if (cubeta.compareAndSet(llena, siguiente)) return 0;
+        }
+    }
+
+    // Clave del cliente: la dirección IPv4 completa, o el prefijo /64 en IPv6 (lo que suele asignarse a un solo cliente)
+    static long clave(InetAddress direccion) {
+        byte[] bytes = direccion.getAddress();
+        if (bytes.length == 4) {
+            return 0xFFFF_0000_0000L | ((bytes[0] & 0xFFL) << 24) | ((bytes[1] & 0xFFL) << 16)
+                    | ((bytes[2] & 0xFFL) << 8) | (bytes[3] & 0xFFL);
+        }
+        long clave = 0;
+        for (int i = 0; i < 8; i++) {
+            clave = (clave << 8) | (bytes[i] & 0xFFL);
+        }
+        return clave;
+    }
+
+    // Cada segundo (o antes si el plazo o el cierre diferido son cortos) revisa las conexiones (ver revisar)
+    void recolectar() {
+        long periodo = espera > 0 ? Math.max(50, Math.min(1000, TimeUnit.NANOSECONDS.toMillis(espera) / 4)) : 1000;
+        if (responder && (maximo > 0 || intervalo > 0)) periodo = Math.max(50, Math.min(periodo, CIERRE_MS / 2));
+        while (true) {
+            try {
+                Thread.sleep(periodo);
+            } catch (InterruptedException e) {
+                return;
+            }
+            revisar(System.nanoTime());
+        }
+    }
+
+    // Cierra las conexiones que llevan más del plazo esperando su petición, lo que despierta a su Worker con un
+    // error de lectura; descarta lo que enviaron las rechazadas y cierra las que cumplieron su espera; y quita
+    // las cubetas que ya se llenaron (el cliente volvería a empezar con una cubeta llena de todos modos)
+    void revisar(long ahora) {
+        if (espera > 0) {
+            for (Conexion conexion : vigiladas) {
+                long desde = conexion.esperandoDesde;
+                if (desde != 0 && ahora - desde > espera && vigiladas.remove(conexion)) {
+                    recolectadas.increment();
+                    cerrar(conexion.socket);
+                }
+            }
+        }
+        for (Cierre cierre : cierres) {
+            descartar(cierre.socket);
+        }
+        Cierre cierre;
+        while ((cierre = cierres.peek()) != null && ahora - cierre.vence >= 0 && cierres.remove(cierre)) {
+            pendientes.decrementAndGet();
+            cerrar(cierre.socket);
+        }
+        // Una cubeta quitada mientras otro hilo la usa solo pierde esa ficha
+        cubetas.values().removeIf(cubeta -> cubeta.get() - ahora <= 0);
+    }
+
+    // Lee sin bloquear lo que el cliente rechazado ya envió, para que el cierre no encuentre datos sin leer
+    static void descartar(Socket socket) {
+        try {
+            InputStream entrada = socket.getInputStream();
+            byte[] basura = new byte[1024];
+            int disponibles;
+            while ((disponibles = entrada.available()) > 0) {
+                if (entrada.read(basura, 0, Math.min(disponibles, basura.length)) == -1) return;
+            }
+        } catch (IOException e) {
+            // El cliente ya cerró o reinició la conexión: solo queda cerrarla
+        }
+    }
+}
@@ -0,0 +1,435 @@
+// Balanceador.java
+
+import java.io.IOException;                        // Errores al intercambiar con un servidor o al escribir al cliente
+import java.io.OutputStream;                       // Flujo hacia el cliente (o hacia la caché)
+import java.net.InetSocketAddress;                 // Dirección de cada servidor, resuelta una sola vez
+import java.net.Socket;                            // Conexión de un intento de cobertura, cerrada para abortarlo
+import java.net.SocketTimeoutException;            // Distingue el 504 (servidor lento) del 502 (servidor caído)
+import java.nio.charset.StandardCharsets;          // Respuestas de error precalculadas
+import java.util.Arrays;                           // Lista de servidores con el respaldo al final
+import java.util.concurrent.ThreadLocalRandom;     // Elección aleatoria sin contención entre hilos
+import java.util.concurrent.atomic.AtomicInteger;  // Turno circular, peticiones pendientes y fallos seguidos
+import java.util.concurrent.atomic.LongAdder;      // Contadores de peticiones atendidas y fallidas
+
+// Reparto de las peticiones entre N servidores HTTP, con el algoritmo elegido con -Dbalanceo.algoritmo:
+//   "turno"            turno circular (round-robin)
+//   "menos-pendientes" el servidor con menos peticiones en curso
+//   "p2c"              dos servidores al azar y se queda el de menos peticiones en curso (por defecto)
+// La salud se sigue de forma pasiva con las respuestas reales: tras varios fallos seguidos el servidor se
+// expulsa por un tiempo y al volver recibe tráfico de forma gradual (arranque lento) hasta su peso completo.
+// Cada petición tiene plazos: conexión (pool.conexion.ms), lectura (proxy.lectura.ms, sin datos del servidor)
+// y total (proxy.total.ms, hasta que llega la respuesta completa, reintentos incluidos). Una idempotente que
+// falla antes de enviar algo al cliente se reintenta en otro servidor (proxy.reintentos veces); si no queda
+// ninguno el cliente recibe 502, o 504 si el plazo se venció. Si el plazo se vence a mitad del cuerpo la
+// conexión con el cliente se corta.
+class Balanceador {
+    static final String ALGORITMO = Configuracion.texto("balanceo.algoritmo", "p2c");
+    static final int FALLOS_EXPULSION = Configuracion.entero("balanceo.fallos", 3);          // Fallos seguidos para expulsar
+    static final long EXPULSION_MS = Configuracion.largo("balanceo.expulsion.ms", 10000);    // Tiempo fuera del reparto
+    static final long ARRANQUE_MS = Configuracion.largo("balanceo.arranque.ms", 30000);      // Duración del arranque lento
+    static final int REPORTE_SEGUNDOS = Configuracion.entero("balanceo.reporte.segundos", 60); // 0 desactiva el reporte
+    static final double PESO_MINIMO = 0.1; // Fracción del tráfico que recibe un servidor recién reincorporado
+    static final int LECTURA_MS = Configuracion.entero("proxy.lectura.ms", 10000);  // Espera máxima por datos del servidor (0 = sin límite)
+    static final long TOTAL_MS = Configuracion.largo("proxy.total.ms", 15000);      // Plazo para la respuesta completa (reintentos incluidos)
+    static final int REINTENTOS = Configuracion.entero("proxy.reintentos", 1);      // Reintentos en otro servidor de una idempotente
+
+    // Respuestas cuando ningún servidor pudo atender la petición
+    static final byte[] RESPUESTA_502 = ("HTTP/1.1 502 Bad Gateway\r\n"
+            + "Content-length: 0\r\n"
+            + "Connection: close\r\n"
+            + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+    static final byte[] RESPUESTA_504 = ("HTTP/1.1 504 Gateway Timeout\r\n"
+            + "Content-length: 0\r\n"
+            + "Connection: close\r\n"
+            + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+
+    static final LongAdder reintentos = Metricas.contador("proxy_reintentos_total",
+            "Peticiones idempotentes reenviadas a otro servidor tras un fallo sin respuesta");
+    static final LongAdder sinServidor = Metricas.contador("proxy_sin_servidor_total",
+            "Peticiones respondidas con 502 o 504 porque ningún servidor respondió");
+
+    // Servidor del reparto con su carga actual y su estado de salud
+    static class Servidor {
+        final String host;
+        final int puerto;
+        final InetSocketAddress direccion;
+        final int indice;
+        final AtomicInteger pendientes = new AtomicInteger();    // Peticiones en curso
+        final AtomicInteger fallosSeguidos = new AtomicInteger();
+        final LongAdder atendidas;
+        final LongAdder fallidas;
+        final LongAdder expulsiones;
+        final Metricas.Histograma conexion; // Tiempo para establecer una conexión nueva (compartido con el pool)
+        final Metricas.Histograma total;    // Tiempo de cada intercambio completo con el servidor
+        final Metricas.Histograma primerByte; // Tiempo hasta que el servidor empieza a responder (ver Cobertura)
+        volatile boolean expulsado;
+        volatile long expulsadoHasta; // Momento (System.nanoTime) en que vuelve al reparto
+        volatile boolean arrancando;  // Reincorporado y todavía sin su peso completo
+        volatile long arranqueDesde;
+        volatile long retrasoCobertura; // Espera antes de cubrir una petición a este servidor (ver Cobertura)
+        volatile long retrasoCalculado; // Momento del último cálculo de retrasoCobertura
+
+        Servidor(String host, int puerto, int indice) {
+            this.host = host;
+            this.puerto = puerto;
+            this.indice = indice;
+            this.direccion = new InetSocketAddress(host, puerto);
+            // Contadores e histogramas de este servidor, publicados con su etiqueta (ver Metricas)
+            String etiqueta = Metricas.servidor(host, puerto);
+            this.atendidas = Metricas.contador("balanceo_atendidas_total", "Peticiones atendidas con éxito por el servidor", etiqueta);
+            this.fallidas = Metricas.contador("balanceo_fallidas_total", "Peticiones fallidas (error de red o 5xx)", etiqueta);
+            this.expulsiones = Metricas.contador("balanceo_expulsiones_total", "Veces que el servidor salió del reparto", etiqueta);
+            Metricas.exponer("balanceo_pendientes", "Peticiones en curso hacia el servidor", Metricas.MEDIDOR, etiqueta, pendientes::get);
+            Metricas.exponer("balanceo_expulsado", "1 mientras el servidor está fuera del reparto", Metricas.MEDIDOR, etiqueta, () -> expulsado ? 1 : 0);
+            this.conexion = Metricas.histograma("proxy_conexion_servidor_segundos", "Tiempo para conectar con el servidor", etiqueta);
+            this.total = Metricas.histograma("proxy_servidor_segundos", "Tiempo total de cada petición al servidor", etiqueta);
+            this.primerByte = Metricas.histograma("proxy_primer_byte_servidor_segundos",
+                    "Tiempo hasta el primer byte de la respuesta del servidor", etiqueta);
+        }
+
+        // Disponible para el reparto; al terminar su expulsión se reincorpora con arranque lento
+        boolean disponible(long ahora) {
+            if (!expulsado) return true;
+            if (ahora - expulsadoHasta < 0) return false;
+            arranqueDesde = ahora;
+            arrancando = true;
+            expulsado = false;
+            System.out.println("Servidor " + this + " reincorporado con arranque lento de " + ARRANQUE_MS + " ms");
+            return true;
+        }
+
+        // Peso entre PESO_MINIMO y 1 según el tiempo desde la reincorporación
+        double peso(long ahora) {
+            if (!arrancando) return 1;
+            double transcurrido = (ahora - arranqueDesde) / 1_000_000.0;
+            if (transcurrido >= ARRANQUE_MS) {
+                arrancando = false;
+                return 1;
+            }
+            return Math.max(PESO_MINIMO, transcurrido / ARRANQUE_MS);
+        }
+
+        // Disponible y, si está arrancando, solo con probabilidad igual a su peso: así recibe esa fracción
+        // de las peticiones que le corresponderían aunque tenga menos peticiones en curso que los demás
+        boolean admite(long ahora) {
+            if (!disponible(ahora)) return false;
+            double peso = peso(ahora);
+            return peso >= 1 || ThreadLocalRandom.current().nextDouble() < peso;
+        }
+
+        public String toString() {
+            return host + ":" + puerto;
+        }
+    }
+
+    // Flujo hacia el cliente que recuerda el código de estado de la respuesta y si el error fue al escribirle,
+    // para no culpar al servidor cuando el que falló fue el cliente. La primera escritura registra el tiempo
+    // hasta el primer byte del servidor que la atiende (ver medir).
+    static class SalidaVigilada extends OutputStream {
+        final OutputStream destino;
+        int codigo;           // Código de estado de la respuesta, 0 mientras no se conozca
+        boolean errorCliente; // Falló una escritura hacia el cliente
+        boolean escrita;      // Ya se envió algo al cliente: la petición no se puede reintentar
+        Metricas.Histograma primerByte; // Histograma del servidor en curso (null si no se mide)
+        long inicio;                    // Momento (System.nanoTime) en que se envió la petición a ese servidor
+        boolean abortable;              // Intento de una cobertura: el otro intento lo aborta (ver abortar)
+        Socket conexion;                // Conexión del pool por la que llega la respuesta de un intento abortable
+        volatile boolean abortada;
+
+        SalidaVigilada(OutputStream destino) {
+            this.destino = destino;
+        }
+
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        // Mide el tiempo hasta el primer byte de la respuesta de este servidor desde inicio
+        void medir(Servidor servidor, long inicio) {
+            this.primerByte = servidor.primerByte;
+            this.inicio = inicio;
+        }
+
+        public void write(byte[] b, int desde, int cantidad) throws IOException {
+            if (!escrita && primerByte != null) primerByte.registrarDesde(inicio);
+            // Los encabezados se escriben juntos al principio: "HTTP/1.1 200 ..." trae el código en las posiciones 9 a 11
+            if (codigo == 0 && cantidad >= 12) {
+                for (int i = desde + 9; i < desde + 12 && b[i] >= '0' && b[i] <= '9'; i++) {
+                    codigo = codigo * 10 + (b[i] - '0');
+                }
+                if (codigo < 100) codigo = -1; // Respuesta sin línea de estado reconocible
+            }
+            escrita = true;
+            try {
+                destino.write(b, desde, cantidad);
+            } catch (IOException e) {
+                errorCliente = true;
+                throw e;
+            }
+        }
+
+        public void flush() throws IOException {
+            try {
+                destino.flush();
+            } catch (IOException e) {
+                errorCliente = true;
+                throw e;
+            }
+        }
+
+        // Registra la conexión por la que llega la respuesta (null al terminar, antes de devolverla al pool);
+        // si el intento ya se abortó falla sin usarla
+        synchronized void conexion(Socket socket) throws IOException {
+            if (socket != null && abortada) throw new IOException("Intento abortado: otro servidor respondió primero");
+            conexion = socket;
+        }
+
+        // Aborta el intento desde otro hilo: cerrar su conexión despierta a la lectura bloqueada con un error
+        synchronized void abortar() {
+            abortada = true;
+            if (conexion == null) return;
+            try {
+                conexion.close();
+            } catch (IOException e) {
+                // La conexión ya no se usará
+            }
+        }
+    }
+
+    final Servidor[] servidores;
+    final Servidor respaldo;         // Solo para reintentos y coberturas, fuera del reparto (null si no hay)
+    final PoolConexiones pool;
+    final Canalizacion canalizacion; // Conexiones canalizadas para las peticiones idempotentes (null si no se activó)
+    final Cobertura cobertura;       // Peticiones cubiertas en un segundo servidor (null si no se activó)
+    final AtomicInteger turno = new AtomicInteger();
+
+    Balanceador(PoolConexiones pool, String[] hosts, int[] puertos) {
+        this(pool, hosts, puertos, null, 0);
+    }
+
+    // En modo espejo el Servidor-2 es el respaldo del Servidor-1: no recibe el reparto, pero atiende los
+    // reintentos y las coberturas de las peticiones idempotentes
+    Balanceador(PoolConexiones pool, String[] hosts, int[] puertos, String hostRespaldo, int puertoRespaldo) {
+        this.pool = pool;
+        this.servidores = new Servidor[hosts.length];
+        for (int i = 0; i < hosts.length; i++) {
+            servidores[i] = new Servidor(hosts[i], puertos[i], i);
+        }
+        this.respaldo = hostRespaldo == null ? null : new Servidor(hostRespaldo, puertoRespaldo, hosts.length);
+        Servidor[] todos = servidores;
+        if (respaldo != null) {
+            todos = Arrays.copyOf(servidores, servidores.length + 1);
+            todos[servidores.length] = respaldo;
+        }
+        this.canalizacion = Canalizacion.HABILITADA ? new Canalizacion(todos) : null;
+        this.cobertura = Cobertura.HABILITADA ? new Cobertura(this) : null;
+    }
+
+    // Elige el servidor para la siguiente petición según el algoritmo configurado
+    Servidor elegir() {
+        if (servidores.length == 1) return servidores[0];
+        long ahora = System.nanoTime();
+        Servidor elegido;
+        if (ALGORITMO.equals("turno")) {
+            elegido = enTurno(ahora);
+        } else if (ALGORITMO.equals("menos-pendientes")) {
+            elegido = menosCargado(ahora);
+        } else {
+            elegido = dosAlAzar(ahora);
+        }
+        if (elegido == null) {
+            // Todos expulsados: se sigue repartiendo entre todos en lugar de rechazar las peticiones
+            elegido = servidores[Math.floorMod(turno.getAndIncrement(), servidores.length)];
+        }
+        return elegido;
+    }
+
+    // Turno circular; un servidor en arranque lento acepta su turno solo con probabilidad igual a su peso
+    Servidor enTurno(long ahora) {
+        for (int i = 0; i < servidores.length; i++) {
+            Servidor servidor = servidores[Math.floorMod(turno.getAndIncrement(), servidores.length)];
+            if (servidor.admite(ahora)) return servidor;
+        }
+        return menosCargado(ahora);
+    }
+
+    // El servidor con menos peticiones en curso; los empates se resuelven en turno circular
+    Servidor menosCargado(long ahora) {
+        Servidor elegido = null;
+        int menor = Integer.MAX_VALUE;
+        int desde = Math.floorMod(turno.getAndIncrement(), servidores.length);
+        for (int i = 0; i < servidores.length; i++) {
+            Servidor servidor = servidores[(desde + i) % servidores.length];
+            if (!servidor.admite(ahora)) continue;
+            int pendientes = servidor.pendientes.get();
+            if (pendientes < menor) {
+                menor = pendientes;
+                elegido = servidor;
+            }
+        }
+        if (elegido == null) {
+            // Solo quedan servidores arrancando que no admitieron esta vez: se ignora su peso
+            for (Servidor servidor : servidores) {
+                if (servidor.disponible(ahora) && (elegido == null || servidor.pendientes.get() < elegido.pendientes.get())) {
+                    elegido = servidor;
+                }
+            }
+        }
+        return elegido;
+    }
+
+    // "Power of two choices": casi tan bueno como revisar todos, sin recorrer la lista ni concentrar la carga
+    Servidor dosAlAzar(long ahora) {
+        ThreadLocalRandom azar = ThreadLocalRandom.current();
+        int primero = azar.nextInt(servidores.length);
+        int segundo = azar.nextInt(servidores.length - 1);
+        if (segundo >= primero) segundo++;
+        Servidor a = servidores[primero];
+        Servidor b = servidores[segundo];
+        boolean aDisponible = a.admite(ahora);
+        boolean bDisponible = b.admite(ahora);
+        if (aDisponible && bDisponible) return a.pendientes.get() <= b.pendientes.get() ? a : b;
+        if (aDisponible) return a;
+        if (bDisponible) return b;
+        return menosCargado(ahora);
+    }
+
+    // Otro servidor disponible para reintentar o cubrir una petición enviada a excluido: el de menos peticiones
+    // en curso entre los demás del reparto y el respaldo; null si no hay ninguno
+    Servidor alternativo(Servidor excluido) {
+        long ahora = System.nanoTime();
+        Servidor elegido = null;
+        for (Servidor servidor : servidores) {
+            if (servidor != excluido && servidor.disponible(ahora)
+                    && (elegido == null || servidor.pendientes.get() < elegido.pendientes.get())) {
+                elegido = servidor;
+            }
+        }
+        if (elegido == null && respaldo != null && respaldo != excluido && respaldo.disponible(ahora)) elegido = respaldo;
+        return elegido;
+    }
+
+    // Marca el inicio de una petición hacia el servidor; devuelve el momento para medir su duración
+    long iniciar(Servidor servidor) {
+        servidor.pendientes.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    // Registra el resultado y la duración de una petición; tras FALLOS_EXPULSION fallos seguidos el servidor se expulsa
+    void terminar(Servidor servidor, boolean exito, long inicio) {
+        servidor.pendientes.decrementAndGet();
+        servidor.total.registrarDesde(inicio);
+        if (exito) {
+            servidor.atendidas.increment();
+            servidor.fallosSeguidos.set(0);
+            return;
+        }
+        servidor.fallidas.increment();
+        if (servidor.fallosSeguidos.incrementAndGet() >= FALLOS_EXPULSION && !servidor.expulsado) {
+            servidor.fallosSeguidos.set(0);
+            servidor.expulsadoHasta = System.nanoTime() + EXPULSION_MS * 1_000_000;
+            servidor.expulsado = true;
+            servidor.expulsiones.increment();
+            System.err.println("Servidor " + servidor + " expulsado por " + EXPULSION_MS + " ms tras " + FALLOS_EXPULSION + " fallos seguidos");
+        }
+    }
+
+    // Envía la petición al servidor elegido y reenvía la respuesta al destino. Una idempotente que falla antes
+    // de enviar algo al cliente se reintenta en otro servidor dentro del plazo total; con la cobertura activa
+    // se envía además a un segundo servidor si el primero tarda (ver Cobertura). Si ningún servidor responde
+    // y el cliente todavía no recibió nada, se le responde 502 o 504 y se devuelve false.
+    boolean intercambiar(byte[] peticion, OutputStream destino, boolean sinCuerpo, boolean idempotente) throws IOException {
+        long limite = System.nanoTime() + TOTAL_MS * 1_000_000;
+        Servidor servidor = elegir();
+        // Con el servidor expulsado (el reparto no tenía otro), una idempotente va directo al respaldo en lugar
+        // de esperar su reintento; las demás no, porque el Servidor-2 ya recibe la copia del espejo
+        if (idempotente && respaldo != null && !servidor.disponible(System.nanoTime()) && respaldo.disponible(System.nanoTime())) {
+            servidor = respaldo;
+        }
+        for (int intento = 0; ; intento++) {
+            SalidaVigilada salida = new SalidaVigilada(destino);
+            Servidor segundo = cobertura != null && idempotente ? alternativo(servidor) : null;
+            try {
+                if (segundo != null) return cobertura.intercambiar(servidor, segundo, peticion, salida, sinCuerpo, limite);
+                return intercambiarCon(servidor, peticion, salida, sinCuerpo, idempotente, limite);
+            } catch (IOException e) {
+                if (salida.escrita || salida.errorCliente) throw e; // La respuesta ya empezó: no se puede reintentar
+                // La cobertura ya probó un segundo servidor
+                Servidor otro = segundo == null && idempotente && intento < REINTENTOS
+                        && limite - System.nanoTime() > 0 ? alternativo(servidor) : null;
+                if (otro == null) {
+                    System.err.println("Error en el servidor " + servidor + ": " + e.getMessage());
+                    sinServidor.increment();
+                    salida.write(e instanceof SocketTimeoutException ? RESPUESTA_504 : RESPUESTA_502);
+                    salida.flush();
+                    return false;
+                }
+                reintentos.increment();
+                servidor = otro;
+            }
+        }
+    }
+
+    // Un intercambio con un servidor concreto por una conexión del pool.
+    // Las idempotentes van primero por una conexión canalizada compartida (ver Canalizacion); si no hay lugar
+    // o no se pudo escribir en ella, siguen por el pool. Una vez escrita no se reenvía por el pool: si la
+    // conexión se pierde, el error sigue el camino de los reintentos de intercambiar.
+    // La conexión y la respuesta completa no pasan el límite (System.nanoTime). Los intentos abortables de una
+    // cobertura no van por una canalizada: abortarlos cerraría la conexión compartida.
+    // Cuentan como fallo del servidor los errores de conexión o lectura y las respuestas 5xx; un intento
+    // abortado porque otro servidor respondió primero no.
+    boolean intercambiarCon(Servidor servidor, byte[] peticion, SalidaVigilada salida, boolean sinCuerpo, boolean idempotente,
+                            long limite) throws IOException {
+        PoolConexiones.acotar(0, limite); // Con el plazo vencido no se intenta: no es un fallo de este servidor
+        long inicio = iniciar(servidor);
+        salida.medir(servidor, inicio);
+        boolean exito = false;
+        try {
+            if (canalizacion != null && idempotente && !salida.abortable
+                    && canalizacion.intercambiar(servidor, peticion, salida, sinCuerpo, limite)) {
+                exito = salida.codigo < 500;
+                return true;
+            }
+            boolean reutilizable = pool.intercambiar(servidor.host, servidor.puerto, peticion, salida, sinCuerpo, idempotente, limite);
+            exito = salida.codigo < 500;
+            return reutilizable;
+        } catch (IOException e) {
+            exito = salida.errorCliente || salida.abortada;
+            throw e;
+        } finally {
+            salida.primerByte = null; // Un 502 o 504 escrito después no viene del servidor
+            terminar(servidor, exito, inicio);
+        }
+    }
+
+    // Imprime periódicamente el estado de cada servidor en un hilo daemon
+    void iniciarReporte() {
+        if (REPORTE_SEGUNDOS <= 0 || servidores.length == 1) return;
+        Thread reporte = new Thread(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(REPORTE_SEGUNDOS * 1000L);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                System.out.println(resumen());
+            }
+        }, "balanceo-reporte");
+        reporte.setDaemon(true);
+        reporte.start();
+    }
+
+    String resumen() {
+        StringBuilder resumen = new StringBuilder("Balanceo " + ALGORITMO + ":");
+        for (Servidor servidor : servidores) {
+            resumen.append(' ').append(servidor)
+                    .append(" [atendidas=").append(servidor.atendidas.sum())
+                    .append(" fallidas=").append(servidor.fallidas.sum())
+                    .append(" pendientes=").append(servidor.pendientes.get())
+                    .append(" expulsiones=").append(servidor.expulsiones.sum())
+                    .append(servidor.expulsado ? " expulsado" : servidor.arrancando ? " arrancando" : "")
+                    .append(']');
+        }
+        return resumen.toString();
+    }
+}
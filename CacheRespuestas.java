@@ -0,0 +1,332 @@
+// CacheRespuestas.java
+
+import java.io.ByteArrayOutputStream;         // Captura de la respuesta mientras se reenvía al cliente
+import java.io.IOException;                   // Errores al escribir hacia el cliente
+import java.io.OutputStream;                  // Flujo hacia el cliente
+import java.nio.charset.StandardCharsets;     // Los encabezados HTTP se interpretan como ISO-8859-1
+import java.util.Iterator;                    // Recorrido de las entradas en orden de uso para el desalojo
+import java.util.LinkedHashMap;               // Mapa en orden de acceso: la primera entrada es la menos usada (LRU)
+import java.util.concurrent.atomic.AtomicReferenceArray; // Variantes comprimidas de cada entrada, calculadas una vez
+import java.util.concurrent.atomic.LongAdder; // Contadores de aciertos, fallos y revalidaciones
+
+// Caché compartida de respuestas del proxy, indexada por método y URI.
+// Las entradas frescas se responden sin tocar a los servidores (incluido el 304 cuando el cliente envía
+// If-Modified-Since); las vencidas se revalidan con If-Modified-Since y un 304 del servidor las renueva.
+// Se guarda la respuesta sin comprimir; la variante gzip o deflate se calcula la primera vez que un cliente
+// la pide y queda en la misma entrada (ver Compresion). El desalojo es LRU con un presupuesto total de bytes,
+// que incluye las variantes.
+class CacheRespuestas {
+    static final boolean HABILITADA = Configuracion.booleano("cache.habilitada", true);
+    static final long PRESUPUESTO = Configuracion.largo("cache.bytes", 64L * 1024 * 1024);   // Bytes totales de la caché
+    static final int MAXIMO_ENTRADA = Configuracion.entero("cache.max.entrada", 1024 * 1024); // Respuestas más grandes no se guardan
+    static final long TTL_MS = Configuracion.largo("cache.ttl.ms", 5000); // Frescura cuando la respuesta no trae max-age
+
+    // Respuesta guardada tal como la envió el servidor (encabezados y cuerpo)
+    static class Entrada {
+        final byte[] respuesta;
+        final AtomicReferenceArray<byte[]> variantes = new AtomicReferenceArray<>(Compresion.NOMBRES.length); // Por codificación
+        long bytes;                      // Respuesta y variantes, contados en el presupuesto (con el candado de la caché)
+        boolean desalojada;              // Ya no está en la caché: sus variantes nuevas no se cuentan
+        final String ultimaModificacion; // Valor de Last-Modified, usado para revalidar y para responder 304
+        final byte[] noModificado;       // Respuesta 304 precalculada para los clientes que ya tienen esta versión
+        final long vigenciaMs;
+        volatile long frescaHasta;       // Momento (System.nanoTime) en que la entrada vence
+
+        Entrada(byte[] respuesta, String ultimaModificacion, long vigenciaMs) {
+            this.respuesta = respuesta;
+            this.ultimaModificacion = ultimaModificacion;
+            this.vigenciaMs = vigenciaMs;
+            this.bytes = respuesta.length;
+            this.noModificado = ultimaModificacion == null ? null : noModificado(ultimaModificacion);
+            renovar();
+        }
+
+        boolean fresca() {
+            return System.nanoTime() - frescaHasta < 0;
+        }
+
+        void renovar() {
+            frescaHasta = System.nanoTime() + vigenciaMs * 1_000_000;
+        }
+    }
+
+    // Respuesta 304 para un cliente que ya tiene la versión con esa fecha
+    static byte[] noModificado(String ultimaModificacion) {
+        return ("HTTP/1.1 304 Not Modified\r\n"
+                + "Last-Modified: " + ultimaModificacion + "\r\n"
+                + "Connection: close\r\n"
+                + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    // Copia en memoria lo que se reenvía al cliente, hasta el tamaño máximo de una entrada
+    static class Captura extends OutputStream {
+        final OutputStream destino;
+        final ByteArrayOutputStream copia = new ByteArrayOutputStream();
+        boolean excedida;
+
+        Captura(OutputStream destino) {
+            this.destino = destino;
+        }
+
+        public void write(int b) throws IOException {
+            destino.write(b);
+            copiar(new byte[] {(byte) b}, 0, 1);
+        }
+
+        public void write(byte[] b, int desde, int cantidad) throws IOException {
+            destino.write(b, desde, cantidad);
+            copiar(b, desde, cantidad);
+        }
+
+        // Si la respuesta excede el tamaño máximo de una entrada se descarta la copia
+        void copiar(byte[] b, int desde, int cantidad) {
+            if (excedida) return;
+            if (copia.size() + cantidad > MAXIMO_ENTRADA) {
+                excedida = true;
+                copia.reset();
+            } else {
+                copia.write(b, desde, cantidad);
+            }
+        }
+
+        public void flush() throws IOException {
+            destino.flush();
+        }
+    }
+
+    // Destino de una respuesta del servidor que la caché pidió (sin entrada, o para revalidar una vencida).
+    // Retiene solo los encabezados (el relay los escribe en una sola escritura) y con el estado y Last-Modified
+    // decide a dónde va el resto, sin acumular la respuesta completa:
+    //   - 304 o error del servidor (5xx, incluido el 502/504 del Balanceador) con entrada vencida: se descarta
+    //     y el cliente recibe la entrada (ver Despachador)
+    //   - 200 con la misma fecha que el If-Modified-Since del cliente: el cliente recibe un 304 y el cuerpo
+    //     solo se captura para la caché
+    //   - cualquier otra: se reenvía al cliente conforme llega y a la vez se captura (ver Captura)
+    static class Revision extends OutputStream {
+        static final int MAXIMO_ENCABEZADOS = 64 * 1024; // Sin fin de encabezados a esta altura se reenvía tal cual
+
+        final OutputStream salida;        // Hacia el cliente, por la etapa de compresión
+        final OutputStream salidaCliente; // Directo al cliente, para el 304
+        final String ifModifiedSince;     // Condición del cliente, o null
+        final boolean conEntrada;         // Hay una entrada vencida con la que responder si el servidor falla
+        ByteArrayOutputStream encabezados = new ByteArrayOutputStream();
+        OutputStream destino;             // Decidido al completar los encabezados
+        Captura captura;                  // Copia para la caché, null si la respuesta no se guarda
+        int codigo;                       // Estado de la respuesta del servidor, 0 mientras faltan los encabezados
+        boolean descartada;               // 304 o error del servidor: el cliente se responde desde la entrada
+        boolean clienteAlDia;             // El cliente recibió un 304
+
+        Revision(OutputStream salida, OutputStream salidaCliente, String ifModifiedSince, boolean conEntrada) {
+            this.salida = salida;
+            this.salidaCliente = salidaCliente;
+            this.ifModifiedSince = ifModifiedSince;
+            this.conEntrada = conEntrada;
+        }
+
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        public void write(byte[] b, int desde, int cantidad) throws IOException {
+            if (destino != null) {
+                destino.write(b, desde, cantidad);
+                return;
+            }
+            encabezados.write(b, desde, cantidad);
+            byte[] retenidos = encabezados.toByteArray();
+            int fin = RelayHTTP.indice(retenidos, 0, retenidos.length, RelayHTTP.FIN_ENCABEZADOS);
+            if (fin == -1) {
+                if (retenidos.length > MAXIMO_ENCABEZADOS) soltar(salida);
+                return;
+            }
+            String texto = new String(retenidos, 0, fin + 2, StandardCharsets.ISO_8859_1);
+            codigo = RelayHTTP.codigoEstado(texto);
+            if (conEntrada && (codigo == 304 || codigo >= 500)) {
+                descartada = true;
+                soltar(OutputStream.nullOutputStream());
+                return;
+            }
+            String ultimaModificacion = encabezado(texto, "Last-Modified");
+            if (codigo == 200 && ifModifiedSince != null && ifModifiedSince.equals(ultimaModificacion)) {
+                clienteAlDia = true;
+                salidaCliente.write(noModificado(ultimaModificacion));
+                salidaCliente.flush();
+                captura = new Captura(OutputStream.nullOutputStream());
+            } else {
+                captura = new Captura(salida);
+            }
+            soltar(captura);
+        }
+
+        // Fija el destino y le pasa lo retenido
+        void soltar(OutputStream nuevo) throws IOException {
+            destino = nuevo;
+            byte[] retenidos = encabezados.toByteArray();
+            encabezados = null;
+            destino.write(retenidos, 0, retenidos.length);
+        }
+
+        public void flush() throws IOException {
+            if (destino != null) destino.flush();
+        }
+
+        // Al terminar el intercambio: lo retenido sin fin de encabezados (el servidor cerró antes) va al cliente
+        void terminar() throws IOException {
+            if (destino == null && encabezados.size() > 0) soltar(salida);
+            flush();
+        }
+
+        // Respuesta completa capturada que se puede intentar guardar, o null
+        byte[] completa() {
+            return captura == null || captura.excedida ? null : captura.copia.toByteArray();
+        }
+    }
+
+    final LinkedHashMap<String, Entrada> entradas = new LinkedHashMap<>(64, 0.75f, true);
+    long bytesUsados;
+
+    final LongAdder aciertos = Metricas.contador("cache_aciertos_total", "Peticiones encontradas en la caché");
+    final LongAdder fallos = Metricas.contador("cache_fallos_total", "Peticiones no encontradas en la caché");
+    // Entradas renovadas por un 304 del servidor
+    final LongAdder revalidadas = Metricas.contador("cache_revalidadas_total", "Entradas renovadas por un 304 del servidor");
+    // 304 respondidos a clientes desde la caché
+    final LongAdder noModificados = Metricas.contador("cache_no_modificados_total", "Respuestas 304 enviadas desde la caché");
+    // Entradas vencidas respondidas porque el servidor falló al revalidarlas
+    final LongAdder vencidasServidas = Metricas.contador("cache_vencidas_servidas_total",
+            "Entradas vencidas respondidas porque el servidor falló al revalidarlas");
+
+    // Clave de la caché: método y URI de la línea de petición (ej. "GET /")
+    static String clave(PeticionHTTP peticion) {
+        return peticion.metodoYUri();
+    }
+
+    // Peticiones con credenciales no se responden desde la caché compartida
+    static boolean admitePeticion(PeticionHTTP peticion) {
+        return peticion.buscar("Authorization") == -1;
+    }
+
+    // El cliente pide no usar una copia sin revalidarla
+    static boolean exigeRevalidar(PeticionHTTP peticion) {
+        int cacheControl = peticion.buscar("Cache-Control");
+        int pragma = peticion.buscar("Pragma");
+        return (cacheControl != -1 && peticion.valorContiene(cacheControl, "no-cache"))
+                || (pragma != -1 && peticion.valorContiene(pragma, "no-cache"));
+    }
+
+    synchronized Entrada buscar(String clave) {
+        Entrada entrada = entradas.get(clave);
+        if (entrada == null) {
+            fallos.increment();
+        } else {
+            aciertos.increment();
+        }
+        return entrada;
+    }
+
+    // Guarda la respuesta si es almacenable: 200 completa, con Last-Modified o max-age, sin no-store/private ni Set-Cookie
+    Entrada guardar(String clave, byte[] respuesta) {
+        if (!HABILITADA || respuesta.length > MAXIMO_ENTRADA) return null;
+        int fin = RelayHTTP.indice(respuesta, 0, respuesta.length, RelayHTTP.FIN_ENCABEZADOS);
+        if (fin == -1) return null;
+        String encabezados = new String(respuesta, 0, fin + 2, StandardCharsets.ISO_8859_1);
+        if (RelayHTTP.codigoEstado(encabezados) != 200) return null;
+        // Las variantes se derivan de la respuesta sin codificar; una ya comprimida no se guarda
+        if (encabezado(encabezados, "Content-Encoding") != null) return null;
+
+        String cacheControl = encabezado(encabezados, "Cache-Control");
+        if (encabezado(encabezados, "Set-Cookie") != null) return null;
+        if (cacheControl != null && (cacheControl.contains("no-store") || cacheControl.contains("private"))) return null;
+        long vigenciaMs = TTL_MS;
+        int maxAge = cacheControl == null ? -1 : cacheControl.indexOf("max-age=");
+        if (maxAge != -1) {
+            int desde = maxAge + 8;
+            int hasta = desde;
+            while (hasta < cacheControl.length() && Character.isDigit(cacheControl.charAt(hasta))) hasta++;
+            if (hasta == desde) return null;
+            vigenciaMs = Long.parseLong(cacheControl.substring(desde, hasta)) * 1000;
+        }
+        String ultimaModificacion = encabezado(encabezados, "Last-Modified");
+        if (ultimaModificacion == null && maxAge == -1) return null; // Sin validador ni frescura explícita
+
+        Entrada entrada = new Entrada(respuesta, ultimaModificacion, vigenciaMs);
+        poner(clave, entrada);
+        return entrada;
+    }
+
+    synchronized void poner(String clave, Entrada entrada) {
+        Entrada anterior = entradas.put(clave, entrada);
+        if (anterior != null) {
+            bytesUsados -= anterior.bytes;
+            anterior.desalojada = true;
+        }
+        bytesUsados += entrada.bytes;
+        desalojar(entrada);
+    }
+
+    // Desaloja las entradas menos usadas hasta respetar el presupuesto, sin tocar la indicada
+    void desalojar(Entrada conservar) {
+        Iterator<Entrada> iterador = entradas.values().iterator();
+        while (bytesUsados > PRESUPUESTO && iterador.hasNext()) {
+            Entrada candidata = iterador.next();
+            if (candidata == conservar) continue;
+            iterador.remove();
+            bytesUsados -= candidata.bytes;
+            candidata.desalojada = true;
+        }
+    }
+
+    // Variante de la entrada en la codificación pedida: se comprime solo la primera vez (si dos hilos la
+    // piden a la vez ambos comprimen, pero se guarda una sola). La de identity es la respuesta guardada, con
+    // "Vary: Accept-Encoding" si es de las que el proxy comprime (ver Compresion.comprimir).
+    byte[] variante(Entrada entrada, int codificacion) {
+        byte[] variante = entrada.variantes.get(codificacion);
+        if (variante != null) return variante;
+        variante = Compresion.comprimir(entrada.respuesta, codificacion);
+        if (!entrada.variantes.compareAndSet(codificacion, null, variante)) return entrada.variantes.get(codificacion);
+        if (variante != entrada.respuesta) {
+            synchronized (this) {
+                entrada.bytes += variante.length;
+                if (!entrada.desalojada) {
+                    bytesUsados += variante.length;
+                    desalojar(entrada);
+                }
+            }
+        }
+        return variante;
+    }
+
+    // Responde desde la caché: 304 si el cliente ya tiene la misma versión, o la respuesta completa en la
+    // codificación negociada con el cliente
+    void responder(Entrada entrada, String ifModifiedSince, int codificacion, OutputStream salidaCliente) throws IOException {
+        if (ifModifiedSince != null && entrada.ultimaModificacion != null && ifModifiedSince.equals(entrada.ultimaModificacion)) {
+            noModificados.increment();
+            salidaCliente.write(entrada.noModificado);
+        } else {
+            salidaCliente.write(variante(entrada, codificacion));
+        }
+        salidaCliente.flush();
+    }
+
+    // Valor del encabezado dentro de un bloque de encabezados separados por CRLF (sin distinguir mayúsculas), o null
+    static String encabezado(String encabezados, String nombre) {
+        int desde = 0;
+        while (desde < encabezados.length()) {
+            int fin = encabezados.indexOf("\r\n", desde);
+            if (fin == -1) fin = encabezados.length();
+            if (fin - desde > nombre.length() && encabezados.charAt(desde + nombre.length()) == ':'
+                    && encabezados.regionMatches(true, desde, nombre, 0, nombre.length())) {
+                return encabezados.substring(desde + nombre.length() + 1, fin).trim();
+            }
+            desde = fin + 2;
+        }
+        return null;
+    }
+
+    String resumen() {
+        synchronized (this) {
+            return "Caché entradas=" + entradas.size() + " bytes=" + bytesUsados
+                    + " aciertos=" + aciertos.sum() + " fallos=" + fallos.sum()
+                    + " revalidadas=" + revalidadas.sum() + " 304=" + noModificados.sum();
+        }
+    }
+}
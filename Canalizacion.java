@@ -0,0 +1,282 @@
+// Canalizacion.java
+
+import java.io.IOException;                   // Errores con el servidor o con el cliente
+import java.io.OutputStream;                  // Flujo hacia el servidor y hacia el cliente
+import java.net.Socket;                       // Conexión canalizada con un servidor
+import java.net.SocketTimeoutException;       // Sin turno antes del plazo total
+import java.util.concurrent.TimeUnit;         // Espera del turno acotada por el plazo total
+import java.util.concurrent.atomic.LongAdder; // Contadores de peticiones canalizadas y desviadas
+
+// Canalización HTTP/1.1 (pipelining) hacia los servidores: las peticiones idempotentes de muchos clientes
+// comparten unas pocas conexiones por servidor. Cada petición se escribe en cuanto llega, sin esperar la
+// respuesta de las anteriores; el servidor responde en el mismo orden y cada hilo lee su respuesta cuando
+// llega su turno (la correlación es por orden de envío), reenviándola a su cliente conforme llega.
+// Para limitar el bloqueo en cabeza de línea:
+//   - cada conexión admite a lo más canalizacion.maximo peticiones en vuelo; con todas llenas la petición
+//     usa una conexión exclusiva del pool
+//   - una respuesta que tarda más de proxy.lectura.ms cierra la conexión; las peticiones formadas detrás ya
+//     se escribieron, así que no se reenvían a ciegas: fallan y el Balanceador decide si se reintentan
+//     (solo las idempotentes, en otro servidor y dentro de proxy.total.ms)
+// La conexión se establece y las peticiones se escriben sin el candado del tubo; ese candado solo se toma para
+// formar la petición (asignar su turno) y para correlacionar las respuestas.
+// Se activa con -Dproxy.canalizacion=true y aplica al motor de hilos (MotorNIO ya comparte conexiones sin bloquear).
+class Canalizacion {
+    static final boolean HABILITADA = Configuracion.booleano("proxy.canalizacion", false);
+    static final int CONEXIONES = Math.max(1, Configuracion.entero("canalizacion.conexiones", 2)); // Conexiones canalizadas por servidor
+    static final int MAXIMO_EN_VUELO = Configuracion.entero("canalizacion.maximo", 8);           // Peticiones sin respuesta por conexión
+
+    static final LongAdder canalizadas = Metricas.contador("canalizacion_peticiones_total", "Peticiones atendidas por una conexión canalizada");
+    static final LongAdder desviadas = Metricas.contador("canalizacion_desviadas_total",
+            "Peticiones enviadas por el pool porque las conexiones canalizadas estaban llenas, abriéndose o no se pudieron usar");
+    static final LongAdder perdidas = Metricas.contador("canalizacion_perdidas_total",
+            "Peticiones ya escritas cuya conexión canalizada se perdió antes de recibir algo de su respuesta");
+
+    // Conexión canalizada con un servidor. Los campos se modifican con el candado del tubo; el hilo en turno
+    // lee del lector sin el candado porque nadie más lo usa hasta que avanza el turno, y las escrituras van
+    // con el candado de escritura, que se toma antes que el del tubo para que el orden en la conexión sea el
+    // de los turnos.
+    static class Tubo {
+        final Balanceador.Servidor servidor;
+        final Object escritura = new Object();
+        Socket socket;
+        OutputStream salida;
+        RelayHTTP.Lector lector;
+        boolean abierto;
+        boolean abriendo;          // Un hilo está conectando sin el candado; mientras tanto las demás van por el pool
+        long generacion;           // Aumenta con cada cierre: las peticiones de una generación anterior fallan
+        volatile long enviadas;    // Peticiones escritas en esta generación
+        volatile long atendidas;   // Respuestas leídas completas en esta generación (turno actual)
+        long ultimoUso;            // Momento (System.nanoTime) de la última respuesta
+
+        Tubo(Balanceador.Servidor servidor) {
+            this.servidor = servidor;
+        }
+
+        long enVuelo() {
+            return enviadas - atendidas;
+        }
+
+        // Deja el tubo listo para formar una petición nueva, abriendo la conexión si hace falta. La conexión se
+        // establece fuera del candado y sin pasar el límite. Devuelve false si ahora no se puede usar (otro hilo
+        // la está abriendo, se cierra con una respuesta anterior en curso, o no se pudo conectar).
+        boolean preparar(long limite) {
+            synchronized (this) {
+                // Una conexión inactiva más tiempo que el del pool pudo ser cerrada por el servidor: se abre otra
+                if (abierto && enVuelo() == 0 && (System.nanoTime() - ultimoUso) / 1_000_000 > PoolConexiones.INACTIVIDAD_MS) {
+                    cerrar();
+                }
+                if (abierto) return true;
+                if (abriendo || enVuelo() > 0) return false;
+                abriendo = true;
+            }
+            Socket nuevo = new Socket();
+            try {
+                long inicio = System.nanoTime();
+                nuevo.connect(servidor.direccion, PoolConexiones.acotar(PoolConexiones.CONEXION_MS, limite));
+                servidor.conexion.registrarDesde(inicio);
+                nuevo.setTcpNoDelay(true);
+                nuevo.setSoTimeout(Balanceador.LECTURA_MS);
+                synchronized (this) {
+                    abriendo = false;
+                    socket = nuevo;
+                    salida = nuevo.getOutputStream();
+                    lector = new RelayHTTP.Lector(nuevo.getInputStream());
+                    ultimoUso = System.nanoTime();
+                    abierto = true;
+                }
+                return true;
+            } catch (IOException e) {
+                try {
+                    nuevo.close();
+                } catch (IOException e2) {
+                    // La conexión nunca se usó
+                }
+                synchronized (this) {
+                    abriendo = false;
+                }
+                return false; // El pool intentará su propia conexión y registrará el fallo
+            }
+        }
+
+        // Descarta la conexión porque la petición de ese turno no se completó. Sin lector antes de ese turno se
+        // cierra aquí; si hay uno, su lectura fallará y él cerrará la conexión
+        synchronized void abortar(long generacion, long turno) {
+            if (this.generacion != generacion) return;
+            if (atendidas == turno) {
+                cerrar();
+                return;
+            }
+            abierto = false;
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Se cerrará del todo al fallar la lectura en curso
+            }
+        }
+
+        // Cierra la conexión y despierta a las peticiones formadas para que fallen.
+        // Solo se llama cuando nadie está leyendo (el hilo en turno o sin peticiones en vuelo).
+        void cerrar() {
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // La conexión ya no se usará
+                }
+                lector.liberar();
+                socket = null;
+            }
+            abierto = false;
+            generacion++;
+            enviadas = atendidas = 0;
+            notifyAll();
+        }
+    }
+
+    // Flujo hacia el cliente que, si el cliente falla, sigue aceptando (y descartando) la respuesta:
+    // hay que leerla completa para que la conexión canalizada no quede desincronizada
+    static class SalidaTolerante extends OutputStream {
+        final OutputStream destino;
+        IOException error;
+        boolean escrita; // Ya se envió algo al cliente: la petición no se puede reintentar
+
+        SalidaTolerante(OutputStream destino) {
+            this.destino = destino;
+        }
+
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        public void write(byte[] b, int desde, int cantidad) {
+            escrita = true;
+            if (error != null) return;
+            try {
+                destino.write(b, desde, cantidad);
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+
+        public void flush() {
+            if (error != null) return;
+            try {
+                destino.flush();
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+    }
+
+    final Tubo[][] tubos; // Por índice del servidor en el Balanceador
+
+    Canalizacion(Balanceador.Servidor[] servidores) {
+        this.tubos = new Tubo[servidores.length][CONEXIONES];
+        for (Balanceador.Servidor servidor : servidores) {
+            for (int i = 0; i < CONEXIONES; i++) {
+                tubos[servidor.indice][i] = new Tubo(servidor);
+            }
+        }
+    }
+
+    // Envía la petición por la conexión canalizada menos ocupada del servidor y reenvía su respuesta al destino.
+    // Devuelve false si no la escribió (conexiones llenas, abriéndose o sin poder conectar o escribir): en ese
+    // caso el llamador la envía por el pool. Una vez escrita nunca devuelve false: si la conexión se pierde
+    // antes de recibir algo de su respuesta lanza IOException y el Balanceador decide si la reintenta.
+    // La espera del turno y la respuesta completa no pasan el límite (System.nanoTime; 0 = sin límite).
+    boolean intercambiar(Balanceador.Servidor servidor, byte[] peticion, OutputStream destino, boolean sinCuerpo,
+                         long limite) throws IOException {
+        Tubo tubo = menosOcupado(servidor);
+        if (!tubo.preparar(limite)) {
+            desviadas.increment();
+            return false;
+        }
+        long turno;
+        long generacion;
+        synchronized (tubo.escritura) {
+            OutputStream salidaTubo;
+            synchronized (tubo) {
+                // Llena, o cerrada desde que se preparó
+                if (tubo.enVuelo() >= MAXIMO_EN_VUELO || !tubo.abierto) {
+                    desviadas.increment();
+                    return false;
+                }
+                turno = tubo.enviadas++;
+                generacion = tubo.generacion;
+                salidaTubo = tubo.salida;
+            }
+            try {
+                salidaTubo.write(peticion);
+                salidaTubo.flush();
+            } catch (IOException e) {
+                tubo.abortar(generacion, turno);
+                desviadas.increment();
+                return false;
+            }
+        }
+        synchronized (tubo) {
+            // Espera a que se lean las respuestas de las peticiones anteriores en esta conexión. La petición ya
+            // se envió: aunque se interrumpa el hilo hay que leer su respuesta para no desincronizar a las demás
+            boolean interrumpido = false;
+            long restante = 1;
+            while (tubo.generacion == generacion && tubo.atendidas != turno
+                    && (limite == 0 || (restante = limite - System.nanoTime()) > 0)) {
+                try {
+                    if (limite == 0) {
+                        tubo.wait();
+                    } else {
+                        TimeUnit.NANOSECONDS.timedWait(tubo, restante);
+                    }
+                } catch (InterruptedException e) {
+                    interrumpido = true;
+                }
+            }
+            if (interrumpido) Thread.currentThread().interrupt();
+            if (tubo.generacion != generacion) {
+                perdidas.increment();
+                throw new IOException("La conexión canalizada se perdió antes de la respuesta");
+            }
+            if (tubo.atendidas != turno) {
+                // Se venció el plazo total esperando el turno: la respuesta ya no se puede saltar sin
+                // desincronizar la conexión, así que se descarta junto con las peticiones formadas
+                tubo.abortar(generacion, turno);
+                perdidas.increment();
+                throw new SocketTimeoutException("Sin turno en la conexión canalizada con " + servidor + " en "
+                        + Balanceador.TOTAL_MS + " ms");
+            }
+        }
+
+        // Turno de esta petición: solo este hilo lee del lector hasta que avance el turno
+        SalidaTolerante salida = new SalidaTolerante(destino);
+        boolean reutilizable = false;
+        try {
+            reutilizable = RelayHTTP.responder(tubo.lector, tubo.socket, Balanceador.LECTURA_MS, limite, salida, sinCuerpo);
+        } catch (IOException e) {
+            if (!salida.escrita) perdidas.increment();
+            throw e;
+        } finally {
+            synchronized (tubo) {
+                if (reutilizable && tubo.abierto) {
+                    tubo.atendidas++;
+                    tubo.ultimoUso = System.nanoTime();
+                    tubo.notifyAll();
+                } else {
+                    tubo.cerrar(); // Respuesta con "Connection: close", hasta EOF, o error del servidor
+                }
+            }
+        }
+        canalizadas.increment();
+        if (salida.error != null) throw salida.error;
+        return true;
+    }
+
+    // La conexión del servidor con menos peticiones en vuelo (lectura sin candado: basta como estimación)
+    Tubo menosOcupado(Balanceador.Servidor servidor) {
+        Tubo[] propios = tubos[servidor.indice];
+        Tubo elegido = propios[0];
+        for (int i = 1; i < propios.length; i++) {
+            if (propios[i].enVuelo() < elegido.enVuelo()) elegido = propios[i];
+        }
+        return elegido;
+    }
+}
@@ -0,0 +1,269 @@
+// Cobertura.java
+
+import java.io.IOException;                              // Errores de los intentos y del cliente
+import java.io.OutputStream;                             // Flujo hacia el cliente (o hacia la caché)
+import java.net.SocketTimeoutException;                  // Ningún servidor respondió antes del plazo total
+import java.util.concurrent.RejectedExecutionException;  // Sin hilos libres para lanzar el segundo intento
+import java.util.concurrent.ScheduledFuture;             // Cobertura programada, cancelada si no hace falta
+import java.util.concurrent.ScheduledThreadPoolExecutor; // Reloj que lanza las coberturas al vencer su espera
+import java.util.concurrent.SynchronousQueue;            // Entrega directa de cada intento a un hilo
+import java.util.concurrent.ThreadPoolExecutor;          // Hilos que ejecutan los segundos intentos
+import java.util.concurrent.TimeUnit;                    // Unidades de tiempo del pool
+import java.util.concurrent.atomic.AtomicInteger;        // Numeración de los hilos
+import java.util.concurrent.atomic.LongAdder;            // Contadores de coberturas lanzadas y ganadas
+
+// Peticiones cubiertas (hedged requests) para acotar la latencia de cola: una petición idempotente se envía
+// primero a un servidor desde el hilo del Worker; si no empezó a responder cuando pasa el percentil
+// cobertura.percentil de sus tiempos hasta el primer byte (proxy_primer_byte_servidor_segundos), un reloj
+// la envía también a otro servidor desde un hilo del pool y se queda la respuesta que empiece a llegar
+// primero. Solo las peticiones cubiertas usan un hilo extra. El otro intento se aborta en cuanto uno gana
+// (su conexión se cierra) y no se cuenta como fallo de su servidor. Si el primer servidor falla antes de
+// ese momento, el segundo se intenta de inmediato en el mismo hilo (conmutación por error).
+// Se activa con -Dproxy.cobertura=true.
+class Cobertura {
+    static final boolean HABILITADA = Configuracion.booleano("proxy.cobertura", false);
+    static final double PERCENTIL = Configuracion.decimal("cobertura.percentil", 0.95);
+    static final long MINIMO_MS = Configuracion.largo("cobertura.minimo.ms", 10);      // Espera mínima antes de cubrir
+    static final long MUESTRAS = Configuracion.largo("cobertura.muestras", 100);       // Tiempos necesarios para estimar el percentil
+    static final int HILOS = Configuracion.entero("cobertura.hilos", 256);             // Coberturas en curso a la vez
+    static final long RECALCULO_NANOS = 1_000_000_000L; // El percentil de cada servidor se recalcula a lo más una vez por segundo
+
+    static final LongAdder lanzadas = Metricas.contador("cobertura_lanzadas_total",
+            "Peticiones enviadas a un segundo servidor porque el primero tardaba más que su percentil");
+    static final LongAdder ganadas = Metricas.contador("cobertura_ganadas_total",
+            "Peticiones cubiertas en las que el segundo servidor respondió primero");
+    static final LongAdder conmutadas = Metricas.contador("cobertura_conmutadas_total",
+            "Peticiones enviadas a un segundo servidor porque el primero falló antes de responder");
+
+    // Estado compartido por los dos intentos de una petición y el hilo que la espera
+    static class Carrera {
+        final OutputStream destino;
+        final Balanceador.SalidaVigilada[] salidas = new Balanceador.SalidaVigilada[2]; // Una por intento, para abortarlo
+        int ganador = -1;        // Intento que empezó a responder primero; ABANDONADA si ya no se espera a ninguno
+        int enCurso;             // Segundos intentos lanzados que todavía no terminan
+        boolean segundoLanzado;  // El reloj o la conmutación ya se quedaron con el segundo intento
+        boolean ganadorTermino;
+        boolean reutilizable;
+        IOException error;       // Error del ganador, o el último error si ninguno respondió
+
+        static final int ABANDONADA = -2;
+
+        Carrera(OutputStream destino) {
+            this.destino = destino;
+        }
+
+        // Salida abortable del intento indicado hacia el cliente
+        synchronized Balanceador.SalidaVigilada salida(int intento) {
+            Balanceador.SalidaVigilada salida = new Balanceador.SalidaVigilada(new Reclamo(this, intento));
+            salida.abortable = true;
+            salidas[intento] = salida;
+            return salida;
+        }
+
+        // El primer intento que escribe se queda con el cliente; el otro se aborta para que suelte su conexión
+        boolean reclamar(int intento) {
+            Balanceador.SalidaVigilada perdedora;
+            synchronized (this) {
+                if (ganador != -1) return ganador == intento;
+                ganador = intento;
+                notifyAll();
+                perdedora = salidas[1 - intento];
+            }
+            if (perdedora != null) perdedora.abortar();
+            return true;
+        }
+
+        synchronized void terminar(int intento, boolean reutilizable, IOException error) {
+            enCurso--;
+            if (ganador == intento) {
+                ganadorTermino = true;
+                this.reutilizable = reutilizable;
+                this.error = error;
+            } else if (ganador == -1 && error != null) {
+                this.error = error;
+            }
+            notifyAll();
+        }
+
+        // Espera hasta que haya un ganador, no quede ningún intento en curso o se llegue al momento indicado
+        synchronized void esperar(long hasta) {
+            long restante;
+            while (ganador == -1 && enCurso > 0 && (restante = hasta - System.nanoTime()) > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(this, restante);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    // Flujo de un intento hacia el cliente: la primera escritura reclama la carrera; si otro intento ya la
+    // ganó, falla para abortar la lectura de esta respuesta
+    static class Reclamo extends OutputStream {
+        final Carrera carrera;
+        final int intento;
+        boolean ganada;
+
+        Reclamo(Carrera carrera, int intento) {
+            this.carrera = carrera;
+            this.intento = intento;
+        }
+
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        public void write(byte[] b, int desde, int cantidad) throws IOException {
+            if (!ganada && !(ganada = carrera.reclamar(intento))) {
+                throw new IOException("Otro servidor respondió primero");
+            }
+            carrera.destino.write(b, desde, cantidad);
+        }
+
+        public void flush() throws IOException {
+            if (ganada) carrera.destino.flush();
+        }
+    }
+
+    final Balanceador balanceador;
+    final ThreadPoolExecutor intentos;
+    final ScheduledThreadPoolExecutor reloj;
+
+    Cobertura(Balanceador balanceador) {
+        this.balanceador = balanceador;
+        AtomicInteger numero = new AtomicInteger();
+        // Sin cola: si no hay hilo libre la petición sigue sin cobertura
+        this.intentos = new ThreadPoolExecutor(0, HILOS, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), tarea -> {
+            Thread hilo = new Thread(tarea, "cobertura-" + numero.incrementAndGet());
+            hilo.setDaemon(true);
+            return hilo;
+        });
+        // Un solo hilo que solo entrega cada cobertura al pool; las canceladas se quitan de su cola de inmediato
+        this.reloj = new ScheduledThreadPoolExecutor(1, tarea -> {
+            Thread hilo = new Thread(tarea, "cobertura-reloj");
+            hilo.setDaemon(true);
+            return hilo;
+        });
+        reloj.setRemoveOnCancelPolicy(true);
+    }
+
+    // Espera antes de cubrir una petición al servidor: su percentil, o sin cobertura mientras no haya
+    // suficientes tiempos para estimarlo (la conmutación por error sigue activa)
+    long retraso(Balanceador.Servidor servidor, long ahora) {
+        if (ahora - servidor.retrasoCalculado > RECALCULO_NANOS || servidor.retrasoCalculado == 0) {
+            long[] copia = servidor.primerByte.copia();
+            long total = Metricas.Histograma.total(copia);
+            servidor.retrasoCobertura = total < MUESTRAS ? Long.MAX_VALUE
+                    : Math.max(MINIMO_MS * 1_000_000, Metricas.Histograma.cuantil(copia, total, PERCENTIL) * 1000);
+            servidor.retrasoCalculado = ahora;
+        }
+        return servidor.retrasoCobertura;
+    }
+
+    // Envía la petición al primero desde este hilo y, si tarda más que su percentil, también al segundo desde
+    // el pool; si el primero falla antes, el segundo lo reemplaza en este mismo hilo. Termina cuando el ganador
+    // terminó de reenviar su respuesta, o con el error si ninguno respondió antes del límite.
+    boolean intercambiar(Balanceador.Servidor primero, Balanceador.Servidor segundo, byte[] peticion,
+                         OutputStream destino, boolean sinCuerpo, long limite) throws IOException {
+        Carrera carrera = new Carrera(destino);
+        long ahora = System.nanoTime();
+        long retraso = retraso(primero, ahora);
+        ScheduledFuture<?> cobertura = null;
+        if (retraso != Long.MAX_VALUE && limite - (ahora + retraso) > 0) {
+            cobertura = reloj.schedule(() -> {
+                if (lanzar(carrera, segundo, peticion, sinCuerpo, limite)) lanzadas.increment();
+            }, retraso, TimeUnit.NANOSECONDS);
+        }
+
+        IOException error = null;
+        try {
+            boolean reutilizable = balanceador.intercambiarCon(primero, peticion, carrera.salida(0), sinCuerpo, true, limite);
+            synchronized (carrera) {
+                if (carrera.ganador == 0) return reutilizable;
+            }
+        } catch (IOException e) {
+            error = e;
+        } finally {
+            if (cobertura != null) cobertura.cancel(false);
+        }
+
+        boolean conmutar = false; // El primero falló sin responder y no hay cobertura en curso
+        synchronized (carrera) {
+            if (carrera.ganador == 0) throw error;
+            if (carrera.ganador == -1 && !carrera.segundoLanzado) {
+                carrera.ganador = Carrera.ABANDONADA; // Ya no se lanza la cobertura
+                if (limite - System.nanoTime() <= 0) throw error;
+                conmutar = true;
+            }
+        }
+        if (conmutar) {
+            conmutadas.increment();
+            return balanceador.intercambiarCon(segundo, peticion, new Balanceador.SalidaVigilada(destino), sinCuerpo, true, limite);
+        }
+
+        carrera.esperar(limite);
+        Balanceador.SalidaVigilada perdedora = null;
+        try {
+            synchronized (carrera) {
+                if (carrera.ganador == -1) {
+                    // Nadie empezó a responder antes del plazo total: la cobertura se aborta
+                    carrera.ganador = Carrera.ABANDONADA;
+                    perdedora = carrera.salidas[1];
+                    if (carrera.enCurso == 0) throw carrera.error != null ? carrera.error : error;
+                    throw new SocketTimeoutException("Sin respuesta de " + primero + " ni de " + segundo
+                            + " en " + Balanceador.TOTAL_MS + " ms");
+                }
+                ganadas.increment();
+                // El segundo ya escribe al cliente: se espera a que termine (lo acota el plazo total)
+                boolean interrumpido = false;
+                while (!carrera.ganadorTermino) {
+                    try {
+                        carrera.wait();
+                    } catch (InterruptedException e) {
+                        interrumpido = true;
+                    }
+                }
+                if (interrumpido) Thread.currentThread().interrupt();
+                if (carrera.error != null) throw carrera.error;
+                return carrera.reutilizable;
+            }
+        } finally {
+            if (perdedora != null) perdedora.abortar();
+        }
+    }
+
+    // Ejecuta el segundo intento en un hilo del pool; false si ya hay ganador, ya se lanzó o no hay hilo libre
+    boolean lanzar(Carrera carrera, Balanceador.Servidor servidor, byte[] peticion, boolean sinCuerpo, long limite) {
+        Balanceador.SalidaVigilada salida;
+        synchronized (carrera) {
+            if (carrera.ganador != -1 || carrera.segundoLanzado) return false;
+            carrera.segundoLanzado = true;
+            carrera.enCurso++;
+            salida = carrera.salida(1);
+        }
+        try {
+            intentos.execute(() -> {
+                boolean reutilizable = false;
+                IOException error = null;
+                try {
+                    reutilizable = balanceador.intercambiarCon(servidor, peticion, salida, sinCuerpo, true, limite);
+                } catch (IOException e) {
+                    error = e;
+                } catch (RuntimeException e) {
+                    error = new IOException(e);
+                }
+                carrera.terminar(1, reutilizable, error);
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            synchronized (carrera) {
+                carrera.enCurso--;
+                carrera.segundoLanzado = false;
+                carrera.salidas[1] = null;
+            }
+            return false;
+        }
+    }
+}
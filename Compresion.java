@@ -0,0 +1,403 @@
+// Compresion.java
+
+import java.io.ByteArrayOutputStream;             // Cuerpo comprimido de una respuesta completa
+import java.io.IOException;                       // Errores al escribir hacia el cliente
+import java.io.OutputStream;                      // Flujo hacia el cliente
+import java.nio.ByteBuffer;                       // Contenido de los archivos estáticos (en el heap o mapeado)
+import java.nio.charset.StandardCharsets;         // Los encabezados HTTP se interpretan como ISO-8859-1
+import java.util.concurrent.ConcurrentLinkedQueue; // Deflaters libres de cada formato
+import java.util.concurrent.atomic.AtomicInteger;  // Cantidad de Deflaters guardados en el pool
+import java.util.concurrent.atomic.LongAdder;      // Contadores de respuestas y bytes comprimidos
+import java.util.zip.CRC32;                        // Suma de verificación del formato gzip
+import java.util.zip.Deflater;                     // Compresión (reutilizable con reset())
+
+// Compresión de respuestas según el encabezado Accept-Encoding del cliente ("gzip" o "deflate").
+// Se comprimen solo las respuestas 200 de tipos de texto (HTML, CSS, JavaScript, JSON, XML, SVG) que no
+// vengan ya codificadas y cuyo cuerpo tenga al menos compresion.minimo bytes. Esas respuestas llevan
+// "Vary: Accept-Encoding" también cuando van sin comprimir, para que las cachés intermedias no entreguen
+// una variante a un cliente que pidió otra.
+//   - Salida: etapa del proxy que comprime al vuelo la respuesta que llega del servidor (delimitada por
+//     Content-Length) y la envía al cliente con Transfer-Encoding: chunked
+//   - comprimir: comprime una respuesta completa; la caché lo usa una vez por recurso y codificación
+// Los Deflater se toman de un pool: crear uno reserva memoria nativa y cerrarlo cuesta más que un reset().
+class Compresion {
+    static final boolean HABILITADA = Configuracion.booleano("proxy.compresion", true);
+    static final boolean SERVIDOR = Configuracion.booleano("servidor.compresion", false); // Variantes gzip de los estáticos de ServidorHTTP
+    static final int MINIMO = Configuracion.entero("compresion.minimo", 1024);  // Cuerpos más chicos no se comprimen
+    static final int NIVEL = Configuracion.entero("compresion.nivel", 6);        // 1 (rápido) a 9 (más compresión)
+    static final int MAXIMO_LIBRES = Configuracion.entero("compresion.pool", 64); // Deflaters libres por formato
+
+    // Codificaciones, también índice de las variantes en la caché
+    static final int NINGUNA = 0;
+    static final int GZIP = 1;
+    static final int DEFLATE = 2;
+    static final String[] NOMBRES = {"identity", "gzip", "deflate"};
+
+    // Encabezado gzip fijo: método deflate, sin nombre ni fecha, sistema "desconocido"
+    static final byte[] ENCABEZADO_GZIP = {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+    static final byte[] FIN_CHUNKED = "0\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+    // Deflaters libres de un formato: gzip usa deflate "crudo" (nowrap) con su propio encabezado; deflate usa el formato zlib
+    static class Libres {
+        final ConcurrentLinkedQueue<Deflater> cola = new ConcurrentLinkedQueue<>();
+        final AtomicInteger cantidad = new AtomicInteger();
+    }
+
+    static final Libres[] libres = {null, new Libres(), new Libres()}; // Por codificación
+
+    static final LongAdder respuestas = Metricas.contador("compresion_respuestas_total", "Respuestas comprimidas (al vuelo o para la caché)");
+    static final LongAdder bytesEntrada = Metricas.contador("compresion_entrada_bytes_total", "Bytes de cuerpo antes de comprimir");
+    static final LongAdder bytesSalida = Metricas.contador("compresion_salida_bytes_total", "Bytes de cuerpo después de comprimir");
+
+    static Deflater obtener(int codificacion) {
+        Deflater deflater = libres[codificacion].cola.poll();
+        if (deflater == null) return new Deflater(NIVEL, codificacion == GZIP);
+        libres[codificacion].cantidad.decrementAndGet();
+        return deflater;
+    }
+
+    // Regresa el Deflater al pool listo para otra respuesta; si el pool está lleno libera su memoria nativa
+    static void devolver(int codificacion, Deflater deflater) {
+        if (libres[codificacion].cantidad.incrementAndGet() > MAXIMO_LIBRES) {
+            libres[codificacion].cantidad.decrementAndGet();
+            deflater.end();
+            return;
+        }
+        deflater.reset();
+        libres[codificacion].cola.offer(deflater);
+    }
+
+    static int negociar(PeticionHTTP peticion) {
+        int indice = peticion.buscar("Accept-Encoding");
+        return indice == -1 ? NINGUNA : negociar(peticion.valor(indice));
+    }
+
+    // Codificación preferida según los valores q de Accept-Encoding: la de mayor q entre gzip y deflate
+    // (gzip en un empate), salvo que identity tenga una q mayor. "q=0" excluye una codificación y "*" da su q
+    // a las que no se nombran; identity sin nombrar queda como la última opción.
+    static int negociar(String aceptadas) {
+        double gzip = -1;
+        double deflate = -1;
+        double identidad = -1;
+        double resto = -1; // q de "*"
+        for (String parte : aceptadas.split(",")) {
+            int puntoYComa = parte.indexOf(';');
+            String nombre = (puntoYComa == -1 ? parte : parte.substring(0, puntoYComa)).trim();
+            double q = puntoYComa == -1 ? 1 : calidad(parte.substring(puntoYComa + 1));
+            if (q < 0) continue; // Valor q inválido: se ignora la codificación
+            if (nombre.equalsIgnoreCase("gzip") || nombre.equalsIgnoreCase("x-gzip")) {
+                gzip = q;
+            } else if (nombre.equalsIgnoreCase("deflate")) {
+                deflate = q;
+            } else if (nombre.equalsIgnoreCase("identity")) {
+                identidad = q;
+            } else if (nombre.equals("*")) {
+                resto = q;
+            }
+        }
+        if (gzip < 0) gzip = Math.max(resto, 0);
+        if (deflate < 0) deflate = Math.max(resto, 0);
+        if (identidad < 0) identidad = resto; // Sin nombrar ni "*" no compite con las demás
+        double mejor = Math.max(gzip, deflate);
+        if (mejor <= 0 || identidad > mejor) return NINGUNA;
+        return gzip >= deflate ? GZIP : DEFLATE;
+    }
+
+    // Valor q de los parámetros de una codificación ("q=0.8"; 1 si no lo trae), o -1 si es inválido
+    static double calidad(String parametros) {
+        for (String parametro : parametros.split(";")) {
+            int igual = parametro.indexOf('=');
+            if (igual == -1 || !parametro.substring(0, igual).trim().equalsIgnoreCase("q")) continue;
+            String valor = parametro.substring(igual + 1).trim();
+            if (!valor.matches("0(\\.[0-9]{0,3})?|1(\\.0{0,3})?")) return -1;
+            return Double.parseDouble(valor);
+        }
+        return 1;
+    }
+
+    // Tipos de texto que vale la pena comprimir; imágenes, video y archivos ya comprimidos no
+    static boolean tipoComprimible(String tipo) {
+        if (tipo == null) return false;
+        tipo = tipo.toLowerCase();
+        return tipo.startsWith("text/") || tipo.contains("json") || tipo.contains("javascript")
+                || tipo.contains("xml") || tipo.startsWith("image/svg");
+    }
+
+    // Los encabezados de la respuesta permiten comprimirla: 200, tipo de texto, sin codificación previa ni no-transform
+    // (el cuerpo debe además venir delimitado por Content-Length)
+    static boolean comprimible(String encabezados, RelayHTTP.Marco marco) {
+        if (marco.estado != 200 || marco.longitud < MINIMO) return false;
+        if (CacheRespuestas.encabezado(encabezados, "Content-Encoding") != null) return false;
+        String cacheControl = CacheRespuestas.encabezado(encabezados, "Cache-Control");
+        if (cacheControl != null && cacheControl.contains("no-transform")) return false;
+        return tipoComprimible(CacheRespuestas.encabezado(encabezados, "Content-Type"));
+    }
+
+    // Encabezados de una variante. La comprimida va sin Content-Length ni Transfer-Encoding originales, con
+    // Content-Encoding y la nueva longitud (o chunked si es -1), y su ETag pasa a débil: ya no son los mismos
+    // bytes. La de identity (NINGUNA) conserva todo. Ambas agregan Accept-Encoding al Vary.
+    static byte[] encabezadosVariante(String encabezados, int codificacion, long longitud) {
+        boolean comprimida = codificacion != NINGUNA;
+        StringBuilder nuevos = new StringBuilder(encabezados.length() + 96);
+        String vary = null;
+        for (String linea : encabezados.split("\r\n")) {
+            if (linea.isEmpty()) continue;
+            int dosPuntos = linea.indexOf(':');
+            String nombre = dosPuntos <= 0 ? "" : linea.substring(0, dosPuntos).trim();
+            if (comprimida && (nombre.equalsIgnoreCase("Content-Length") || nombre.equalsIgnoreCase("Transfer-Encoding"))) continue;
+            if (nombre.equalsIgnoreCase("Vary")) {
+                vary = linea.substring(dosPuntos + 1).trim();
+                continue;
+            }
+            if (comprimida && nombre.equalsIgnoreCase("ETag")) {
+                String valor = linea.substring(dosPuntos + 1).trim();
+                if (!valor.startsWith("W/")) linea = "ETag: W/" + valor;
+            }
+            nuevos.append(linea).append("\r\n");
+        }
+        if (comprimida) nuevos.append("Content-Encoding: ").append(NOMBRES[codificacion]).append("\r\n");
+        // Un Vary que ya nombra Accept-Encoding (o "*") queda como estaba
+        if (vary != null && (vary.equals("*") || vary.toLowerCase().contains("accept-encoding"))) {
+            nuevos.append("Vary: ").append(vary).append("\r\n");
+        } else {
+            nuevos.append("Vary: ").append(vary == null || vary.isEmpty() ? "" : vary + ", ").append("Accept-Encoding\r\n");
+        }
+        if (comprimida) nuevos.append(longitud < 0 ? "Transfer-Encoding: chunked\r\n" : "Content-Length: " + longitud + "\r\n");
+        return nuevos.append("\r\n").toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    // Comprime una respuesta completa (encabezados y cuerpo delimitado por Content-Length). Devuelve la misma
+    // respuesta si no es comprimible, y su variante identity (con Vary) si comprimida no resulta más chica.
+    // Con NINGUNA devuelve la variante identity de una respuesta comprimible.
+    static byte[] comprimir(byte[] respuesta, int codificacion) {
+        if (!HABILITADA) return respuesta;
+        int fin = RelayHTTP.indice(respuesta, 0, respuesta.length, RelayHTTP.FIN_ENCABEZADOS);
+        if (fin == -1) return respuesta;
+        String encabezados = new String(respuesta, 0, fin + 4, StandardCharsets.ISO_8859_1);
+        RelayHTTP.Marco marco;
+        try {
+            marco = RelayHTTP.Marco.analizar(encabezados);
+        } catch (IOException e) {
+            return respuesta; // Sin delimitado válido: se deja como está
+        }
+        int inicioCuerpo = fin + 4;
+        if (marco.chunked || marco.longitud != respuesta.length - inicioCuerpo || !comprimible(encabezados, marco)) return respuesta;
+        byte[] cuerpo = null;
+        if (codificacion != NINGUNA) {
+            cuerpo = comprimirCuerpo(ByteBuffer.wrap(respuesta, inicioCuerpo, respuesta.length - inicioCuerpo), codificacion);
+            if (cuerpo.length >= marco.longitud) cuerpo = null; // No resulta más chica: va la variante identity
+        }
+        // Cuerpo de la variante: el comprimido, o el original tal cual
+        byte[] origen = cuerpo == null ? respuesta : cuerpo;
+        int desde = cuerpo == null ? inicioCuerpo : 0;
+        int largo = origen.length - desde;
+        byte[] nuevos = encabezadosVariante(encabezados, cuerpo == null ? NINGUNA : codificacion, largo);
+        byte[] variante = new byte[nuevos.length + largo];
+        System.arraycopy(nuevos, 0, variante, 0, nuevos.length);
+        System.arraycopy(origen, desde, variante, nuevos.length, largo);
+        return variante;
+    }
+
+    // Cuerpo comprimido completo en el formato de la codificación (con encabezado y cola si es gzip)
+    static byte[] comprimirCuerpo(ByteBuffer contenido, int codificacion) {
+        ByteArrayOutputStream comprimido = new ByteArrayOutputStream(Math.max(64, contenido.remaining() / 3));
+        int longitud = contenido.remaining();
+        if (codificacion == GZIP) comprimido.write(ENCABEZADO_GZIP, 0, ENCABEZADO_GZIP.length);
+        Deflater deflater = obtener(codificacion);
+        byte[] buffer = PoolBuffers.obtener();
+        try {
+            deflater.setInput(contenido.duplicate());
+            deflater.finish();
+            while (!deflater.finished()) {
+                int cantidad = deflater.deflate(buffer);
+                comprimido.write(buffer, 0, cantidad);
+            }
+        } finally {
+            PoolBuffers.devolver(buffer);
+            devolver(codificacion, deflater);
+        }
+        if (codificacion == GZIP) {
+            CRC32 crc = new CRC32();
+            crc.update(contenido.duplicate());
+            comprimido.write(colaGzip(crc.getValue(), longitud), 0, 8);
+        }
+        respuestas.increment();
+        bytesEntrada.add(longitud);
+        bytesSalida.add(comprimido.size());
+        return comprimido.toByteArray();
+    }
+
+    // Cola gzip: CRC32 y longitud original módulo 2^32, ambos en little-endian
+    static byte[] colaGzip(long crc, long longitud) {
+        byte[] cola = new byte[8];
+        for (int i = 0; i < 4; i++) {
+            cola[i] = (byte) (crc >>> (8 * i));
+            cola[4 + i] = (byte) (longitud >>> (8 * i));
+        }
+        return cola;
+    }
+
+    // Etapa de compresión entre el proxy y el cliente, o el mismo flujo del cliente si la compresión está
+    // desactivada. Sin codificación aceptada, en un HEAD o con un cliente HTTP/1.0 (que no entiende chunked)
+    // la respuesta no se comprime, pero la etapa igual le agrega el Vary. Quien la usa debe cerrarla (close).
+    static OutputStream etapa(int codificacion, PeticionHTTP peticion, OutputStream salidaCliente) {
+        if (!HABILITADA) return salidaCliente;
+        return new Salida(salidaCliente, peticion.esHead() || peticion.http10() ? NINGUNA : codificacion);
+    }
+
+    // Flujo que recibe la respuesta del servidor tal cual (encabezados y cuerpo) y la envía al cliente
+    // comprimida si corresponde, o con "Vary: Accept-Encoding" si es comprimible pero va sin comprimir.
+    // Los cuerpos sin Content-Length (chunked o hasta EOF) pasan sin cambios.
+    static class Salida extends OutputStream {
+        static final int ENCABEZADOS = 0; // Reuniendo los encabezados para decidir
+        static final int CUERPO = 1;      // Comprimiendo el cuerpo
+        static final int PASO = 2;        // Reenvío sin cambios (no se comprime, o ya terminó)
+        static final int MAXIMO_ENCABEZADOS = 64 * 1024;
+        static final int RESERVA = 10;                  // Antes de los datos: tamaño del bloque ("ffffffff\r\n")
+        static final int COLA = 2 + FIN_CHUNKED.length; // Después: CRLF del bloque y, en el último, el bloque final
+        static final byte[] HEXADECIMAL = "0123456789abcdef".getBytes(StandardCharsets.ISO_8859_1);
+
+        final OutputStream destino;
+        final int codificacion;
+        int estado = ENCABEZADOS;
+        ByteArrayOutputStream encabezados = new ByteArrayOutputStream(512);
+        long restante; // Bytes del cuerpo original que faltan por recibir
+        long longitud;
+        Deflater deflater;
+        CRC32 crc;
+        byte[] buffer;
+        int pendientes; // Bytes del siguiente bloque ya reunidos en buffer a partir de RESERVA
+
+        Salida(OutputStream destino, int codificacion) {
+            this.destino = destino;
+            this.codificacion = codificacion;
+        }
+
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        public void write(byte[] b, int desde, int cantidad) throws IOException {
+            if (estado == PASO) {
+                destino.write(b, desde, cantidad);
+            } else if (estado == CUERPO) {
+                comprimir(b, desde, cantidad);
+            } else {
+                encabezados.write(b, desde, cantidad);
+                byte[] reunidos = encabezados.toByteArray();
+                int fin = RelayHTTP.indice(reunidos, 0, reunidos.length, RelayHTTP.FIN_ENCABEZADOS);
+                if (fin == -1) {
+                    // Demasiado largos para ser encabezados: se reenvían sin tocar
+                    if (reunidos.length > MAXIMO_ENCABEZADOS) pasar(reunidos);
+                    return;
+                }
+                encabezados = null;
+                String texto = new String(reunidos, 0, fin + 4, StandardCharsets.ISO_8859_1);
+                RelayHTTP.Marco marco = RelayHTTP.Marco.analizar(texto);
+                if (marco.chunked || !comprimible(texto, marco)) {
+                    pasar(reunidos);
+                    return;
+                }
+                if (codificacion == NINGUNA) {
+                    estado = PASO;
+                    destino.write(encabezadosVariante(texto, NINGUNA, marco.longitud));
+                    if (reunidos.length > fin + 4) destino.write(reunidos, fin + 4, reunidos.length - fin - 4);
+                    return;
+                }
+                destino.write(encabezadosVariante(texto, codificacion, -1));
+                longitud = restante = marco.longitud;
+                deflater = obtener(codificacion);
+                buffer = PoolBuffers.obtener();
+                estado = CUERPO;
+                if (codificacion == GZIP) {
+                    crc = new CRC32();
+                    System.arraycopy(ENCABEZADO_GZIP, 0, buffer, RESERVA, ENCABEZADO_GZIP.length);
+                    pendientes = ENCABEZADO_GZIP.length; // Sale junto con el primer bloque comprimido
+                }
+                if (reunidos.length > fin + 4) comprimir(reunidos, fin + 4, reunidos.length - fin - 4);
+            }
+        }
+
+        void pasar(byte[] reunidos) throws IOException {
+            estado = PASO;
+            encabezados = null;
+            destino.write(reunidos);
+        }
+
+        // Entrega la parte del cuerpo al Deflater y envía lo que produzca; al completar Content-Length cierra el formato
+        void comprimir(byte[] b, int desde, int cantidad) throws IOException {
+            int parte = (int) Math.min(cantidad, restante);
+            if (crc != null) crc.update(b, desde, parte);
+            deflater.setInput(b, desde, parte);
+            while (!deflater.needsInput()) {
+                if (desinflar() > 0) bloque(false);
+            }
+            restante -= parte;
+            if (restante == 0) terminar();
+        }
+
+        // Lo que queda del Deflater, la cola gzip y el bloque final salen juntos si caben en el buffer
+        void terminar() throws IOException {
+            deflater.finish();
+            while (!deflater.finished()) {
+                desinflar();
+                if (pendientes == buffer.length - RESERVA - COLA) bloque(false);
+            }
+            if (crc != null) {
+                if (pendientes + 8 > buffer.length - RESERVA - COLA) bloque(false);
+                System.arraycopy(colaGzip(crc.getValue(), longitud), 0, buffer, RESERVA + pendientes, 8);
+                pendientes += 8;
+            }
+            bloque(true);
+            respuestas.increment();
+            bytesEntrada.add(longitud);
+            bytesSalida.add(deflater.getBytesWritten() + (crc != null ? ENCABEZADO_GZIP.length + 8 : 0));
+            close();
+        }
+
+        // Devuelve el Deflater y el buffer a sus pools, también si la respuesta quedó a medias porque el
+        // servidor falló a mitad del cuerpo. No cierra el flujo del cliente: ese lo cierra quien lo abrió.
+        public void close() {
+            if (deflater != null) {
+                devolver(codificacion, deflater);
+                PoolBuffers.devolver(buffer);
+                deflater = null;
+                buffer = null;
+            }
+            encabezados = null;
+            estado = PASO;
+        }
+
+        // Comprime hacia el buffer a continuación de lo ya reunido, dejando libres la reserva y la cola
+        int desinflar() {
+            int producidos = deflater.deflate(buffer, RESERVA + pendientes, buffer.length - RESERVA - COLA - pendientes);
+            pendientes += producidos;
+            return producidos;
+        }
+
+        // Envía lo reunido como un bloque chunked en una sola escritura (el destino es el socket, sin buffer):
+        // el tamaño en hexadecimal se arma en la reserva justo antes de los datos y el CRLF justo después; el
+        // último lleva además el bloque final
+        void bloque(boolean ultimo) throws IOException {
+            int desde = RESERVA;
+            int hasta = RESERVA + pendientes;
+            if (pendientes > 0) {
+                buffer[--desde] = '\n';
+                buffer[--desde] = '\r';
+                for (int resto = pendientes; resto != 0; resto >>>= 4) buffer[--desde] = HEXADECIMAL[resto & 0xf];
+                buffer[hasta++] = '\r';
+                buffer[hasta++] = '\n';
+            }
+            if (ultimo) {
+                System.arraycopy(FIN_CHUNKED, 0, buffer, hasta, FIN_CHUNKED.length);
+                hasta += FIN_CHUNKED.length;
+            }
+            destino.write(buffer, desde, hasta - desde);
+            pendientes = 0;
+        }
+
+        public void flush() throws IOException {
+            destino.flush();
+        }
+    }
+}
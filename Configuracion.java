@@ -0,0 +1,54 @@
+// Configuracion.java
+
+// Lectura de parámetros opcionales que se pasan a la JVM con -Dnombre=valor
+// (ej. java -Dproxy.relay=buffer AdministradorTrafico 8080 ...)
+class Configuracion {
+
+    // Devuelve el valor de texto del parámetro o el valor por defecto si no se definió
+    static String texto(String nombre, String defecto) {
+        return System.getProperty(nombre, defecto);
+    }
+
+    // Devuelve el parámetro como entero; si no es un número válido se avisa y se usa el valor por defecto
+    static int entero(String nombre, int defecto) {
+        String valor = System.getProperty(nombre);
+        if (valor == null) return defecto;
+        try {
+            return Integer.parseInt(valor.trim());
+        } catch (NumberFormatException e) {
+            System.err.println("Valor inválido para " + nombre + ": " + valor + " (se usa " + defecto + ")");
+            return defecto;
+        }
+    }
+
+    // Devuelve el parámetro como entero largo (útil para tamaños en bytes y tiempos en milisegundos)
+    static long largo(String nombre, long defecto) {
+        String valor = System.getProperty(nombre);
+        if (valor == null) return defecto;
+        try {
+            return Long.parseLong(valor.trim());
+        } catch (NumberFormatException e) {
+            System.err.println("Valor inválido para " + nombre + ": " + valor + " (se usa " + defecto + ")");
+            return defecto;
+        }
+    }
+
+    // Devuelve el parámetro como número decimal (ej. tasas de muestreo entre 0 y 1)
+    static double decimal(String nombre, double defecto) {
+        String valor = System.getProperty(nombre);
+        if (valor == null) return defecto;
+        try {
+            return Double.parseDouble(valor.trim());
+        } catch (NumberFormatException e) {
+            System.err.println("Valor inválido para " + nombre + ": " + valor + " (se usa " + defecto + ")");
+            return defecto;
+        }
+    }
+
+    // Devuelve el parámetro como booleano ("true" o "false")
+    static boolean booleano(String nombre, boolean defecto) {
+        String valor = System.getProperty(nombre);
+        if (valor == null) return defecto;
+        return Boolean.parseBoolean(valor.trim());
+    }
+}
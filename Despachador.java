@@ -0,0 +1,115 @@
+// Despachador.java
+
+import java.io.IOException;               // Errores de red con el servidor o el cliente
+import java.io.OutputStream;              // Flujo hacia el cliente
+import java.util.concurrent.atomic.LongAdder; // Contadores del proxy (ver Metricas)
+
+// Atención de una petición ya leída del cliente, común a AdministradorTrafico y AdministradorTraficoSSL:
+// copia al Servidor-2 (si hay espejo), consulta de la caché compartida y envío al servidor que elija el Balanceador.
+class Despachador {
+    // Encabezados que no se reenvían, además de los de salto a salto (ver PeticionHTTP.copia): "Expect" lo
+    // atiende el proxy, que lee el cuerpo completo antes de elegir servidor; las condiciones "If-Modified-Since"
+    // e "If-None-Match" las decide la caché (el servidor debe devolver la respuesta completa para poder
+    // guardarla), igual que "Accept-Encoding": la caché guarda la respuesta sin comprimir y deriva de ella cada variante
+    static final String[] SIN_EXPECT = {"Expect"};
+    static final String[] SIN_CONDICION = {"Expect", "If-Modified-Since", "If-None-Match", "Accept-Encoding"};
+
+    // Métricas comunes a los dos proxies y a sus dos motores (hilos y NIO), ver Metricas
+    static final LongAdder PETICIONES = Metricas.contador("proxy_peticiones_total", "Peticiones recibidas por el proxy");
+    static final LongAdder CONEXIONES = Metricas.medidor("proxy_conexiones_activas", "Conexiones abiertas con clientes");
+    static final Metricas.Histograma PRIMER_BYTE = Metricas.histograma("proxy_primer_byte_segundos",
+            "Tiempo desde que se acepta la conexión hasta el primer byte de la respuesta", "");
+
+    final Balanceador balanceador;
+    final EspejoServidor2 espejo; // null en modo de balanceo: todos los servidores atienden peticiones
+    final CacheRespuestas cache;
+
+    Despachador(Balanceador balanceador, EspejoServidor2 espejo, CacheRespuestas cache) {
+        this.balanceador = balanceador;
+        this.espejo = espejo;
+        this.cache = cache;
+    }
+
+    // Petición completa ya analizada por PeticionHTTP
+    void atender(PeticionHTTP peticion, OutputStream salidaCliente) throws IOException {
+        // Codificación aceptada por el cliente: la respuesta del servidor pasa por la etapa de compresión
+        // y la de la caché sale de la variante ya comprimida (ver Compresion)
+        int codificacion = Compresion.HABILITADA ? Compresion.negociar(peticion) : Compresion.NINGUNA;
+        OutputStream salida = Compresion.etapa(codificacion, peticion, salidaCliente);
+        try {
+            atender(peticion, codificacion, salida, salidaCliente);
+        } finally {
+            // Si el servidor falló a mitad del cuerpo, la etapa devuelve su Deflater al pool
+            if (salida != salidaCliente) salida.close();
+        }
+    }
+
+    // Atención con la etapa de compresión ya armada: salida pasa por ella, salidaCliente va directo al cliente
+    void atender(PeticionHTTP peticion, int codificacion, OutputStream salida, OutputStream salidaCliente) throws IOException {
+        boolean esHead = peticion.esHead();
+        boolean esGet = peticion.esGet();
+        boolean esIdempotente = esHead || esGet;
+
+        // El servidor 2 recibe la petición original del cliente
+        byte[] original = peticion.copia(SIN_EXPECT, null, null);
+        if (espejo != null) espejo.reflejar(original, esHead);
+
+        // Solo los GET sin credenciales pasan por la caché
+        if (!CacheRespuestas.HABILITADA || !esGet || !CacheRespuestas.admitePeticion(peticion)) {
+            balanceador.intercambiar(original, salida, esHead, esIdempotente);
+            return;
+        }
+
+        int indice = peticion.buscar("If-Modified-Since");
+        String ifModifiedSince = indice == -1 ? null : peticion.valor(indice);
+        String clave = CacheRespuestas.clave(peticion);
+        CacheRespuestas.Entrada entrada = cache.buscar(clave);
+
+        // Entrada fresca: se responde sin contactar al servidor
+        if (entrada != null && entrada.fresca() && !CacheRespuestas.exigeRevalidar(peticion)) {
+            cache.responder(entrada, ifModifiedSince, codificacion, salidaCliente);
+            return;
+        }
+
+        // Entrada vencida con validador: se revalida con If-Modified-Since. Un 304 del servidor la renueva y un
+        // error (5xx o ningún servidor disponible) la deja responder vencida; si el recurso cambió, la versión
+        // nueva se reenvía conforme llega y se guarda (ver CacheRespuestas.Revision)
+        if (entrada != null && entrada.ultimaModificacion != null) {
+            CacheRespuestas.Revision revision = new CacheRespuestas.Revision(salida, salidaCliente, ifModifiedSince, true);
+            try {
+                balanceador.intercambiar(peticion.copia(SIN_CONDICION, "If-Modified-Since", entrada.ultimaModificacion),
+                        revision, false, true);
+            } catch (IOException e) {
+                if (!revision.descartada) throw e; // El cliente ya recibió parte de la respuesta
+            }
+            revision.terminar();
+            if (revision.descartada) {
+                if (revision.codigo == 304) {
+                    entrada.renovar();
+                    cache.revalidadas.increment();
+                } else {
+                    cache.vencidasServidas.increment();
+                }
+                cache.responder(entrada, ifModifiedSince, codificacion, salidaCliente);
+            } else {
+                guardar(clave, revision);
+            }
+            return;
+        }
+
+        // Sin entrada: se pide la versión completa (sin la condición del cliente) para poder guardarla. Se reenvía
+        // al cliente conforme llega, o un 304 si ya la tiene, y a la vez se captura para la caché (la copia es la
+        // respuesta sin comprimir; la compresión ocurre después, hacia el cliente)
+        CacheRespuestas.Revision revision = new CacheRespuestas.Revision(salida, salidaCliente, ifModifiedSince, false);
+        balanceador.intercambiar(peticion.copia(SIN_CONDICION, null, null), revision, false, true);
+        revision.terminar();
+        guardar(clave, revision);
+    }
+
+    // Guarda la respuesta capturada si no excedió el tamaño de una entrada
+    void guardar(String clave, CacheRespuestas.Revision revision) {
+        if (revision.clienteAlDia) cache.noModificados.increment();
+        byte[] completa = revision.completa();
+        if (completa != null) cache.guardar(clave, completa);
+    }
+}
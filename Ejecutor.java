@@ -0,0 +1,98 @@
+// Ejecutor.java
+
+import java.io.IOException;                              // Error al cerrar una conexión rechazada
+import java.net.Socket;                                  // Conexión aceptada que se va a atender
+import java.util.concurrent.ArrayBlockingQueue;          // Cola acotada del pool de hilos
+import java.util.concurrent.ExecutorService;             // Ejecutor común para los modos "virtual" y "pool"
+import java.util.concurrent.Executors;                   // Fábrica de ejecutores (hilos virtuales en Java 21+)
+import java.util.concurrent.RejectedExecutionException;  // El pool y su cola están llenos
+import java.util.concurrent.Semaphore;                   // Límite de conexiones atendidas a la vez
+import java.util.concurrent.ThreadPoolExecutor;          // Pool acotado de hilos de plataforma
+import java.util.concurrent.TimeUnit;                    // Unidades de tiempo del pool
+import java.util.concurrent.atomic.AtomicInteger;        // Numeración de los hilos
+
+// Modelo de ejecución de los Worker, común a ServidorHTTP, AdministradorTrafico y AdministradorTraficoSSL.
+// Se elige al iniciar con -Dejecutor.modo:
+//   "hilos"   un hilo de plataforma nuevo por conexión (comportamiento original, por defecto)
+//   "virtual" un hilo virtual por conexión (Java 21+; en versiones anteriores se usa "pool")
+//   "pool"    pool acotado de hilos de plataforma con cola configurable y política de rechazo
+class Ejecutor {
+    static final String MODO = Configuracion.texto("ejecutor.modo", "hilos");
+    static final int HILOS_POOL = Configuracion.entero("ejecutor.pool.hilos", 200);
+    static final int COLA_POOL = Configuracion.entero("ejecutor.pool.cola", 1000);
+    static final String RECHAZO = Configuracion.texto("ejecutor.pool.rechazo", "cerrar"); // "cerrar" o "llamador"
+    static final int MAX_CONCURRENCIA = Configuracion.entero("ejecutor.max.concurrencia", 0); // 0 = sin límite
+    static final int BACKLOG = Configuracion.entero("ejecutor.backlog", 50); // Conexiones en espera de accept() en el sistema operativo
+
+    final String nombre;
+    final ExecutorService ejecutor; // null en modo "hilos"
+    final Semaphore concurrencia;   // null si no hay límite
+
+    Ejecutor(String nombre) {
+        this.nombre = nombre;
+        if (MODO.equals("virtual")) {
+            this.ejecutor = virtual();
+        } else if (MODO.equals("pool")) {
+            this.ejecutor = pool();
+        } else {
+            this.ejecutor = null;
+        }
+        this.concurrencia = MAX_CONCURRENCIA > 0 ? new Semaphore(MAX_CONCURRENCIA) : null;
+        System.out.println("Modelo de ejecución: " + MODO
+                + (MAX_CONCURRENCIA > 0 ? " (máximo " + MAX_CONCURRENCIA + " conexiones simultáneas)" : ""));
+    }
+
+    // Hilos virtuales; se obtienen por reflexión para que el código compile y funcione también antes de Java 21
+    ExecutorService virtual() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            System.err.println("Hilos virtuales no disponibles en esta JVM (requiere Java 21); se usa el pool acotado");
+            return pool();
+        }
+    }
+
+    // Pool fijo con cola acotada; al llenarse se cierra la conexión o la atiende el hilo que acepta (contrapresión)
+    ExecutorService pool() {
+        AtomicInteger numero = new AtomicInteger();
+        return new ThreadPoolExecutor(HILOS_POOL, HILOS_POOL, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(COLA_POOL),
+                tarea -> new Thread(tarea, nombre + "-worker-" + numero.incrementAndGet()),
+                RECHAZO.equals("llamador") ? new ThreadPoolExecutor.CallerRunsPolicy() : new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    // Atiende la conexión con la tarea dada según el modo configurado.
+    // Con límite de concurrencia, el hilo que acepta espera aquí un lugar libre y las conexiones
+    // nuevas se acumulan en el backlog del sistema operativo en lugar de crear más hilos.
+    // Devuelve false si la conexión se cerró sin atenderla.
+    boolean ejecutar(Runnable tarea, Socket conexion) throws InterruptedException {
+        Runnable atencion = tarea;
+        if (concurrencia != null) {
+            concurrencia.acquire();
+            atencion = () -> {
+                try {
+                    tarea.run();
+                } finally {
+                    concurrencia.release();
+                }
+            };
+        }
+        try {
+            if (ejecutor == null) {
+                new Thread(atencion).start(); // Crea un hilo para manejar la conexión
+            } else {
+                ejecutor.execute(atencion);
+            }
+            return true;
+        } catch (RejectedExecutionException e) {
+            // Pool y cola llenos: se cierra la conexión sin atenderla
+            if (concurrencia != null) concurrencia.release();
+            try {
+                conexion.close();
+            } catch (IOException e2) {
+                System.err.println("Error en close: " + e2.getMessage());
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+// EspejoServidor2.java
+
+import java.io.IOException;                          // Errores de red al reflejar la petición
+import java.io.OutputStream;                         // Destino nulo para la respuesta del Servidor-2, que se descarta
+import java.util.concurrent.ArrayBlockingQueue;      // Cola acotada de peticiones pendientes de reflejar
+import java.util.concurrent.RejectedExecutionException; // Se lanza cuando la cola está llena
+import java.util.concurrent.ThreadLocalRandom;       // Muestreo de peticiones sin contención entre hilos
+import java.util.concurrent.ThreadPoolExecutor;      // Hilos que atienden la cola del espejo
+import java.util.concurrent.TimeUnit;                // Unidades de tiempo para el pool de hilos
+import java.util.concurrent.atomic.AtomicInteger;    // Numeración de los hilos del espejo
+import java.util.concurrent.atomic.LongAdder;        // Contadores con poca contención entre hilos
+
+// Etapa de espejo: envía una copia de cada petición al Servidor-2 fuera del camino crítico.
+// El Worker solo encola la petición y sigue atendiendo al cliente; si la cola está llena la copia se descarta,
+// de modo que un Servidor-2 lento o caído nunca retrasa al cliente ni retiene hilos del proxy.
+class EspejoServidor2 {
+    // Parámetros configurables con -Dnombre=valor
+    static final int HILOS = Configuracion.entero("espejo.hilos", 2);
+    static final int CAPACIDAD_COLA = Configuracion.entero("espejo.cola", 1024);
+    static final double MUESTREO = Configuracion.decimal("espejo.muestreo", 1.0); // Fracción de peticiones que se reflejan
+    static final int TIEMPO_LIMITE_MS = Configuracion.entero("espejo.timeout.ms", 2000);
+    static final int REPORTE_SEGUNDOS = Configuracion.entero("espejo.reporte.segundos", 60); // 0 desactiva el reporte
+
+    final String servidor;
+    final int puerto;
+    final ThreadPoolExecutor ejecutor;
+    final PoolConexiones pool; // Conexiones persistentes propias del espejo, separadas de las del cliente
+
+    // Contadores de peticiones reflejadas, descartadas y fallidas por error de red. Los descartes por sobrecarga
+    // (cola llena) se cuentan aparte de los del muestreo, que son intencionales
+    final LongAdder reflejadas = Metricas.contador("espejo_reflejadas_total", "Peticiones copiadas al Servidor-2");
+    final LongAdder sobrecarga = Metricas.contador("espejo_descartadas_total", "Copias no enviadas al Servidor-2",
+            "motivo=\"sobrecarga\"");
+    final LongAdder muestreo = Metricas.contador("espejo_descartadas_total", "Copias no enviadas al Servidor-2",
+            "motivo=\"muestreo\"");
+    final LongAdder fallidas = Metricas.contador("espejo_fallidas_total", "Copias fallidas por error de red");
+
+    EspejoServidor2(String servidor, int puerto) {
+        this.servidor = servidor;
+        this.puerto = puerto;
+        this.pool = new PoolConexiones(TIEMPO_LIMITE_MS);
+        AtomicInteger numero = new AtomicInteger();
+        // Pool fijo con cola acotada; AbortPolicy permite contar los descartes en reflejar()
+        this.ejecutor = new ThreadPoolExecutor(HILOS, HILOS, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(CAPACIDAD_COLA),
+                tarea -> {
+                    Thread hilo = new Thread(tarea, "espejo-servidor2-" + numero.incrementAndGet());
+                    hilo.setDaemon(true); // No impide que la JVM termine
+                    return hilo;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        Metricas.exponer("espejo_en_cola", "Copias esperando un hilo del espejo", Metricas.MEDIDOR, "", () -> ejecutor.getQueue().size());
+    }
+
+    // Encola una copia de la petición para el Servidor-2; nunca bloquea al llamador
+    void reflejar(byte[] peticion, boolean sinCuerpo) {
+        if (MUESTREO < 1.0 && ThreadLocalRandom.current().nextDouble() >= MUESTREO) {
+            muestreo.increment();
+            return;
+        }
+        try {
+            ejecutor.execute(() -> enviar(peticion, sinCuerpo));
+        } catch (RejectedExecutionException e) {
+            sobrecarga.increment(); // Cola llena: se descarta la copia en lugar de esperar
+        }
+    }
+
+    // Envía la petición al Servidor-2 y lee su respuesta completa, que no se reenvía a nadie
+    void enviar(byte[] peticion, boolean sinCuerpo) {
+        try {
+            pool.intercambiar(servidor, puerto, peticion, OutputStream.nullOutputStream(), sinCuerpo, true);
+            reflejadas.increment();
+        } catch (IOException e) {
+            fallidas.increment();
+        }
+    }
+
+    // Imprime periódicamente los contadores en un hilo daemon
+    void iniciarReporte() {
+        if (REPORTE_SEGUNDOS <= 0) return;
+        Thread reporte = new Thread(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(REPORTE_SEGUNDOS * 1000L);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                System.out.println(resumen());
+            }
+        }, "espejo-reporte");
+        reporte.setDaemon(true);
+        reporte.start();
+    }
+
+    // Resumen de los contadores para los mensajes informativos
+    String resumen() {
+        return "Espejo Servidor-2 " + servidor + ":" + puerto
+                + " reflejadas=" + reflejadas.sum()
+                + " descartadas por sobrecarga=" + sobrecarga.sum()
+                + " no muestreadas=" + muestreo.sum()
+                + " fallidas=" + fallidas.sum()
+                + " en cola=" + ejecutor.getQueue().size();
+    }
+}
@@ -0,0 +1,328 @@
+// Metricas.java
+
+import java.io.IOException;                          // Errores del puerto de administración
+import java.io.OutputStream;                         // Respuesta hacia quien consulta las métricas
+import java.net.InetSocketAddress;                   // Dirección del puerto de administración
+import java.net.ServerSocket;                        // Puerto de administración (separado del tráfico normal)
+import java.net.Socket;                              // Conexión de quien consulta las métricas
+import java.nio.charset.StandardCharsets;            // Codificación del texto de las métricas
+import java.util.ArrayList;                          // Series de cada familia
+import java.util.LinkedHashMap;                      // Familias en orden de registro
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;    // El puerto de administración se abre una sola vez por JVM
+import java.util.concurrent.atomic.AtomicLongArray;  // Cubetas del histograma, incrementadas sin bloqueos
+import java.util.concurrent.atomic.LongAdder;        // Contadores con poca contención entre hilos
+import java.util.function.LongSupplier;              // Valor de un medidor leído al momento de la consulta
+
+// Métricas del servidor y de los proxies: contadores (LongAdder), medidores e histogramas de latencia.
+// Registrarlas y actualizarlas no bloquea a los hilos que atienden peticiones; el texto solo se arma
+// cuando alguien las consulta en el puerto de administración (-Dmetricas.puerto, formato de Prometheus):
+//   GET /metrics                 todas las métricas
+//   POST /registro?activo=0|1    apaga o enciende el registro de peticiones (ver Registro); GET responde 405
+class Metricas {
+    static final int PUERTO = Configuracion.entero("metricas.puerto", 0); // 0 desactiva el puerto de administración
+    static final String DIRECCION = Configuracion.texto("metricas.direccion", "127.0.0.1");
+
+    static final String CONTADOR = "counter";
+    static final String MEDIDOR = "gauge";
+    static final String HISTOGRAMA = "summary";
+
+    // Cuantiles que se publican de cada histograma
+    static final double[] CUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    // Histograma de latencias al estilo HDR: cubetas logarítmicas con 16 subdivisiones lineales por potencia
+    // de dos (error relativo menor a 6.25 %), de 1 microsegundo hasta días, en un arreglo fijo sin bloqueos
+    static class Histograma {
+        static final int SUBDIVISIONES = 16;
+        static final int MAXIMO_EXPONENTE = 40; // 2^40 us, cerca de 13 días; lo más lento cae en la última cubeta
+        static final int CUBETAS = (MAXIMO_EXPONENTE - 2) * SUBDIVISIONES;
+
+        final AtomicLongArray cuentas = new AtomicLongArray(CUBETAS);
+        final LongAdder sumaMicros = new LongAdder();
+
+        void registrar(long nanos) {
+            long micros = Math.max(0, nanos / 1000);
+            cuentas.incrementAndGet(cubeta(micros));
+            sumaMicros.add(micros);
+        }
+
+        // Registra el tiempo transcurrido desde un System.nanoTime() anterior
+        void registrarDesde(long inicio) {
+            registrar(System.nanoTime() - inicio);
+        }
+
+        // Los primeros 16 microsegundos tienen cubeta propia; después, exponente y 4 bits de mantisa
+        static int cubeta(long micros) {
+            if (micros < SUBDIVISIONES) return (int) micros;
+            int exponente = 63 - Long.numberOfLeadingZeros(micros);
+            if (exponente > MAXIMO_EXPONENTE) return CUBETAS - 1;
+            return (exponente - 3) * SUBDIVISIONES + (int) ((micros >>> (exponente - 4)) & (SUBDIVISIONES - 1));
+        }
+
+        // Mayor valor (en microsegundos) que cae en la cubeta
+        static long limite(int cubeta) {
+            if (cubeta < SUBDIVISIONES) return cubeta;
+            int exponente = cubeta / SUBDIVISIONES + 3;
+            long mantisa = SUBDIVISIONES + cubeta % SUBDIVISIONES;
+            return ((mantisa + 1) << (exponente - 4)) - 1;
+        }
+
+        // Copia de las cuentas: los cuantiles se calculan sobre ella mientras siguen llegando valores
+        long[] copia() {
+            long[] copia = new long[CUBETAS];
+            for (int i = 0; i < CUBETAS; i++) copia[i] = cuentas.get(i);
+            return copia;
+        }
+
+        static long total(long[] copia) {
+            long total = 0;
+            for (long cuenta : copia) total += cuenta;
+            return total;
+        }
+
+        // Cuantil en microsegundos (límite superior de la cubeta que lo contiene)
+        static long cuantil(long[] copia, long total, double cuantil) {
+            if (total == 0) return 0;
+            long objetivo = Math.max(1, (long) Math.ceil(cuantil * total));
+            long acumulado = 0;
+            for (int i = 0; i < copia.length; i++) {
+                acumulado += copia[i];
+                if (acumulado >= objetivo) return limite(i);
+            }
+            return limite(copia.length - 1);
+        }
+    }
+
+    // Flujo hacia el cliente que registra en el histograma el tiempo transcurrido hasta su primera escritura
+    static class PrimerByte extends OutputStream {
+        final OutputStream destino;
+        final Histograma histograma;
+        final long desde; // System.nanoTime() del inicio de la medición (ej. al aceptar la conexión)
+        boolean medido;
+
+        PrimerByte(OutputStream destino, Histograma histograma, long desde) {
+            this.destino = destino;
+            this.histograma = histograma;
+            this.desde = desde;
+        }
+
+        public void write(int b) throws IOException {
+            medir();
+            destino.write(b);
+        }
+
+        public void write(byte[] b, int desde, int cantidad) throws IOException {
+            medir();
+            destino.write(b, desde, cantidad);
+        }
+
+        public void flush() throws IOException {
+            destino.flush();
+        }
+
+        public void close() throws IOException {
+            destino.close();
+        }
+
+        void medir() {
+            if (medido) return;
+            medido = true;
+            histograma.registrarDesde(desde);
+        }
+    }
+
+    // Serie de una familia: sus etiquetas (ej. servidor="127.0.0.1:8081") y de dónde sale su valor
+    static class Serie {
+        final String etiquetas;
+        final LongAdder adder;         // Contador o medidor propio
+        final LongSupplier valor;      // Valor leído de otra estructura (ej. peticiones pendientes)
+        final Histograma histograma;
+
+        Serie(String etiquetas, LongAdder adder, LongSupplier valor, Histograma histograma) {
+            this.etiquetas = etiquetas;
+            this.adder = adder;
+            this.valor = valor;
+            this.histograma = histograma;
+        }
+    }
+
+    // Métrica con su descripción, su tipo y una serie por combinación de etiquetas
+    static class Familia {
+        final String nombre;
+        final String ayuda;
+        final String tipo;
+        final List<Serie> series = new ArrayList<>();
+
+        Familia(String nombre, String ayuda, String tipo) {
+            this.nombre = nombre;
+            this.ayuda = ayuda;
+            this.tipo = tipo;
+        }
+
+        Serie buscar(String etiquetas) {
+            for (Serie serie : series) {
+                if (serie.etiquetas.equals(etiquetas)) return serie;
+            }
+            return null;
+        }
+    }
+
+    static final LinkedHashMap<String, Familia> familias = new LinkedHashMap<>();
+    static final AtomicBoolean administracion = new AtomicBoolean();
+
+    // El registro solo ocurre al crear los objetos que se miden; si la serie ya existe se devuelve la misma
+    // (así, por ejemplo, el pool y el motor NIO comparten el histograma de conexión de cada servidor)
+    static synchronized Serie serie(String nombre, String ayuda, String tipo, String etiquetas, LongSupplier valor) {
+        Familia familia = familias.computeIfAbsent(nombre, n -> new Familia(n, ayuda, tipo));
+        Serie serie = familia.buscar(etiquetas);
+        if (serie != null && valor == null) return serie;
+        if (serie != null) familia.series.remove(serie); // Un valor externo nuevo reemplaza al anterior
+        serie = new Serie(etiquetas,
+                valor == null && !tipo.equals(HISTOGRAMA) ? new LongAdder() : null,
+                valor,
+                tipo.equals(HISTOGRAMA) ? new Histograma() : null);
+        familia.series.add(serie);
+        return serie;
+    }
+
+    static LongAdder contador(String nombre, String ayuda) {
+        return contador(nombre, ayuda, "");
+    }
+
+    static LongAdder contador(String nombre, String ayuda, String etiquetas) {
+        return serie(nombre, ayuda, CONTADOR, etiquetas, null).adder;
+    }
+
+    // Medidor que se sube y se baja (ej. conexiones activas)
+    static LongAdder medidor(String nombre, String ayuda) {
+        return serie(nombre, ayuda, MEDIDOR, "", null).adder;
+    }
+
+    static Histograma histograma(String nombre, String ayuda, String etiquetas) {
+        return serie(nombre, ayuda, HISTOGRAMA, etiquetas, null).histograma;
+    }
+
+    // Publica un valor que ya se lleva en otra parte (contador o medidor) sin duplicarlo
+    static void exponer(String nombre, String ayuda, String tipo, String etiquetas, LongSupplier valor) {
+        serie(nombre, ayuda, tipo, etiquetas, valor);
+    }
+
+    // Etiqueta de un servidor de destino
+    static String servidor(String host, int puerto) {
+        return "servidor=\"" + host + ":" + puerto + "\"";
+    }
+
+    // Texto en el formato de exposición de Prometheus (versión 0.0.4); los histogramas se publican como
+    // "summary" con sus cuantiles, suma y cantidad, en segundos
+    static synchronized String exposicion() {
+        StringBuilder texto = new StringBuilder(4096);
+        for (Familia familia : familias.values()) {
+            texto.append("# HELP ").append(familia.nombre).append(' ').append(familia.ayuda).append('\n');
+            texto.append("# TYPE ").append(familia.nombre).append(' ').append(familia.tipo).append('\n');
+            for (Serie serie : familia.series) {
+                if (serie.histograma == null) {
+                    long valor = serie.adder != null ? serie.adder.sum() : serie.valor.getAsLong();
+                    linea(texto, familia.nombre, serie.etiquetas, null).append(valor).append('\n');
+                    continue;
+                }
+                long[] copia = serie.histograma.copia();
+                long total = Histograma.total(copia);
+                for (double cuantil : CUANTILES) {
+                    linea(texto, familia.nombre, serie.etiquetas, "quantile=\"" + cuantil + "\"")
+                            .append(segundos(Histograma.cuantil(copia, total, cuantil))).append('\n');
+                }
+                linea(texto, familia.nombre + "_sum", serie.etiquetas, null)
+                        .append(segundos(serie.histograma.sumaMicros.sum())).append('\n');
+                linea(texto, familia.nombre + "_count", serie.etiquetas, null).append(total).append('\n');
+            }
+        }
+        return texto.toString();
+    }
+
+    static StringBuilder linea(StringBuilder texto, String nombre, String etiquetas, String extra) {
+        texto.append(nombre);
+        if (!etiquetas.isEmpty() || extra != null) {
+            texto.append('{').append(etiquetas);
+            if (extra != null) texto.append(etiquetas.isEmpty() ? "" : ",").append(extra);
+            texto.append('}');
+        }
+        return texto.append(' ');
+    }
+
+    static String segundos(long micros) {
+        return String.valueOf(micros / 1_000_000.0);
+    }
+
+    // Abre el puerto de administración en un hilo daemon, si se configuró
+    static void iniciarAdministracion() {
+        if (PUERTO <= 0 || !administracion.compareAndSet(false, true)) return;
+        ServerSocket servidor;
+        try {
+            servidor = new ServerSocket();
+            servidor.bind(new InetSocketAddress(DIRECCION, PUERTO));
+        } catch (IOException e) {
+            System.err.println("Error en el puerto de métricas " + PUERTO + ": " + e.getMessage());
+            return;
+        }
+        Thread hilo = new Thread(() -> {
+            while (true) {
+                try (Socket conexion = servidor.accept()) {
+                    atender(conexion);
+                } catch (IOException e) {
+                    System.err.println("Error en el puerto de métricas: " + e.getMessage());
+                }
+            }
+        }, "metricas");
+        hilo.setDaemon(true);
+        hilo.start();
+        System.out.println("Métricas en http://" + DIRECCION + ":" + PUERTO + "/metrics");
+    }
+
+    // Atiende una consulta (una petición por conexión)
+    static void atender(Socket conexion) throws IOException {
+        conexion.setSoTimeout(2000);
+        PeticionHTTP peticion = new PeticionHTTP();
+        try {
+            OutputStream salida = conexion.getOutputStream();
+            int resultado = peticion.leer(conexion.getInputStream());
+            if (resultado == PeticionHTTP.CERRADA) return;
+            if (resultado != PeticionHTTP.COMPLETA) {
+                PeticionHTTP.rechazar(resultado, salida);
+                return;
+            }
+            if (peticion.esGet() && peticion.rutaEs("/metrics")) {
+                responder(salida, "200 OK", "text/plain; version=0.0.4; charset=utf-8", exposicion());
+            } else if (peticion.rutaEs("/registro") && !peticion.metodoEs("POST")) {
+                // Cambia el estado del proxy: no se acepta por GET (lo repetiría un prefetch o un rastreador)
+                responder(salida, "405 Method Not Allowed", "Allow: POST\r\n", "text/plain; charset=utf-8", "");
+            } else if (peticion.rutaEs("/registro") && peticion.tieneQuery()) {
+                Registro.activo = peticion.parametroEntero("activo") != 0;
+                responder(salida, "200 OK", "text/plain; charset=utf-8", "registro activo=" + Registro.activo + "\n");
+            } else {
+                responder(salida, "404 Not Found", "text/plain; charset=utf-8", "");
+            }
+        } catch (IllegalArgumentException e) {
+            responder(conexion.getOutputStream(), "400 Bad Request", "text/plain; charset=utf-8", e.getMessage() + "\n");
+        } finally {
+            peticion.liberar();
+        }
+    }
+
+    static void responder(OutputStream salida, String estado, String tipo, String cuerpo) throws IOException {
+        responder(salida, estado, "", tipo, cuerpo);
+    }
+
+    // Con encabezados adicionales, cada uno terminado en CRLF (ej. "Allow: POST\r\n")
+    static void responder(OutputStream salida, String estado, String adicionales, String tipo, String cuerpo) throws IOException {
+        byte[] bytes = cuerpo.getBytes(StandardCharsets.UTF_8);
+        String encabezados = "HTTP/1.1 " + estado + "\r\n"
+                + adicionales
+                + "Content-type: " + tipo + "\r\n"
+                + "Content-length: " + bytes.length + "\r\n"
+                + "Connection: close\r\n"
+                + "\r\n";
+        salida.write(encabezados.getBytes(StandardCharsets.US_ASCII));
+        salida.write(bytes);
+        salida.flush();
+    }
+}
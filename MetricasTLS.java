@@ -0,0 +1,76 @@
+// MetricasTLS.java
+
+import java.io.IOException;                   // Errores durante el handshake
+import java.util.concurrent.atomic.LongAdder; // Contadores con poca contención entre hilos
+import javax.net.ssl.SSLSession;              // Sesión negociada (protocolo, suite y momento de creación)
+import javax.net.ssl.SSLSocket;               // Conexión TLS con el cliente
+
+// Mide el costo de los handshakes TLS del proxy y distingue los completos de los reanudados,
+// para comprobar que la reanudación de sesiones realmente reduce el CPU dedicado a los handshakes
+class MetricasTLS {
+    static final int REPORTE_SEGUNDOS = Configuracion.entero("ssl.reporte.segundos", 60); // 0 desactiva el reporte
+
+    static final String AYUDA = "Handshakes TLS con los clientes";
+    static final LongAdder completos = Metricas.contador("tls_handshakes_total", AYUDA, "tipo=\"completo\"");
+    static final LongAdder reanudados = Metricas.contador("tls_handshakes_total", AYUDA, "tipo=\"reanudado\"");
+    static final LongAdder fallidos = Metricas.contador("tls_handshakes_total", AYUDA, "tipo=\"fallido\"");
+    static final LongAdder nanosCompletos = new LongAdder();
+    static final LongAdder nanosReanudados = new LongAdder();
+    // Distribución de la duración de cada tipo de handshake, para el puerto de métricas
+    static final Metricas.Histograma duracionCompletos = Metricas.histograma("tls_handshake_segundos", "Duración de los handshakes TLS", "tipo=\"completo\"");
+    static final Metricas.Histograma duracionReanudados = Metricas.histograma("tls_handshake_segundos", "Duración de los handshakes TLS", "tipo=\"reanudado\"");
+
+    // Realiza el handshake de forma explícita y registra su duración.
+    // Una sesión creada antes de iniciar este handshake es una sesión reanudada (caché o ticket de sesión).
+    static void handshake(SSLSocket cliente) throws IOException {
+        long inicioMs = System.currentTimeMillis();
+        long inicio = System.nanoTime();
+        try {
+            cliente.startHandshake();
+        } catch (IOException e) {
+            fallidos.increment();
+            throw e;
+        }
+        long duracion = System.nanoTime() - inicio;
+        SSLSession sesion = cliente.getSession();
+        if (sesion.getCreationTime() < inicioMs) {
+            reanudados.increment();
+            nanosReanudados.add(duracion);
+            duracionReanudados.registrar(duracion);
+        } else {
+            completos.increment();
+            nanosCompletos.add(duracion);
+            duracionCompletos.registrar(duracion);
+        }
+    }
+
+    // Imprime periódicamente los contadores en un hilo daemon
+    static void iniciarReporte() {
+        if (REPORTE_SEGUNDOS <= 0) return;
+        Thread reporte = new Thread(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(REPORTE_SEGUNDOS * 1000L);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                System.out.println(resumen());
+            }
+        }, "tls-reporte");
+        reporte.setDaemon(true);
+        reporte.start();
+    }
+
+    // Resumen con la cantidad y el tiempo promedio (en microsegundos) de cada tipo de handshake
+    static String resumen() {
+        long c = completos.sum();
+        long r = reanudados.sum();
+        return "Handshakes TLS completos=" + c + " (promedio " + promedioMicros(nanosCompletos.sum(), c) + " us)"
+                + " reanudados=" + r + " (promedio " + promedioMicros(nanosReanudados.sum(), r) + " us)"
+                + " fallidos=" + fallidos.sum();
+    }
+
+    static long promedioMicros(long nanos, long cantidad) {
+        return cantidad == 0 ? 0 : nanos / cantidad / 1000;
+    }
+}
@@ -0,0 +1,714 @@
+// MotorNIO.java
+
+import java.io.IOException;                          // Errores de E/S en los canales
+import java.net.InetSocketAddress;                   // Direcciones del proxy y de los servidores
+import java.net.StandardSocketOptions;               // Opciones de socket (TCP_NODELAY)
+import java.nio.ByteBuffer;                          // Buffers directos tomados de PoolBuffers
+import java.nio.channels.CancelledKeyException;      // La clave se canceló mientras se atendía
+import java.nio.channels.SelectionKey;               // Registro de un canal en un Selector con sus intereses
+import java.nio.channels.Selector;                   // Multiplexor de eventos de E/S
+import java.nio.channels.ServerSocketChannel;        // Canal que acepta conexiones de clientes
+import java.nio.channels.SocketChannel;              // Canal no bloqueante con el cliente o con el servidor
+import java.nio.charset.StandardCharsets;            // Encabezados de la respuesta que se reenvían sin reescribir
+import java.util.ArrayDeque;                         // Conexiones libres con los servidores (propias de cada bucle)
+import java.util.ArrayList;                          // Sesiones vencidas, cerradas después de recorrer las claves
+import java.util.Iterator;                           // Recorrido de las claves seleccionadas
+import java.util.concurrent.ConcurrentLinkedQueue;   // Conexiones aceptadas pendientes de registrar en un bucle
+
+// Motor alternativo del proxy basado en ServerSocketChannel/Selector.
+// En lugar de un hilo por conexión, N bucles de eventos (uno por núcleo por defecto) atienden
+// todos los canales de clientes y de los servidores de forma no bloqueante, con una máquina de estados por conexión.
+// Se elige al iniciar con -Dproxy.motor=nio. Solo reenvía: no pasa por Despachador, así que la caché de respuestas,
+// la compresión, los reintentos en otro servidor y la cobertura no se aplican (se avisa al iniciar, ver sinEfecto);
+// de proxy.total.ms solo toma el plazo para responder 504, y solo reintenta una conexión libre que el servidor cerró.
+class MotorNIO {
+    static final int HILOS = Configuracion.entero("nio.hilos", Runtime.getRuntime().availableProcessors());
+
+    // Estados de una sesión (una petición del cliente y su respuesta)
+    static final int LEYENDO_PETICION = 0;  // Esperando los encabezados completos del cliente
+    static final int CONECTANDO = 1;        // Conexión no bloqueante con el servidor en curso
+    static final int ENVIANDO_PETICION = 2; // Escribiendo la petición hacia el servidor
+    static final int RECIBIENDO = 3;        // Leyendo la respuesta del servidor
+    static final int ESCRIBIENDO = 4;       // El cliente no aceptó todos los bytes: se espera para seguir escribiendo
+    static final int LEYENDO_CUERPO = 5;    // Encabezados completos: esperando el resto del cuerpo (Content-Length)
+    static final int DESCARTANDO = 6;       // Petición rechazada: se descarta lo que siga enviando el cliente antes de cerrar
+
+    static final long DESCARTE_MS = 1000;   // Espera máxima a que el cliente rechazado deje de enviar
+    static final long REVISION_NANOS = 100_000_000L; // Frecuencia máxima con que cada bucle revisa los plazos
+
+    final Balanceador balanceador; // Servidores que responden (solo el servidor 1 en modo espejo)
+    final EspejoServidor2 espejo;  // null en modo balanceo
+    final Bucle[] bucles;
+
+    MotorNIO(Balanceador balanceador, EspejoServidor2 espejo) throws IOException {
+        this.balanceador = balanceador;
+        this.espejo = espejo;
+        this.bucles = new Bucle[Math.max(1, HILOS)];
+        for (int i = 0; i < bucles.length; i++) {
+            bucles[i] = new Bucle(i);
+        }
+    }
+
+    // Arranca los bucles y acepta conexiones en el hilo llamador, repartiéndolas en turno circular.
+    // Los límites de Admision se aplican al aceptar; el plazo de espera de la petición lo vigila el bucle de
+    // cada sesión (ver Sesion.vencer), porque una sesión solo se puede cerrar desde su bucle.
+    void iniciar(int puertoLocal, Admision admision) throws IOException {
+        ServerSocketChannel servidor = ServerSocketChannel.open();
+        servidor.bind(new InetSocketAddress(puertoLocal), Ejecutor.BACKLOG);
+        for (Bucle bucle : bucles) {
+            bucle.start();
+        }
+        System.out.println("Motor NIO con " + bucles.length + " bucles de eventos");
+        String sinEfecto = sinEfecto();
+        if (!sinEfecto.isEmpty()) {
+            System.err.println("Aviso: el motor NIO no aplica " + sinEfecto + " (usar -Dproxy.motor=hilos)");
+        }
+
+        int siguiente = 0;
+        while (true) {
+            SocketChannel cliente = servidor.accept(); // Espera conexión de cliente
+            Admision.Conexion admitida = admision.admitir(cliente.socket(), false); // null si se rechazó
+            if (admitida == null) continue;
+            bucles[siguiente].registrar(admitida);
+            siguiente = (siguiente + 1) % bucles.length;
+        }
+    }
+
+    // Opciones habilitadas de Despachador que este motor no aplica, separadas por comas (vacío si ninguna)
+    static String sinEfecto() {
+        ArrayList<String> opciones = new ArrayList<>();
+        if (CacheRespuestas.HABILITADA) opciones.add("cache.habilitada");
+        if (Compresion.HABILITADA) opciones.add("proxy.compresion");
+        if (Balanceador.REINTENTOS > 0) opciones.add("proxy.reintentos");
+        if (Cobertura.HABILITADA) opciones.add("proxy.cobertura");
+        return String.join(", ", opciones);
+    }
+
+    // Conexión libre con un servidor: conserva su clave en el selector (solo cambia el adjunto) y el momento en que quedó libre
+    static class Libre {
+        final SocketChannel canal;
+        final SelectionKey clave;
+        final Balanceador.Servidor destino;
+        final long desde = System.nanoTime();
+
+        Libre(SocketChannel canal, SelectionKey clave, Balanceador.Servidor destino) {
+            this.canal = canal;
+            this.clave = clave;
+            this.destino = destino;
+        }
+    }
+
+    // Hilo con su propio Selector; todas sus sesiones y conexiones libres se atienden solo desde este hilo
+    class Bucle extends Thread {
+        final Selector selector;
+        final ConcurrentLinkedQueue<Admision.Conexion> nuevos = new ConcurrentLinkedQueue<>();
+        final ArrayDeque<Libre> libres = new ArrayDeque<>(); // De todos los servidores, la más reciente al frente
+        long ultimaRevision = System.nanoTime();             // Última revisión de los plazos de las sesiones
+
+        Bucle(int numero) throws IOException {
+            super("nio-bucle-" + numero);
+            this.selector = Selector.open();
+            setDaemon(true);
+        }
+
+        // Llamado desde el hilo que acepta: encola el canal y despierta al selector
+        void registrar(Admision.Conexion cliente) {
+            nuevos.add(cliente);
+            selector.wakeup();
+        }
+
+        public void run() {
+            while (true) {
+                try {
+                    selector.select(1000);
+                    Admision.Conexion cliente;
+                    while ((cliente = nuevos.poll()) != null) {
+                        aceptar(cliente);
+                    }
+                    Iterator<SelectionKey> claves = selector.selectedKeys().iterator();
+                    while (claves.hasNext()) {
+                        SelectionKey clave = claves.next();
+                        claves.remove();
+                        atender(clave);
+                    }
+                    expirarLibres();
+                    revisarPlazos();
+                } catch (IOException e) {
+                    System.err.println("Error en el bucle de eventos: " + e.getMessage());
+                }
+            }
+        }
+
+        void aceptar(Admision.Conexion admitida) {
+            SocketChannel cliente = admitida.socket.getChannel();
+            try {
+                cliente.configureBlocking(false);
+                Sesion sesion = new Sesion(this, cliente, admitida);
+                sesion.claveCliente = cliente.register(selector, SelectionKey.OP_READ, sesion);
+                Despachador.CONEXIONES.increment();
+            } catch (IOException e) {
+                admitida.liberar();
+                cerrar(cliente);
+            }
+        }
+
+        void atender(SelectionKey clave) {
+            Object adjunto = clave.attachment();
+            if (adjunto instanceof Libre) {
+                // Una conexión libre solo se vuelve legible si el servidor la cerró (o envió datos inesperados)
+                Libre libre = (Libre) adjunto;
+                libres.remove(libre);
+                cerrar(libre.canal);
+                return;
+            }
+            Sesion sesion = (Sesion) adjunto;
+            try {
+                if (!clave.isValid()) return;
+                if (clave == sesion.claveCliente) {
+                    sesion.eventoCliente();
+                } else {
+                    sesion.eventoServidor();
+                }
+            } catch (IOException | CancelledKeyException e) {
+                if (clave == sesion.claveCliente) {
+                    sesion.terminar(false);
+                } else {
+                    // Un error en el canal del servidor cuenta como fallo del servidor para el balanceo
+                    sesion.fallar(Balanceador.RESPUESTA_502, e.getMessage());
+                }
+            }
+        }
+
+        // Vence las sesiones que superaron el plazo de su espera actual (conexión o lectura del servidor, descarte).
+        // Se revisa como mucho cada REVISION_NANOS: el plazo no necesita más precisión que eso.
+        void revisarPlazos() {
+            long ahora = System.nanoTime();
+            if (ahora - ultimaRevision < REVISION_NANOS) return;
+            ultimaRevision = ahora;
+            ArrayList<Sesion> vencidas = new ArrayList<>();
+            for (SelectionKey clave : selector.keys()) {
+                Object adjunto = clave.attachment();
+                if (!(adjunto instanceof Sesion)) continue;
+                Sesion sesion = (Sesion) adjunto;
+                if (clave == sesion.claveCliente && clave.isValid() && sesion.plazo != 0 && ahora - sesion.plazo > 0) {
+                    vencidas.add(sesion);
+                }
+            }
+            for (Sesion sesion : vencidas) {
+                sesion.vencer();
+            }
+        }
+
+        // Toma la conexión libre más reciente con el servidor indicado, o null si no hay
+        Libre tomarLibre(Balanceador.Servidor destino) {
+            Iterator<Libre> iterador = libres.iterator();
+            while (iterador.hasNext()) {
+                Libre libre = iterador.next();
+                if (libre.destino != destino) continue;
+                iterador.remove();
+                if (libre.canal.isOpen() && libre.clave.isValid()) return libre;
+                cerrar(libre.canal);
+            }
+            return null;
+        }
+
+        // Guarda la conexión con el servidor para otra petición de este mismo bucle.
+        // Mientras está libre se vigila OP_READ para detectar que el servidor la cerró.
+        void devolverLibre(SocketChannel canal, SelectionKey clave, Balanceador.Servidor destino) {
+            if (!PoolConexiones.HABILITADO || libres.size() >= PoolConexiones.MAXIMO_POR_SERVIDOR * balanceador.servidores.length) {
+                cerrar(canal);
+                return;
+            }
+            Libre libre = new Libre(canal, clave, destino);
+            clave.attach(libre);
+            clave.interestOps(SelectionKey.OP_READ);
+            libres.addFirst(libre);
+        }
+
+        // Cierra las conexiones libres que superaron el tiempo de inactividad del pool
+        void expirarLibres() {
+            long ahora = System.nanoTime();
+            Libre libre;
+            while ((libre = libres.peekLast()) != null
+                    && (ahora - libre.desde) / 1_000_000 > PoolConexiones.INACTIVIDAD_MS) {
+                libres.pollLast();
+                cerrar(libre.canal);
+            }
+        }
+    }
+
+    // Estado de una conexión con el cliente mientras se atiende su petición
+    class Sesion {
+        final Bucle bucle;
+        final SocketChannel cliente;
+        final Admision.Conexion admitida;
+        SelectionKey claveCliente;
+        SocketChannel servidor;
+        SelectionKey claveServidor;
+        int estado = LEYENDO_PETICION;
+
+        PeticionHTTP entrada = new PeticionHTTP(PoolBuffers.obtenerDirecto()); // Petición del cliente, analizada conforme llega
+        ByteBuffer respuesta = PoolBuffers.obtenerDirecto(); // Bytes del servidor pendientes de enviar al cliente
+        ByteBuffer peticion;                                 // Petición reescrita pendiente de enviar al servidor
+        ByteBuffer cuerpo;                                   // Parte del cuerpo de la petición que falta recibir
+        ByteBuffer encabezados;                              // Encabezados de la respuesta, reescritos para el cliente
+        final Delimitador delimitador = new Delimitador();
+        boolean esHead;
+        boolean esIdempotente;
+        boolean reutilizada; // La conexión con el servidor vino de las libres del bucle
+        Balanceador.Servidor destino; // Servidor elegido por el balanceador para esta petición
+        boolean falloServidor;        // Error de conexión o de lectura con el servidor
+        final long aceptada = System.nanoTime(); // Para medir el tiempo hasta el primer byte de la respuesta
+        long inicioServidor;          // Inicio de la petición al servidor (ver Balanceador.iniciar)
+        long limite;                  // Vence el plazo total para la respuesta completa del servidor (proxy.total.ms)
+        long inicioConexion;          // Inicio de la conexión no bloqueante con el servidor
+        boolean primerByte;           // Ya se escribió algo de la respuesta al cliente
+        long plazo;                   // Momento (System.nanoTime) en que vence la espera actual; 0 sin plazo
+
+        Sesion(Bucle bucle, SocketChannel cliente, Admision.Conexion admitida) {
+            this.bucle = bucle;
+            this.cliente = cliente;
+            this.admitida = admitida;
+            if (admitida.admision.espera > 0) plazo = aceptada + admitida.admision.espera; // Para la petición completa
+        }
+
+        void eventoCliente() throws IOException {
+            if (estado == LEYENDO_PETICION) {
+                leerPeticion();
+            } else if (estado == LEYENDO_CUERPO) {
+                leerCuerpo();
+            } else if (estado == ESCRIBIENDO) {
+                escribirCliente();
+            } else if (estado == DESCARTANDO) {
+                descartar();
+            }
+        }
+
+        void eventoServidor() throws IOException {
+            if (estado == CONECTANDO) {
+                if (servidor.finishConnect()) {
+                    destino.conexion.registrarDesde(inicioConexion);
+                    esperarServidor(Balanceador.LECTURA_MS);
+                    estado = ENVIANDO_PETICION;
+                    claveServidor.interestOps(SelectionKey.OP_WRITE);
+                }
+            } else if (estado == ENVIANDO_PETICION) {
+                escribirServidor();
+            } else if (estado == RECIBIENDO) {
+                leerServidor();
+            }
+        }
+
+        // Acumula bytes del cliente y continúa el análisis hasta tener los encabezados completos
+        void leerPeticion() throws IOException {
+            if (cliente.read(entrada.buffer) == -1) {
+                terminar(false);
+                return;
+            }
+            int resultado = entrada.analizar();
+            if (resultado == PeticionHTTP.INCOMPLETA && !entrada.buffer.hasRemaining()) {
+                resultado = PeticionHTTP.DEMASIADO_GRANDE; // Encabezados más grandes que el buffer
+            }
+            if (resultado == PeticionHTTP.INCOMPLETA) return;
+            if (resultado == PeticionHTTP.COMPLETA) resultado = entrada.delimitarCuerpo();
+            if (resultado != PeticionHTTP.COMPLETA) {
+                rechazar(resultado);
+                return;
+            }
+            if (entrada.longitudCuerpo > 0) {
+                // El cuerpo se acumula en su propio arreglo, que se reenvía junto con los encabezados (ver PeticionHTTP.copia)
+                int recibidos = entrada.iniciarCuerpo();
+                cuerpo = ByteBuffer.wrap(entrada.cuerpo, recibidos, entrada.longitudCuerpo - recibidos);
+                if (cuerpo.hasRemaining()) {
+                    if (entrada.esperaContinuar()) cliente.write(ByteBuffer.wrap(PeticionHTTP.CONTINUAR)); // Cabe en el buffer del socket
+                    estado = LEYENDO_CUERPO;
+                    return;
+                }
+            }
+            enviar();
+        }
+
+        void leerCuerpo() throws IOException {
+            if (cliente.read(cuerpo) == -1) {
+                terminar(false);
+                return;
+            }
+            if (!cuerpo.hasRemaining()) enviar();
+        }
+
+        // Petición inválida: se responde igual que PeticionHTTP.rechazar (cabe en el buffer del socket), se cierra
+        // la salida y se descarta lo que el cliente siga enviando hasta que cierre o venza el plazo, para que el
+        // cierre con datos sin leer no se convierta en un RST que le haga perder la respuesta
+        void rechazar(int resultado) throws IOException {
+            cliente.write(ByteBuffer.wrap(PeticionHTTP.rechazo(resultado)));
+            cliente.shutdownOutput();
+            estado = DESCARTANDO;
+            plazo = System.nanoTime() + DESCARTE_MS * 1_000_000;
+        }
+
+        void descartar() throws IOException {
+            entrada.buffer.clear();
+            if (cliente.read(entrada.buffer) == -1) terminar(false);
+        }
+
+        // Petición completa: se elige servidor y se le envía
+        void enviar() throws IOException {
+            Despachador.PETICIONES.increment();
+            admitida.atendiendo();
+            plazo = 0; // Termina el plazo de la petición; empiezan los del servidor
+            if (Registro.muestrear()) Registro.escribir("Petición recibida en el proxy: " + entrada.lineaPeticion());
+            esHead = entrada.esHead();
+            esIdempotente = esHead || entrada.esGet();
+
+            // Copia la petición con su cuerpo y sin los encabezados de salto a salto
+            byte[] bytesPeticion = entrada.copia(Despachador.SIN_EXPECT, null, null);
+            if (espejo != null) espejo.reflejar(bytesPeticion, esHead);
+
+            peticion = ByteBuffer.wrap(bytesPeticion);
+            delimitador.esHead = esHead;
+            claveCliente.interestOps(0);
+            destino = balanceador.elegir();
+            inicioServidor = balanceador.iniciar(destino);
+            limite = inicioServidor + Balanceador.TOTAL_MS * 1_000_000;
+            try {
+                conectar(bucle.tomarLibre(destino));
+            } catch (IOException e) {
+                fallar(Balanceador.RESPUESTA_502, e.getMessage());
+            }
+        }
+
+        // Usa la conexión libre indicada o abre una nueva (no bloqueante) con el servidor elegido
+        void conectar(Libre libre) throws IOException {
+            if (libre != null) {
+                servidor = libre.canal;
+                claveServidor = libre.clave;
+                claveServidor.attach(this);
+                claveServidor.interestOps(SelectionKey.OP_WRITE);
+                reutilizada = true;
+                estado = ENVIANDO_PETICION;
+                esperarServidor(Balanceador.LECTURA_MS);
+                return;
+            }
+            servidor = SocketChannel.open();
+            servidor.configureBlocking(false);
+            servidor.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            reutilizada = false;
+            inicioConexion = System.nanoTime();
+            if (servidor.connect(destino.direccion)) {
+                destino.conexion.registrarDesde(inicioConexion);
+                estado = ENVIANDO_PETICION;
+                esperarServidor(Balanceador.LECTURA_MS);
+                claveServidor = servidor.register(bucle.selector, SelectionKey.OP_WRITE, this);
+            } else {
+                estado = CONECTANDO;
+                esperarServidor(PoolConexiones.CONEXION_MS);
+                claveServidor = servidor.register(bucle.selector, SelectionKey.OP_CONNECT, this);
+            }
+        }
+
+        void escribirServidor() throws IOException {
+            try {
+                servidor.write(peticion);
+            } catch (IOException e) {
+                if (!reintentar()) throw e;
+                return;
+            }
+            if (!peticion.hasRemaining()) {
+                estado = RECIBIENDO;
+                claveServidor.interestOps(SelectionKey.OP_READ);
+            }
+        }
+
+        void leerServidor() throws IOException {
+            respuesta.clear();
+            int leidos;
+            try {
+                leidos = servidor.read(respuesta);
+            } catch (IOException e) {
+                if (!reintentar()) throw e;
+                return;
+            }
+            if (leidos == -1) {
+                if (reintentar()) return;
+                boolean sinEncabezados = delimitador.estado == Delimitador.ENCABEZADOS;
+                if (!delimitador.terminarEnEOF()) {
+                    throw new IOException("El servidor cerró la conexión antes de completar la respuesta");
+                }
+                if (sinEncabezados) {
+                    // El servidor cerró sin terminar los encabezados: se reenvía tal cual lo acumulado (igual que RelayHTTP)
+                    encabezados = ByteBuffer.wrap(delimitador.encabezados.toString().getBytes(StandardCharsets.ISO_8859_1));
+                    respuesta.flip();
+                    escribirCliente();
+                    return;
+                }
+                terminar(false);
+                return;
+            }
+            if (delimitador.recibidos == 0) destino.primerByte.registrarDesde(inicioServidor);
+            respuesta.flip();
+            boolean sinEncabezados = delimitador.estado == Delimitador.ENCABEZADOS;
+            // Solo se reenvían los bytes que pertenecen a esta respuesta
+            int propios = delimitador.consumir(respuesta);
+            esperarServidor(Balanceador.LECTURA_MS); // Como el soTimeout del motor de hilos: se renueva con cada lectura
+            if (propios < respuesta.remaining()) {
+                delimitador.reutilizable = false; // Datos de más: la conexión queda desincronizada
+                respuesta.limit(respuesta.position() + propios);
+            }
+            if (sinEncabezados) {
+                // Los encabezados se acumulan en el delimitador y se envían reescritos (Connection: close, ver
+                // RelayHTTP.encabezadosCliente) antes del cuerpo; un 101 cambia de protocolo y va tal cual
+                if (delimitador.estado == Delimitador.ENCABEZADOS) return;
+                String recibidos = delimitador.encabezados.toString();
+                encabezados = ByteBuffer.wrap(delimitador.codigo == 101 ? recibidos.getBytes(StandardCharsets.ISO_8859_1)
+                        : RelayHTTP.encabezadosCliente(recibidos));
+                respuesta.position(delimitador.finEncabezados);
+            }
+            escribirCliente();
+        }
+
+        // Si la conexión libre resultó cerrada por el servidor antes de responder, una petición
+        // idempotente se reintenta una sola vez con una conexión nueva
+        boolean reintentar() throws IOException {
+            if (!reutilizada || delimitador.recibidos > 0 || !esIdempotente) return false;
+            cerrar(servidor);
+            peticion.rewind();
+            conectar(null);
+            return true;
+        }
+
+        // Envía al cliente lo pendiente; si no cabe todo se espera OP_WRITE sin leer más del servidor
+        void escribirCliente() throws IOException {
+            if (!primerByte && (encabezados != null || respuesta.hasRemaining())) {
+                primerByte = true;
+                Despachador.PRIMER_BYTE.registrarDesde(aceptada);
+            }
+            if (encabezados != null) {
+                cliente.write(new ByteBuffer[] {encabezados, respuesta});
+                if (!encabezados.hasRemaining()) encabezados = null;
+            } else {
+                cliente.write(respuesta);
+            }
+            if (encabezados != null || respuesta.hasRemaining()) {
+                plazo = 0; // Mientras se espera al cliente no corre el plazo del servidor
+                estado = ESCRIBIENDO;
+                claveServidor.interestOps(0);
+                claveCliente.interestOps(SelectionKey.OP_WRITE);
+                return;
+            }
+            if (delimitador.completa()) {
+                terminar(delimitador.reutilizable);
+                return;
+            }
+            estado = RECIBIENDO;
+            esperarServidor(Balanceador.LECTURA_MS);
+            claveCliente.interestOps(0);
+            claveServidor.interestOps(SelectionKey.OP_READ);
+        }
+
+        // Plazo para la espera por el servidor que empieza (0 = sin límite); también lo acota el plazo total, de
+        // modo que una respuesta que gotea se corta al vencer (como el soTimeout acotado del motor de hilos)
+        void esperarServidor(long ms) {
+            plazo = ms > 0 ? System.nanoTime() + ms * 1_000_000 : 0;
+            if (plazo == 0 || plazo - limite > 0) plazo = limite;
+        }
+
+        // Venció el plazo: el cliente no completó su petición en admision.espera.ms (se cierra sin responder, como
+        // el recolector de Admision en el motor de hilos), la conexión o la respuesta del servidor tardó demasiado
+        // (504), o el cliente rechazado no cerró
+        void vencer() {
+            if (estado == LEYENDO_PETICION || estado == LEYENDO_CUERPO) {
+                admitida.admision.recolectadas.increment();
+                terminar(false);
+            } else if (estado == DESCARTANDO) {
+                terminar(false);
+            } else {
+                fallar(Balanceador.RESPUESTA_504, "sin respuesta en el plazo");
+            }
+        }
+
+        // Error con el servidor: cuenta como fallo para el balanceo y, si el cliente todavía no recibió nada,
+        // se le responde como en el motor de hilos (502 o 504, ver Balanceador.intercambiar)
+        void fallar(byte[] error, String motivo) {
+            falloServidor = true;
+            System.err.println("Error en el servidor " + destino + ": " + motivo);
+            if (!primerByte) {
+                primerByte = true;
+                Balanceador.sinServidor.increment();
+                try {
+                    cliente.write(ByteBuffer.wrap(error)); // Cabe en el buffer del socket
+                } catch (IOException e) {
+                    // El cliente ya cerró: solo queda liberar la sesión
+                }
+            }
+            terminar(false);
+        }
+
+        // Cierra el cliente y devuelve la conexión con el servidor a las libres si quedó bien delimitada
+        void terminar(boolean reutilizable) {
+            if (servidor != null) {
+                if (reutilizable && claveServidor != null && claveServidor.isValid()) {
+                    bucle.devolverLibre(servidor, claveServidor, destino);
+                } else {
+                    cerrar(servidor); // Cerrar el canal también cancela su clave
+                }
+                servidor = null;
+            }
+            if (destino != null) {
+                // Cuentan como fallo los errores con el servidor y las respuestas 5xx
+                balanceador.terminar(destino, !falloServidor && delimitador.codigo < 500, inicioServidor);
+                destino = null;
+            }
+            if (claveCliente != null) claveCliente.cancel();
+            if (cliente.isOpen()) Despachador.CONEXIONES.decrement();
+            admitida.liberar();
+            cerrar(cliente);
+            if (entrada != null) entrada.liberar();
+            PoolBuffers.devolverDirecto(respuesta);
+            entrada = null;
+            respuesta = null;
+        }
+    }
+
+    // Sigue el delimitado de una respuesta HTTP/1.1 conforme pasan sus bytes, sin copiar el cuerpo:
+    // encabezados, Content-Length, bloques chunked con sus trailers, o cuerpo hasta el cierre
+    static class Delimitador {
+        static final int ENCABEZADOS = 0, CUERPO = 1, CHUNK_TAMANO = 2, CHUNK_DATOS = 3, TRAILERS = 4, HASTA_EOF = 5, COMPLETA = 6;
+
+        int estado = ENCABEZADOS;
+        int codigo;          // Código de estado de la respuesta, 0 mientras no llegan los encabezados
+        boolean esHead;
+        boolean reutilizable = true;
+        long recibidos;      // Bytes de esta respuesta vistos hasta ahora
+        long restante;       // Bytes pendientes del cuerpo o del bloque actual
+        long tamanoChunk;    // Tamaño del bloque que se está leyendo
+        boolean extension;   // Se está saltando una extensión de bloque (";nombre=valor")
+        int largoLinea;      // Caracteres de la línea de trailer actual (sin CR)
+        int finEncabezados;  // Posición en el buffer donde terminaron los encabezados (ver consumir)
+        int digitos;         // Dígitos hexadecimales del tamaño del bloque actual
+        final StringBuilder encabezados = new StringBuilder();
+
+        boolean completa() {
+            return estado == COMPLETA;
+        }
+
+        // Devuelve cuántos bytes desde la posición del buffer pertenecen a esta respuesta (no mueve la posición);
+        // falla si los encabezados no permiten delimitarla
+        int consumir(ByteBuffer datos) throws IOException {
+            int i = datos.position();
+            int limite = datos.limit();
+            while (i < limite && estado != COMPLETA) {
+                switch (estado) {
+                    case ENCABEZADOS: {
+                        char c = (char) (datos.get(i++) & 0xff);
+                        encabezados.append(c);
+                        int n = encabezados.length();
+                        if (n >= 4 && c == '\n' && encabezados.charAt(n - 2) == '\r'
+                                && encabezados.charAt(n - 3) == '\n' && encabezados.charAt(n - 4) == '\r') {
+                            finEncabezados = i;
+                            iniciarCuerpo();
+                        }
+                        break;
+                    }
+                    case CUERPO:
+                    case CHUNK_DATOS: {
+                        int cantidad = (int) Math.min(restante, limite - i);
+                        i += cantidad;
+                        restante -= cantidad;
+                        if (restante == 0) {
+                            estado = estado == CUERPO ? COMPLETA : CHUNK_TAMANO;
+                            tamanoChunk = 0;
+                            digitos = 0;
+                            extension = false;
+                        }
+                        break;
+                    }
+                    case CHUNK_TAMANO: {
+                        int c = datos.get(i++);
+                        if (c == '\n') {
+                            if (digitos == 0) throw new IOException("Tamaño de bloque chunked inválido");
+                            if (tamanoChunk == 0) {
+                                estado = TRAILERS;
+                                largoLinea = 0;
+                            } else {
+                                estado = CHUNK_DATOS;
+                                restante = tamanoChunk + 2; // Datos del bloque y su CRLF
+                            }
+                        } else if (!extension && c != '\r') {
+                            int valor = Character.digit(c, 16);
+                            if (valor == -1) {
+                                extension = true;
+                            } else {
+                                // Igual que RelayHTTP.tamanoChunk: un tamaño que desborda no se puede delimitar
+                                if (tamanoChunk > Long.MAX_VALUE >> 4) throw new IOException("Tamaño de bloque chunked demasiado grande");
+                                tamanoChunk = tamanoChunk * 16 + valor;
+                                digitos++;
+                            }
+                        }
+                        break;
+                    }
+                    case TRAILERS: {
+                        int c = datos.get(i++);
+                        if (c == '\n') {
+                            if (largoLinea == 0) estado = COMPLETA;
+                            largoLinea = 0;
+                        } else if (c != '\r') {
+                            largoLinea++;
+                        }
+                        break;
+                    }
+                    case HASTA_EOF:
+                        i = limite;
+                        break;
+                    default:
+                        break;
+                }
+            }
+            int propios = i - datos.position();
+            recibidos += propios;
+            return propios;
+        }
+
+        // Con los encabezados completos se decide cómo termina el cuerpo
+        void iniciarCuerpo() throws IOException {
+            RelayHTTP.Marco marco = RelayHTTP.Marco.analizar(encabezados.toString());
+            if (marco.intermedia()) {
+                // Respuesta informativa (ej. 100 Continue): se descarta sin reenviarla y se espera la final
+                encabezados.setLength(0);
+                return;
+            }
+            codigo = marco.estado;
+            if (marco.cerrar || codigo == 101) reutilizable = false; // Con 101 la conexión deja de hablar HTTP
+            if (marco.sinCuerpo(esHead)) {
+                estado = COMPLETA;
+            } else if (marco.chunked) {
+                estado = CHUNK_TAMANO;
+                tamanoChunk = 0;
+                digitos = 0;
+            } else if (marco.longitud >= 0) {
+                restante = marco.longitud;
+                estado = restante == 0 ? COMPLETA : CUERPO;
+            } else {
+                estado = HASTA_EOF;
+                reutilizable = false;
+            }
+        }
+
+        // El servidor cerró: la respuesta está completa si se delimitaba por cierre o si llegaron encabezados
+        // incompletos (se reenvían tal cual, como en RelayHTTP)
+        boolean terminarEnEOF() {
+            reutilizable = false;
+            if (estado == HASTA_EOF || (estado == ENCABEZADOS && encabezados.length() > 0)) {
+                estado = COMPLETA;
+            }
+            return estado == COMPLETA;
+        }
+    }
+
+    static void cerrar(SocketChannel canal) {
+        try {
+            canal.close();
+        } catch (IOException e) {
+            // El canal ya no se usará
+        }
+    }
+}
@@ -0,0 +1,495 @@
+// PeticionHTTP.java
+
+import java.io.IOException;               // Errores de lectura o escritura con el cliente
+import java.io.InputStream;               // Flujo del cliente en los servidores con un hilo por conexión
+import java.io.OutputStream;              // Flujo hacia el cliente para rechazar peticiones inválidas
+import java.nio.ByteBuffer;               // Buffer reutilizable donde se acumulan e indexan los bytes de la petición
+import java.nio.charset.StandardCharsets; // Solo para las conversiones explícitas a String (registro y clave de caché)
+
+// Analizador incremental de peticiones HTTP/1.1 sobre un ByteBuffer reutilizable, común a ServidorHTTP,
+// AdministradorTrafico, AdministradorTraficoSSL y MotorNIO.
+// No crea Strings: la línea de petición, los encabezados y los parámetros de la query se guardan como
+// posiciones dentro del buffer y se comparan byte a byte (ISO-8859-1, sin pasar por el charset de la plataforma).
+// El análisis continúa donde se quedó cada vez que llegan más bytes, y los bytes que sobran después
+// de una petición (la siguiente, si el cliente las encadena) se conservan para la próxima.
+class PeticionHTTP {
+    static final int MAXIMO_BYTES = Configuracion.entero("http.max.encabezados", 8192);   // Línea de petición más encabezados
+    static final int MAXIMO_ENCABEZADOS = Configuracion.entero("http.max.cantidad", 100); // Cantidad de encabezados
+    static final int MAXIMO_CUERPO = Configuracion.entero("http.max.cuerpo", 1024 * 1024); // Cuerpo que el proxy lee y reenvía (y ServidorHTTP descarta)
+
+    // Resultados de analizar() y leer()
+    static final int INCOMPLETA = 0;       // Faltan bytes del cliente
+    static final int COMPLETA = 1;         // Línea de petición y encabezados completos
+    static final int DEMASIADO_GRANDE = 2; // Se excedió MAXIMO_BYTES o MAXIMO_ENCABEZADOS
+    static final int MALFORMADA = 3;       // Línea de petición o encabezado inválidos
+    static final int CERRADA = 4;          // El cliente cerró la conexión antes de completar una petición
+    static final int SIN_LONGITUD = 5;     // Cuerpo con Transfer-Encoding: el proxy solo reenvía cuerpos con Content-Length
+    static final int CUERPO_GRANDE = 6;    // Content-Length mayor que MAXIMO_CUERPO
+
+    // Encabezados de salto a salto: describen la conexión con el cliente y no se reenvían (además de los
+    // que empiezan con "Proxy-" y los que el cliente nombre en su Connection)
+    static final String[] SALTO_A_SALTO = {"Connection", "Keep-Alive", "TE", "Trailer", "Transfer-Encoding", "Upgrade"};
+
+    // Respuestas precalculadas para rechazar peticiones que no se pueden atender
+    static final byte[] RESPUESTA_431 = ("HTTP/1.1 431 Request Header Fields Too Large\r\n"
+            + "Content-length: 0\r\n"
+            + "Connection: close\r\n"
+            + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+    static final byte[] RESPUESTA_400 = ("HTTP/1.1 400 Bad Request\r\n"
+            + "Content-length: 0\r\n"
+            + "Connection: close\r\n"
+            + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+    static final byte[] RESPUESTA_411 = ("HTTP/1.1 411 Length Required\r\n"
+            + "Content-length: 0\r\n"
+            + "Connection: close\r\n"
+            + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+    static final byte[] RESPUESTA_413 = ("HTTP/1.1 413 Content Too Large\r\n"
+            + "Content-length: 0\r\n"
+            + "Connection: close\r\n"
+            + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+    // Respuesta informativa para el cliente que espera permiso (Expect: 100-continue) antes de enviar el cuerpo
+    static final byte[] CONTINUAR = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+    // Bytes recibidos en [0, position); el buffer queda siempre listo para escribir más al final
+    final ByteBuffer buffer;
+
+    int revisado;        // Siguiente byte a revisar en busca de fin de línea
+    int inicioLinea;     // Inicio de la línea que todavía no termina
+    int fin = -1;        // Posición siguiente a la línea vacía que termina los encabezados, o -1
+
+    // Línea de petición: "METODO URI VERSION"
+    int inicioPeticion = -1;
+    int finMetodo;
+    int inicioUri;
+    int inicioQuery = -1; // Primer byte después de '?', o -1 si la URI no tiene query
+    int finUri;
+    int inicioVersion;
+    int finLineaPeticion;
+
+    // Encabezados: nombre en [inicioNombre, finNombre) y valor sin espacios alrededor en [inicioValor, finValor)
+    int cantidad;
+    final int[] inicioNombre = new int[MAXIMO_ENCABEZADOS];
+    final int[] finNombre = new int[MAXIMO_ENCABEZADOS];
+    final int[] inicioValor = new int[MAXIMO_ENCABEZADOS];
+    final int[] finValor = new int[MAXIMO_ENCABEZADOS];
+
+    // Cuerpo de la petición (solo en el proxy, que lo reenvía junto con los encabezados; ver delimitarCuerpo)
+    int longitudCuerpo;
+    byte[] cuerpo; // null si no tiene cuerpo o todavía no se leyó
+
+    // Buffer del heap tomado de PoolBuffers, para leer de un InputStream
+    PeticionHTTP() {
+        this(ByteBuffer.wrap(PoolBuffers.obtener()));
+    }
+
+    // Buffer dado (ej. uno directo de PoolBuffers para un SocketChannel)
+    PeticionHTTP(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    // Revisa los bytes nuevos del buffer y continúa el análisis donde se había quedado
+    int analizar() {
+        if (fin != -1) return COMPLETA;
+        int limite = buffer.position();
+        while (revisado < limite) {
+            if (revisado >= MAXIMO_BYTES) return DEMASIADO_GRANDE;
+            if (buffer.get(revisado++) != '\n') continue;
+            int finContenido = revisado - 1;
+            if (finContenido > inicioLinea && buffer.get(finContenido - 1) == '\r') finContenido--;
+            int resultado = linea(inicioLinea, finContenido);
+            inicioLinea = revisado;
+            if (resultado != INCOMPLETA) return resultado;
+        }
+        return INCOMPLETA;
+    }
+
+    // Indexa una línea completa (sin su CRLF)
+    int linea(int desde, int hasta) {
+        if (inicioPeticion == -1) {
+            if (desde == hasta) return INCOMPLETA; // Líneas vacías sobrantes antes de la petición
+            int espacio = buscarByte(desde, hasta, ' ');
+            int segundoEspacio = espacio == -1 ? -1 : buscarByte(espacio + 1, hasta, ' ');
+            if (espacio <= desde || segundoEspacio <= espacio + 1 || segundoEspacio + 1 >= hasta) return MALFORMADA;
+            inicioPeticion = desde;
+            finMetodo = espacio;
+            inicioUri = espacio + 1;
+            finUri = segundoEspacio;
+            int interrogacion = buscarByte(inicioUri, finUri, '?');
+            inicioQuery = interrogacion == -1 ? -1 : interrogacion + 1;
+            inicioVersion = segundoEspacio + 1;
+            finLineaPeticion = hasta;
+            return INCOMPLETA;
+        }
+        if (desde == hasta) {
+            fin = revisado;
+            return COMPLETA;
+        }
+        int dosPuntos = buscarByte(desde, hasta, ':');
+        if (dosPuntos <= desde) return MALFORMADA;
+        if (cantidad == MAXIMO_ENCABEZADOS) return DEMASIADO_GRANDE;
+        int inicio = dosPuntos + 1;
+        int termino = hasta;
+        while (inicio < termino && esEspacio(buffer.get(inicio))) inicio++;
+        while (termino > inicio && esEspacio(buffer.get(termino - 1))) termino--;
+        inicioNombre[cantidad] = desde;
+        finNombre[cantidad] = dosPuntos;
+        inicioValor[cantidad] = inicio;
+        finValor[cantidad] = termino;
+        cantidad++;
+        return INCOMPLETA;
+    }
+
+    // Lee del flujo del cliente hasta completar una petición (para los servidores con un hilo por conexión)
+    int leer(InputStream entrada) throws IOException {
+        while (true) {
+            int resultado = analizar();
+            if (resultado != INCOMPLETA) return resultado;
+            if (!buffer.hasRemaining()) return DEMASIADO_GRANDE;
+            int leidos = entrada.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            if (leidos == -1) return CERRADA;
+            buffer.position(buffer.position() + leidos);
+        }
+    }
+
+    // Descarta la petición atendida y conserva los bytes que llegaron después de ella
+    void siguiente() {
+        if (fin == -1) {
+            buffer.clear();
+        } else {
+            buffer.limit(buffer.position());
+            buffer.position(fin);
+            buffer.compact(); // Mueve los sobrantes al principio y deja el buffer listo para escribir
+        }
+        revisado = inicioLinea = cantidad = longitudCuerpo = 0;
+        fin = inicioPeticion = inicioQuery = -1;
+        cuerpo = null;
+    }
+
+    // Regresa el buffer a PoolBuffers; la petición ya no debe usarse después
+    void liberar() {
+        if (buffer.isDirect()) {
+            PoolBuffers.devolverDirecto(buffer);
+        } else {
+            PoolBuffers.devolver(buffer.array());
+        }
+    }
+
+    // Respuesta con la que se rechaza una petición que no se puede atender (431, 411, 413 o 400)
+    static byte[] rechazo(int resultado) {
+        if (resultado == DEMASIADO_GRANDE) return RESPUESTA_431;
+        if (resultado == SIN_LONGITUD) return RESPUESTA_411;
+        if (resultado == CUERPO_GRANDE) return RESPUESTA_413;
+        return RESPUESTA_400;
+    }
+
+    // Responde al cliente que la petición no se puede atender según el resultado del análisis
+    static void rechazar(int resultado, OutputStream salida) throws IOException {
+        salida.write(rechazo(resultado));
+        salida.flush();
+    }
+
+    // Delimitado del cuerpo de una petición completa, para el proxy: COMPLETA (con longitudCuerpo asignada), o el
+    // resultado con el que hay que rechazarla. Un cuerpo chunked se rechaza con 411 en lugar de reenviarlo sin
+    // delimitar, lo que desincronizaría la conexión persistente con el servidor.
+    int delimitarCuerpo() {
+        longitudCuerpo = 0;
+        if (buscar("Transfer-Encoding") != -1) return SIN_LONGITUD;
+        long longitud = -1;
+        for (int i = 0; i < cantidad; i++) {
+            if (!iguales(inicioNombre[i], finNombre[i], "Content-Length", true)) continue;
+            long valor = decimal(inicioValor[i], finValor[i]);
+            if (valor < 0 || (longitud != -1 && valor != longitud)) return MALFORMADA;
+            longitud = valor;
+        }
+        if (longitud > MAXIMO_CUERPO) return CUERPO_GRANDE;
+        longitudCuerpo = (int) Math.max(0, longitud);
+        return COMPLETA;
+    }
+
+    // Número decimal sin signo en [desde, hasta), o -1 si está vacío, tiene otros caracteres o es demasiado largo
+    long decimal(int desde, int hasta) {
+        if (desde == hasta || hasta - desde > 18) return -1;
+        long valor = 0;
+        for (int i = desde; i < hasta; i++) {
+            int digito = buffer.get(i) - '0';
+            if (digito < 0 || digito > 9) return -1;
+            valor = valor * 10 + digito;
+        }
+        return valor;
+    }
+
+    // El cliente espera un 100 Continue antes de enviar el cuerpo
+    boolean esperaContinuar() {
+        int expect = buscar("Expect");
+        return expect != -1 && valorEsSinMayusculas(expect, "100-continue");
+    }
+
+    // Crea el arreglo del cuerpo y copia la parte que llegó junto con los encabezados; devuelve cuántos bytes son
+    int iniciarCuerpo() {
+        cuerpo = new byte[longitudCuerpo];
+        int recibidos = Math.min(buffer.position() - fin, longitudCuerpo);
+        for (int i = 0; i < recibidos; i++) cuerpo[i] = buffer.get(fin + i);
+        return recibidos;
+    }
+
+    // Lee el cuerpo completo del cliente (servidores con un hilo por conexión); si el cliente espera permiso
+    // se le envía 100 Continue por su salida antes de leer
+    void leerCuerpo(InputStream entrada, OutputStream salida) throws IOException {
+        if (longitudCuerpo == 0) return;
+        int recibidos = iniciarCuerpo();
+        if (recibidos < longitudCuerpo && esperaContinuar()) {
+            salida.write(CONTINUAR);
+            salida.flush();
+        }
+        while (recibidos < longitudCuerpo) {
+            int leidos = entrada.read(cuerpo, recibidos, longitudCuerpo - recibidos);
+            if (leidos == -1) throw new IOException("El cliente cerró la conexión antes de enviar el cuerpo completo");
+            recibidos += leidos;
+        }
+    }
+
+    // Descarta el cuerpo (ServidorHTTP no lo usa): la parte que llegó con los encabezados queda fuera de lo que
+    // conserva siguiente() y el resto se lee del flujo, para que sus bytes nunca se analicen como otra petición
+    // de la misma conexión. Si el cliente espera permiso se le envía 100 Continue como en leerCuerpo.
+    void omitirCuerpo(InputStream entrada, OutputStream salida) throws IOException {
+        int enBuffer = Math.min(buffer.position() - fin, longitudCuerpo);
+        fin += enBuffer;
+        long faltan = longitudCuerpo - enBuffer;
+        if (faltan > 0 && esperaContinuar()) {
+            salida.write(CONTINUAR);
+            salida.flush();
+        }
+        while (faltan > 0) {
+            long omitidos = entrada.skip(faltan);
+            if (omitidos <= 0) {
+                if (entrada.read() == -1) throw new IOException("El cliente cerró la conexión antes de enviar el cuerpo completo");
+                omitidos = 1;
+            }
+            faltan -= omitidos;
+        }
+    }
+
+    boolean metodoEs(String metodo) {
+        return iguales(inicioPeticion, finMetodo, metodo, false);
+    }
+
+    boolean esGet() {
+        return metodoEs("GET");
+    }
+
+    boolean esHead() {
+        return metodoEs("HEAD");
+    }
+
+    // Compara la ruta de la URI, sin la query
+    boolean rutaEs(String ruta) {
+        return iguales(inicioUri, inicioQuery == -1 ? finUri : inicioQuery - 1, ruta, false);
+    }
+
+    boolean tieneQuery() {
+        return inicioQuery != -1;
+    }
+
+    boolean http10() {
+        return iguales(inicioVersion, finLineaPeticion, "HTTP/1.0", false);
+    }
+
+    // Índice del encabezado con ese nombre (sin distinguir mayúsculas), o -1
+    int buscar(String nombre) {
+        for (int i = 0; i < cantidad; i++) {
+            if (iguales(inicioNombre[i], finNombre[i], nombre, true)) return i;
+        }
+        return -1;
+    }
+
+    boolean valorEs(int indice, String valor) {
+        return iguales(inicioValor[indice], finValor[indice], valor, false);
+    }
+
+    boolean valorEsSinMayusculas(int indice, String valor) {
+        return iguales(inicioValor[indice], finValor[indice], valor, true);
+    }
+
+    // El valor del encabezado contiene el texto dado (sin distinguir mayúsculas), ej. "no-cache" en Cache-Control
+    boolean valorContiene(int indice, String texto) {
+        for (int i = inicioValor[indice]; i + texto.length() <= finValor[indice]; i++) {
+            if (iguales(i, i + texto.length(), texto, true)) return true;
+        }
+        return false;
+    }
+
+    // Valor entero de un parámetro de la query (ej. a en ?a=1&b=2), interpretado sin copiar la URI
+    int parametroEntero(String nombre) {
+        if (inicioQuery != -1) {
+            int desde = inicioQuery;
+            while (desde < finUri) {
+                int hasta = buscarByte(desde, finUri, '&');
+                if (hasta == -1) hasta = finUri;
+                int igual = buscarByte(desde, hasta, '=');
+                if (igual != -1 && iguales(desde, igual, nombre, false)) {
+                    return entero(igual + 1, hasta, nombre);
+                }
+                desde = hasta + 1;
+            }
+        }
+        throw new IllegalArgumentException("Se espera la variable: " + nombre);
+    }
+
+    int entero(int desde, int hasta, String nombre) {
+        boolean negativo = desde < hasta && buffer.get(desde) == '-';
+        int i = negativo ? desde + 1 : desde;
+        if (i == hasta) throw new NumberFormatException("Valor inválido para la variable: " + nombre);
+        long valor = 0;
+        for (; i < hasta; i++) {
+            int digito = buffer.get(i) - '0';
+            if (digito < 0 || digito > 9) throw new NumberFormatException("Valor inválido para la variable: " + nombre);
+            valor = valor * 10 + digito;
+            if (valor > Integer.MAX_VALUE + 1L) throw new NumberFormatException("Valor fuera de rango para la variable: " + nombre);
+        }
+        if (negativo) valor = -valor;
+        if (valor > Integer.MAX_VALUE) throw new NumberFormatException("Valor fuera de rango para la variable: " + nombre);
+        return (int) valor;
+    }
+
+    // Copia la petición (línea, encabezados y cuerpo si ya se leyó) a un arreglo nuevo omitiendo los encabezados
+    // de salto a salto y los indicados, y agregando uno al final si nombreExtra no es null. Es la única copia
+    // que hace el proxy de la petición.
+    byte[] copia(String[] omitir, String nombreExtra, String valorExtra) {
+        int longitud = finLineaPeticion - inicioPeticion + 2 + 2 + (cuerpo == null ? 0 : cuerpo.length);
+        for (int i = 0; i < cantidad; i++) {
+            if (!omitido(i, omitir)) longitud += finValor[i] - inicioNombre[i] + 2;
+        }
+        if (nombreExtra != null) longitud += nombreExtra.length() + 2 + valorExtra.length() + 2;
+
+        byte[] copia = new byte[longitud];
+        int posicion = copiar(inicioPeticion, finLineaPeticion, copia, 0);
+        for (int i = 0; i < cantidad; i++) {
+            if (!omitido(i, omitir)) posicion = copiar(inicioNombre[i], finValor[i], copia, posicion);
+        }
+        if (nombreExtra != null) {
+            posicion = texto(nombreExtra, copia, posicion);
+            posicion = texto(": ", copia, posicion);
+            posicion = texto(valorExtra, copia, posicion);
+            copia[posicion++] = '\r';
+            copia[posicion++] = '\n';
+        }
+        copia[posicion++] = '\r';
+        copia[posicion++] = '\n';
+        if (cuerpo != null) System.arraycopy(cuerpo, 0, copia, posicion, cuerpo.length);
+        return copia;
+    }
+
+    boolean omitido(int indice, String[] omitir) {
+        for (String nombre : omitir) {
+            if (iguales(inicioNombre[indice], finNombre[indice], nombre, true)) return true;
+        }
+        return saltoASalto(indice);
+    }
+
+    // Encabezado que solo aplica a la conexión con el cliente
+    boolean saltoASalto(int indice) {
+        for (String nombre : SALTO_A_SALTO) {
+            if (iguales(inicioNombre[indice], finNombre[indice], nombre, true)) return true;
+        }
+        if (finNombre[indice] - inicioNombre[indice] > 6 && iguales(inicioNombre[indice], inicioNombre[indice] + 6, "Proxy-", true)) {
+            return true;
+        }
+        // Nombrado en algún Connection (ej. "Connection: close, X-Propio")
+        for (int i = 0; i < cantidad; i++) {
+            if (iguales(inicioNombre[i], finNombre[i], "Connection", true) && listado(i, inicioNombre[indice], finNombre[indice])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // El valor del encabezado, una lista separada por comas, contiene el texto en [desde, hasta) del buffer
+    boolean listado(int indice, int desde, int hasta) {
+        int inicio = inicioValor[indice];
+        while (inicio < finValor[indice]) {
+            int coma = buscarByte(inicio, finValor[indice], ',');
+            int termino = coma == -1 ? finValor[indice] : coma;
+            int a = inicio;
+            int b = termino;
+            while (a < b && esEspacio(buffer.get(a))) a++;
+            while (b > a && esEspacio(buffer.get(b - 1))) b--;
+            if (b - a == hasta - desde) {
+                int i = 0;
+                while (i < b - a && minuscula(buffer.get(a + i)) == minuscula(buffer.get(desde + i))) i++;
+                if (i == b - a) return true;
+            }
+            inicio = termino + 1;
+        }
+        return false;
+    }
+
+    // Copia [desde, hasta) del buffer seguido de CRLF; devuelve la posición siguiente en el destino
+    int copiar(int desde, int hasta, byte[] destino, int posicion) {
+        for (int i = desde; i < hasta; i++) destino[posicion++] = buffer.get(i);
+        destino[posicion++] = '\r';
+        destino[posicion++] = '\n';
+        return posicion;
+    }
+
+    static int texto(String texto, byte[] destino, int posicion) {
+        for (int i = 0; i < texto.length(); i++) destino[posicion++] = (byte) texto.charAt(i);
+        return posicion;
+    }
+
+    // Conversiones a String, solo para el registro en consola y la clave de la caché
+
+    String lineaPeticion() {
+        return cadena(inicioPeticion, finLineaPeticion);
+    }
+
+    // Método y URI (ej. "GET /suma?a=1"), sin la versión
+    String metodoYUri() {
+        return cadena(inicioPeticion, finUri);
+    }
+
+    // Ruta sin la query (ej. "/css/estilo.css"), para buscar archivos estáticos
+    String ruta() {
+        return cadena(inicioUri, inicioQuery == -1 ? finUri : inicioQuery - 1);
+    }
+
+    String encabezado(int indice) {
+        return cadena(inicioNombre[indice], finValor[indice]);
+    }
+
+    String valor(int indice) {
+        return cadena(inicioValor[indice], finValor[indice]);
+    }
+
+    String cadena(int desde, int hasta) {
+        byte[] bytes = new byte[hasta - desde];
+        for (int i = 0; i < bytes.length; i++) bytes[i] = buffer.get(desde + i);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    // Compara [desde, hasta) del buffer con un texto ASCII, opcionalmente sin distinguir mayúsculas
+    boolean iguales(int desde, int hasta, String texto, boolean sinMayusculas) {
+        if (hasta - desde != texto.length()) return false;
+        for (int i = 0; i < texto.length(); i++) {
+            int a = buffer.get(desde + i);
+            int b = texto.charAt(i);
+            if (a == b) continue;
+            if (!sinMayusculas || minuscula(a) != minuscula(b)) return false;
+        }
+        return true;
+    }
+
+    int buscarByte(int desde, int hasta, char c) {
+        for (int i = desde; i < hasta; i++) {
+            if (buffer.get(i) == c) return i;
+        }
+        return -1;
+    }
+
+    static int minuscula(int c) {
+        return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+    }
+
+    static boolean esEspacio(byte b) {
+        return b == ' ' || b == '\t';
+    }
+}
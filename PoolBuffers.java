@@ -0,0 +1,61 @@
+// PoolBuffers.java
+
+import java.nio.ByteBuffer;                        // Buffers directos (fuera del heap) para el motor NIO
+import java.util.concurrent.ConcurrentLinkedQueue; // Cola concurrente sin bloqueos para guardar los buffers libres
+import java.util.concurrent.atomic.AtomicInteger;  // Contador atómico de buffers guardados en el pool
+
+// Pool de buffers reutilizables: evita reservar un arreglo nuevo en el heap por cada respuesta reenviada
+class PoolBuffers {
+    // Tamaño de cada buffer y cantidad máxima de buffers libres que se conservan
+    static final int TAMANO = Configuracion.entero("buffer.tamano", 16384);
+    static final int MAXIMO_LIBRES = Configuracion.entero("buffer.maximo", 256);
+
+    static final ConcurrentLinkedQueue<byte[]> libres = new ConcurrentLinkedQueue<>();
+    static final AtomicInteger cantidadLibres = new AtomicInteger();
+
+    // Buffers directos para los canales no bloqueantes de MotorNIO: el sistema operativo lee y escribe
+    // sobre ellos sin copia intermedia al heap
+    static final ConcurrentLinkedQueue<ByteBuffer> libresDirectos = new ConcurrentLinkedQueue<>();
+    static final AtomicInteger cantidadLibresDirectos = new AtomicInteger();
+
+    // Toma un buffer del pool o crea uno nuevo si no hay disponibles
+    static byte[] obtener() {
+        byte[] buffer = libres.poll();
+        if (buffer == null) {
+            return new byte[TAMANO];
+        }
+        cantidadLibres.decrementAndGet();
+        return buffer;
+    }
+
+    // Regresa un buffer al pool; si el pool ya está lleno se deja para el recolector de basura
+    static void devolver(byte[] buffer) {
+        if (buffer == null || buffer.length != TAMANO) return;
+        if (cantidadLibres.incrementAndGet() > MAXIMO_LIBRES) {
+            cantidadLibres.decrementAndGet();
+            return;
+        }
+        libres.offer(buffer);
+    }
+
+    // Toma un buffer directo del pool (limpio, listo para escribir en él) o reserva uno nuevo
+    static ByteBuffer obtenerDirecto() {
+        ByteBuffer buffer = libresDirectos.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(TAMANO);
+        }
+        cantidadLibresDirectos.decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    // Regresa un buffer directo al pool; los buffers directos son costosos de reservar, por eso se conservan
+    static void devolverDirecto(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect() || buffer.capacity() != TAMANO) return;
+        if (cantidadLibresDirectos.incrementAndGet() > MAXIMO_LIBRES) {
+            cantidadLibresDirectos.decrementAndGet();
+            return;
+        }
+        libresDirectos.offer(buffer);
+    }
+}
@@ -0,0 +1,222 @@
+// PoolConexiones.java
+
+import java.io.IOException;                              // Errores al conectar o al usar una conexión
+import java.io.OutputStream;                             // Flujo hacia el servidor y hacia el cliente
+import java.net.InetSocketAddress;                       // Dirección del servidor para conectar con tiempo límite
+import java.net.Socket;                                  // Conexión persistente con un servidor
+import java.net.SocketTimeoutException;                  // Indica que la conexión sigue abierta y sin datos pendientes
+import java.util.concurrent.ConcurrentHashMap;           // Destinos indexados por "servidor:puerto"
+import java.util.concurrent.ConcurrentLinkedDeque;       // Conexiones libres de cada destino (la más reciente al frente)
+import java.util.concurrent.Semaphore;                   // Límite de conexiones simultáneas por servidor
+import java.util.concurrent.TimeUnit;                    // Unidades para la espera de un permiso
+import java.util.concurrent.atomic.AtomicInteger;        // Cantidad de conexiones libres de cada destino
+
+// Pool de conexiones persistentes (HTTP/1.1 keep-alive) hacia los servidores.
+// Evita el saludo TCP y el TIME_WAIT de abrir un socket nuevo por cada petición.
+class PoolConexiones {
+    // Parámetros configurables con -Dnombre=valor
+    static final boolean HABILITADO = Configuracion.booleano("pool.habilitado", true);
+    static final int MAXIMO_POR_SERVIDOR = Configuracion.entero("pool.maximo", 64);       // Conexiones en uso por servidor
+    static final int MAXIMO_LIBRES = Configuracion.entero("pool.maximo.libres", MAXIMO_POR_SERVIDOR); // Libres por servidor; las de más se cierran
+    static final long INACTIVIDAD_MS = Configuracion.largo("pool.inactividad.ms", 4000);  // Debe ser menor al keep-alive de ServidorHTTP
+    static final long VALIDAR_MS = Configuracion.largo("pool.validar.ms", 1000);          // Las conexiones inactivas más tiempo se revisan al tomarlas
+    static final int ESPERA_MS = Configuracion.entero("pool.espera.ms", 2000);            // Espera máxima por una conexión cuando se llegó al límite
+    static final int CONEXION_MS = Configuracion.entero("pool.conexion.ms", 3000);        // Tiempo límite para establecer la conexión
+
+    // Conexión con un servidor junto con su lector, que conserva el buffer entre respuestas
+    static class Conexion {
+        final Destino destino;
+        final Socket socket;
+        final OutputStream salida;
+        final RelayHTTP.Lector lector;
+        long ultimoUso;      // Momento (System.nanoTime) en que se devolvió al pool
+        boolean reutilizada; // true si ya atendió otra petición antes
+
+        Conexion(Destino destino, Socket socket) throws IOException {
+            this.destino = destino;
+            this.socket = socket;
+            this.salida = socket.getOutputStream();
+            this.lector = new RelayHTTP.Lector(socket.getInputStream());
+        }
+
+        void cerrar() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // La conexión ya no se usará
+            }
+            lector.liberar();
+        }
+    }
+
+    // Servidor de destino con sus conexiones libres y el límite de conexiones
+    static class Destino {
+        final String servidor;
+        final int puerto;
+        final Semaphore permisos = new Semaphore(MAXIMO_POR_SERVIDOR);
+        final ConcurrentLinkedDeque<Conexion> libres = new ConcurrentLinkedDeque<>();
+        final AtomicInteger cantidadLibres = new AtomicInteger(); // Tamaño de libres (su size() recorre la lista)
+        final Metricas.Histograma conexion; // Tiempo para establecer cada conexión nueva
+
+        Destino(String servidor, int puerto) {
+            this.servidor = servidor;
+            this.puerto = puerto;
+            this.conexion = Metricas.histograma("proxy_conexion_servidor_segundos", "Tiempo para conectar con el servidor",
+                    Metricas.servidor(servidor, puerto));
+        }
+    }
+
+    final ConcurrentHashMap<String, Destino> destinos = new ConcurrentHashMap<>();
+    final int lecturaMs; // Tiempo límite de lectura de las conexiones de este pool (0 = sin límite)
+
+    PoolConexiones(int lecturaMs) {
+        this.lecturaMs = lecturaMs;
+        // Hilo daemon que cierra las conexiones que llevan demasiado tiempo sin usarse
+        Thread limpieza = new Thread(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(Math.max(INACTIVIDAD_MS / 2, 100));
+                } catch (InterruptedException e) {
+                    return;
+                }
+                limpiar();
+            }
+        }, "pool-limpieza");
+        limpieza.setDaemon(true);
+        limpieza.start();
+    }
+
+    // Tiempo límite en ms acotado por lo que falta para el límite (System.nanoTime; 0 = sin límite).
+    // Un tiempo de 0 es sin límite, como en setSoTimeout. Si el límite ya pasó lanza SocketTimeoutException.
+    static int acotar(int ms, long limite) throws SocketTimeoutException {
+        if (limite == 0) return ms;
+        long restante = (limite - System.nanoTime()) / 1_000_000;
+        if (restante <= 0) throw new SocketTimeoutException("Se venció el plazo total de la petición");
+        return (int) (ms == 0 ? Math.min(restante, Integer.MAX_VALUE) : Math.min(ms, restante));
+    }
+
+    // Toma una conexión libre y sana hacia el servidor, o abre una nueva; la espera por un permiso y la
+    // conexión quedan acotadas por el límite
+    Conexion obtener(String servidor, int puerto, boolean nueva, long limite) throws IOException {
+        Destino destino = destinos.computeIfAbsent(servidor + ":" + puerto, clave -> new Destino(servidor, puerto));
+        try {
+            if (!destino.permisos.tryAcquire(acotar(ESPERA_MS, limite), TimeUnit.MILLISECONDS)) {
+                throw new IOException("Sin conexiones disponibles hacia " + servidor + ":" + puerto);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrumpido esperando una conexión hacia " + servidor + ":" + puerto);
+        }
+        try {
+            Conexion conexion;
+            while (!nueva && (conexion = destino.libres.pollFirst()) != null) {
+                destino.cantidadLibres.decrementAndGet();
+                if (sana(conexion)) {
+                    conexion.reutilizada = true;
+                    return conexion;
+                }
+                conexion.cerrar();
+            }
+            Socket socket = new Socket();
+            long inicio = System.nanoTime();
+            socket.connect(new InetSocketAddress(servidor, puerto), acotar(CONEXION_MS, limite));
+            destino.conexion.registrarDesde(inicio);
+            socket.setTcpNoDelay(true); // Las peticiones son pequeñas: se envían sin esperar a llenar un segmento
+            socket.setSoTimeout(lecturaMs);
+            return new Conexion(destino, socket);
+        } catch (IOException | RuntimeException e) {
+            destino.permisos.release();
+            throw e;
+        }
+    }
+
+    // Devuelve la conexión al pool si la respuesta quedó bien delimitada y no sobran libres; en otro caso se cierra
+    void liberar(Conexion conexion, boolean reutilizable) {
+        Destino destino = conexion.destino;
+        boolean guardar = HABILITADO && reutilizable && !conexion.socket.isClosed() && conexion.lector.inicio == conexion.lector.fin;
+        if (guardar && destino.cantidadLibres.incrementAndGet() > MAXIMO_LIBRES) {
+            destino.cantidadLibres.decrementAndGet();
+            guardar = false;
+        }
+        if (guardar) {
+            conexion.ultimoUso = System.nanoTime();
+            destino.libres.offerFirst(conexion);
+        } else {
+            conexion.cerrar();
+        }
+        destino.permisos.release();
+    }
+
+    boolean intercambiar(String servidor, int puerto, byte[] peticion, OutputStream destino,
+                         boolean sinCuerpo, boolean idempotente) throws IOException {
+        return intercambiar(servidor, puerto, peticion, destino, sinCuerpo, idempotente, 0);
+    }
+
+    // Envía la petición por una conexión del pool y reenvía la respuesta al destino.
+    // Si una conexión reutilizada resulta cerrada por el servidor antes de responder, una petición
+    // idempotente se reintenta una sola vez con una conexión nueva. Con un límite (System.nanoTime), la
+    // conexión y la respuesta completa no pueden pasarlo. Un destino abortable (intento de una cobertura)
+    // conoce la conexión mientras la usa, para que el otro intento pueda cerrarla.
+    boolean intercambiar(String servidor, int puerto, byte[] peticion, OutputStream destino,
+                         boolean sinCuerpo, boolean idempotente, long limite) throws IOException {
+        Balanceador.SalidaVigilada abortable = destino instanceof Balanceador.SalidaVigilada
+                && ((Balanceador.SalidaVigilada) destino).abortable ? (Balanceador.SalidaVigilada) destino : null;
+        for (int intento = 0; ; intento++) {
+            Conexion conexion = obtener(servidor, puerto, intento > 0, limite);
+            long leidosAntes = conexion.lector.leidos;
+            boolean reutilizable = false;
+            try {
+                if (abortable != null) abortable.conexion(conexion.socket);
+                conexion.salida.write(peticion);
+                conexion.salida.flush();
+                reutilizable = RelayHTTP.responder(conexion.lector, conexion.socket, lecturaMs, limite, destino, sinCuerpo);
+                return reutilizable;
+            } catch (IOException e) {
+                boolean sinRespuesta = conexion.lector.leidos == leidosAntes;
+                if (!(conexion.reutilizada && sinRespuesta && idempotente && intento == 0)) throw e;
+            } finally {
+                if (abortable != null) abortable.conexion(null);
+                liberar(conexion, reutilizable);
+            }
+        }
+    }
+
+    // Revisa una conexión libre antes de reutilizarla
+    boolean sana(Conexion conexion) {
+        if (conexion.socket.isClosed() || conexion.socket.isInputShutdown()) return false;
+        long inactiva = (System.nanoTime() - conexion.ultimoUso) / 1_000_000;
+        if (inactiva > INACTIVIDAD_MS) return false;
+        if (inactiva <= VALIDAR_MS) return true;
+        // Lectura con tiempo límite mínimo: si el servidor ya cerró devuelve EOF; si envió algo la conexión está desincronizada
+        try {
+            conexion.socket.setSoTimeout(1);
+            conexion.lector.llenar(); // Llegó EOF o datos inesperados: en ambos casos no se reutiliza
+            return false;
+        } catch (SocketTimeoutException e) {
+            return true; // Sin datos ni cierre: la conexión sigue abierta
+        } catch (IOException e) {
+            return false;
+        } finally {
+            try {
+                conexion.socket.setSoTimeout(lecturaMs);
+            } catch (IOException e) {
+                // Si falla, la siguiente operación sobre el socket también fallará
+            }
+        }
+    }
+
+    // Cierra las conexiones libres que superaron el tiempo de inactividad (las más viejas quedan al final)
+    void limpiar() {
+        long ahora = System.nanoTime();
+        for (Destino destino : destinos.values()) {
+            Conexion conexion;
+            while ((conexion = destino.libres.peekLast()) != null
+                    && (ahora - conexion.ultimoUso) / 1_000_000 > INACTIVIDAD_MS) {
+                if (destino.libres.removeLastOccurrence(conexion)) {
+                    destino.cantidadLibres.decrementAndGet();
+                    conexion.cerrar();
+                }
+            }
+        }
+    }
+}
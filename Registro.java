@@ -0,0 +1,85 @@
+// Registro.java
+
+import java.io.PrintStream;                               // Salida estándar donde termina cada línea
+import java.util.concurrent.ThreadLocalRandom;            // Muestreo sin contención entre hilos
+import java.util.concurrent.atomic.AtomicLong;            // Posiciones de escritura y lectura del anillo
+import java.util.concurrent.atomic.AtomicReferenceArray;  // Anillo de líneas pendientes de imprimir
+import java.util.concurrent.atomic.LongAdder;             // Líneas descartadas por anillo lleno
+import java.util.concurrent.locks.LockSupport;            // Pausa del hilo escritor cuando no hay líneas
+
+// Registro asíncrono de las peticiones atendidas. Los hilos que atienden solo dejan la línea en un anillo
+// de tamaño fijo (sin bloqueos); un hilo daemon las imprime por lotes en la salida estándar. Así la consola,
+// que es sincronizada, deja de frenar a los hilos bajo carga. Parámetros con -Dnombre=valor:
+//   registro.activo     false apaga el registro (también en caliente desde el puerto de métricas)
+//   registro.muestreo   se registra en promedio 1 de cada N peticiones
+//   registro.capacidad  líneas en el anillo; si se llena, las nuevas se descartan y se cuentan
+class Registro {
+    static volatile boolean activo = Configuracion.booleano("registro.activo", true);
+    static final int MUESTREO = Math.max(1, Configuracion.entero("registro.muestreo", 1));
+    static final int CAPACIDAD = Integer.highestOneBit(Math.max(2, Configuracion.entero("registro.capacidad", 8192) - 1)) << 1;
+    static final int MASCARA = CAPACIDAD - 1;
+    static final long PAUSA_NANOS = 1_000_000; // Espera del escritor cuando el anillo está vacío
+
+    static final AtomicReferenceArray<String> anillo = new AtomicReferenceArray<>(CAPACIDAD);
+    static final AtomicLong escritura = new AtomicLong(); // Siguiente posición que reservará un productor
+    static final AtomicLong lectura = new AtomicLong();   // Siguiente posición que imprimirá el escritor
+    static final LongAdder descartadas = Metricas.contador("registro_descartadas_total", "Líneas de registro descartadas por anillo lleno");
+
+    static {
+        Thread escritor = new Thread(Registro::escribirLotes, "registro");
+        escritor.setDaemon(true);
+        escritor.start();
+        // Al terminar la JVM se da un momento al escritor para vaciar el anillo
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            long limite = System.nanoTime() + 500_000_000L;
+            while (lectura.get() < escritura.get() && System.nanoTime() < limite) {
+                LockSupport.parkNanos(PAUSA_NANOS);
+            }
+        }, "registro-cierre"));
+    }
+
+    // Decide si esta petición se registra: permite evitar armar la línea cuando no se va a imprimir
+    static boolean muestrear() {
+        return activo && (MUESTREO == 1 || ThreadLocalRandom.current().nextInt(MUESTREO) == 0);
+    }
+
+    // Deja la línea en el anillo; si está lleno se descarta en lugar de esperar
+    static void escribir(String linea) {
+        long posicion;
+        do {
+            posicion = escritura.get();
+            if (posicion - lectura.get() >= CAPACIDAD) {
+                descartadas.increment();
+                return;
+            }
+        } while (!escritura.compareAndSet(posicion, posicion + 1));
+        anillo.set((int) (posicion & MASCARA), linea);
+    }
+
+    // Hilo escritor: imprime todas las líneas disponibles en un solo bloque y libera sus lugares
+    static void escribirLotes() {
+        StringBuilder lote = new StringBuilder(16384);
+        while (true) {
+            long desde = lectura.get();
+            long hasta = escritura.get();
+            if (desde == hasta) {
+                LockSupport.parkNanos(PAUSA_NANOS);
+                continue;
+            }
+            for (long posicion = desde; posicion < hasta; posicion++) {
+                int indice = (int) (posicion & MASCARA);
+                String linea;
+                while ((linea = anillo.get(indice)) == null) {
+                    Thread.onSpinWait(); // El productor ya reservó el lugar pero aún no guarda la línea
+                }
+                anillo.set(indice, null);
+                lote.append(linea).append(System.lineSeparator());
+            }
+            lectura.set(hasta);
+            PrintStream salida = System.out;
+            salida.print(lote);
+            salida.flush();
+            lote.setLength(0);
+        }
+    }
+}
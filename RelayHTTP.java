@@ -0,0 +1,325 @@
+// RelayHTTP.java
+
+import java.io.ByteArrayOutputStream;        // Se usa solo en el modo "buffer" para guardar la respuesta completa
+import java.io.IOException;                  // Errores de lectura/escritura en los sockets
+import java.io.InputStream;                  // Flujo de bytes que llega desde el servidor
+import java.io.OutputStream;                 // Flujo de bytes hacia el cliente
+import java.net.Socket;                      // Socket del lector, para acotar sus lecturas por el plazo total
+import java.nio.charset.StandardCharsets;    // Los encabezados HTTP se interpretan como ISO-8859-1
+
+// Reenvío de respuestas HTTP/1.1 desde un servidor hacia el cliente.
+// En modo streaming los bytes se envían conforme llegan, respetando el delimitado por
+// Content-Length o Transfer-Encoding: chunked, sin copiar la respuesta completa al heap.
+class RelayHTTP {
+    // Modo de reenvío: "streaming" (por defecto) o "buffer" (comportamiento original: respuesta completa en memoria)
+    static final boolean STREAMING = !Configuracion.texto("proxy.relay", "streaming").equals("buffer");
+
+    static final byte[] CRLF = {'\r', '\n'};
+    static final byte[] FIN_ENCABEZADOS = {'\r', '\n', '\r', '\n'};
+
+    // Lector con buffer (tomado de PoolBuffers) sobre el flujo de un servidor.
+    // Conserva los bytes sobrantes entre una respuesta y la siguiente de la misma conexión.
+    static class Lector {
+        final InputStream entrada;
+        byte[] buffer;
+        int inicio; // Primer byte pendiente de procesar
+        int fin;    // Posición siguiente al último byte leído
+        long leidos; // Total de bytes recibidos del servidor por este lector
+        Socket socket;  // Con un plazo, socket cuyo tiempo de lectura se acota en cada lectura (ver responder)
+        int lecturaMs;  // Tiempo de lectura normal de ese socket (0 = sin límite)
+        long limite;    // Plazo total (System.nanoTime) para que llegue la respuesta; 0 = sin plazo
+
+        Lector(InputStream entrada) {
+            this.entrada = entrada;
+            this.buffer = PoolBuffers.obtener();
+        }
+
+        // Lee más bytes del servidor; devuelve false si el servidor cerró la conexión
+        boolean llenar() throws IOException {
+            if (inicio == fin) {
+                inicio = fin = 0;
+            } else if (fin == buffer.length) {
+                if (inicio == 0) throw new IOException("Encabezados o línea demasiado largos");
+                // Recorre los bytes pendientes al principio para hacer espacio
+                System.arraycopy(buffer, inicio, buffer, 0, fin - inicio);
+                fin -= inicio;
+                inicio = 0;
+            }
+            if (limite != 0) socket.setSoTimeout(PoolConexiones.acotar(lecturaMs, limite));
+            int cantidad = entrada.read(buffer, fin, buffer.length - fin);
+            if (cantidad == -1) return false;
+            fin += cantidad;
+            leidos += cantidad;
+            return true;
+        }
+
+        // Devuelve la posición justo después de la secuencia buscada, leyendo del servidor si hace falta; -1 si hay EOF
+        int finDe(byte[] secuencia) throws IOException {
+            while (true) {
+                int posicion = indice(buffer, inicio, fin, secuencia);
+                if (posicion != -1) return posicion + secuencia.length;
+                if (!llenar()) return -1;
+            }
+        }
+
+        // Copia exactamente n bytes hacia el destino
+        void copiar(long n, OutputStream destino) throws IOException {
+            while (n > 0) {
+                if (inicio == fin && !llenar()) {
+                    throw new IOException("El servidor cerró la conexión antes de completar la respuesta");
+                }
+                int cantidad = (int) Math.min(n, fin - inicio);
+                destino.write(buffer, inicio, cantidad);
+                inicio += cantidad;
+                n -= cantidad;
+            }
+        }
+
+        // Copia todo lo que envíe el servidor hasta que cierre la conexión
+        void copiarHastaEOF(OutputStream destino) throws IOException {
+            do {
+                if (inicio < fin) {
+                    destino.write(buffer, inicio, fin - inicio);
+                    inicio = fin;
+                }
+            } while (llenar());
+        }
+
+        // Regresa el buffer al pool; el lector ya no debe usarse después
+        void liberar() {
+            PoolBuffers.devolver(buffer);
+            buffer = null;
+        }
+    }
+
+    // Posición de la secuencia dentro de datos[desde, hasta) o -1 si no aparece
+    static int indice(byte[] datos, int desde, int hasta, byte[] secuencia) {
+        int limite = hasta - secuencia.length;
+        for (int i = desde; i <= limite; i++) {
+            int j = 0;
+            while (j < secuencia.length && datos[i + j] == secuencia[j]) j++;
+            if (j == secuencia.length) return i;
+        }
+        return -1;
+    }
+
+    // Datos de los encabezados de una respuesta que determinan dónde termina su cuerpo
+    static class Marco {
+        int estado;          // Código de estado (ej. 200, 304)
+        long longitud = -1;  // Content-Length, o -1 si no viene
+        boolean chunked;     // Transfer-Encoding: chunked
+        boolean cerrar;      // Connection: close
+
+        // Falla si Content-Length no es un número válido o viene repetido con valores distintos: la respuesta
+        // no se podría delimitar y la conexión quedaría desincronizada
+        static Marco analizar(String encabezados) throws IOException {
+            Marco marco = new Marco();
+            marco.estado = codigoEstado(encabezados);
+            for (String linea : encabezados.split("\r\n")) {
+                int dosPuntos = linea.indexOf(':');
+                if (dosPuntos <= 0) continue;
+                String nombre = linea.substring(0, dosPuntos).trim();
+                String valor = linea.substring(dosPuntos + 1).trim();
+                if (nombre.equalsIgnoreCase("Content-Length")) {
+                    long longitud = longitud(valor);
+                    if (marco.longitud != -1 && marco.longitud != longitud) {
+                        throw new IOException("Content-Length repetido con valores distintos");
+                    }
+                    marco.longitud = longitud;
+                } else if (nombre.equalsIgnoreCase("Transfer-Encoding")) {
+                    marco.chunked = valor.toLowerCase().endsWith("chunked");
+                } else if (nombre.equalsIgnoreCase("Connection")) {
+                    marco.cerrar = valor.equalsIgnoreCase("close");
+                }
+            }
+            return marco;
+        }
+
+        // Content-Length: solo dígitos decimales y sin desbordar un long (18 dígitos como máximo)
+        static long longitud(String valor) throws IOException {
+            if (valor.isEmpty() || valor.length() > 18) throw new IOException("Content-Length inválido: " + valor);
+            for (int i = 0; i < valor.length(); i++) {
+                char c = valor.charAt(i);
+                if (c < '0' || c > '9') throw new IOException("Content-Length inválido: " + valor);
+            }
+            return Long.parseLong(valor);
+        }
+
+        // Respuesta informativa (ej. 100 Continue) que precede a la respuesta final; 101 sí es final
+        boolean intermedia() {
+            return estado >= 100 && estado < 200 && estado != 101;
+        }
+
+        // Respuestas que por definición no llevan cuerpo (HEAD, 1xx, 204 y 304)
+        boolean sinCuerpo(boolean esHead) {
+            return esHead || (estado >= 100 && estado < 200) || estado == 204 || estado == 304;
+        }
+    }
+
+    // Encabezados de la respuesta tal como se envían al cliente. El proxy atiende una sola petición por conexión
+    // con el cliente, así que el Connection del servidor (que se refiere a la conexión del pool) se reemplaza por
+    // "Connection: close" y se quitan Keep-Alive y los encabezados que ese Connection nombra.
+    static byte[] encabezadosCliente(String encabezados) {
+        String[] lineas = encabezados.split("\r\n");
+        String nombrados = ","; // Nombrados en Connection, en minúsculas y entre comas
+        for (String linea : lineas) {
+            if (nombre(linea).equalsIgnoreCase("Connection")) {
+                nombrados += linea.substring(linea.indexOf(':') + 1).replace(" ", "").replace("\t", "").toLowerCase() + ",";
+            }
+        }
+        StringBuilder cliente = new StringBuilder(encabezados.length() + 19);
+        cliente.append(lineas[0]).append("\r\n");
+        for (int i = 1; i < lineas.length; i++) {
+            String nombre = nombre(lineas[i]);
+            if (nombre.equalsIgnoreCase("Connection") || nombre.equalsIgnoreCase("Keep-Alive")
+                    || nombre.equalsIgnoreCase("Proxy-Connection")
+                    || (!nombre.isEmpty() && nombrados.contains("," + nombre.toLowerCase() + ","))) {
+                continue;
+            }
+            cliente.append(lineas[i]).append("\r\n");
+        }
+        cliente.append("Connection: close\r\n\r\n");
+        return cliente.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    // Nombre del encabezado de una línea, o "" si no tiene dos puntos
+    static String nombre(String linea) {
+        int dosPuntos = linea.indexOf(':');
+        return dosPuntos <= 0 ? "" : linea.substring(0, dosPuntos).trim();
+    }
+
+    // Como responder, pero cada lectura del socket espera a lo más lo que falta para el límite (System.nanoTime;
+    // 0 = sin límite): el plazo total cubre la respuesta completa, no solo su primer byte. Si se vence a mitad
+    // del cuerpo la lectura falla y la conexión no se reutiliza. Al terminar vuelve el tiempo de lectura normal.
+    static boolean responder(Lector lector, Socket socket, int lecturaMs, long limite, OutputStream salidaCliente,
+                             boolean sinCuerpo) throws IOException {
+        if (limite == 0) return responder(lector, salidaCliente, sinCuerpo);
+        lector.socket = socket;
+        lector.lecturaMs = lecturaMs;
+        lector.limite = limite;
+        boolean reutilizable;
+        try {
+            reutilizable = responder(lector, salidaCliente, sinCuerpo);
+        } finally {
+            lector.limite = 0;
+            lector.socket = null;
+        }
+        socket.setSoTimeout(lecturaMs);
+        return reutilizable;
+    }
+
+    // Envía la respuesta del servidor al cliente según el modo configurado (streaming o buffer)
+    static boolean responder(Lector lector, OutputStream salidaCliente, boolean sinCuerpo) throws IOException {
+        boolean reutilizable;
+        if (STREAMING) {
+            reutilizable = relayRespuesta(lector, salidaCliente, sinCuerpo);
+        } else {
+            ByteArrayOutputStream respuesta = new ByteArrayOutputStream();
+            reutilizable = relayRespuesta(lector, respuesta, sinCuerpo);
+            salidaCliente.write(respuesta.toByteArray());
+        }
+        salidaCliente.flush();
+        return reutilizable;
+    }
+
+    // Reenvía una respuesta completa. Devuelve true si quedó delimitada (Content-Length o chunked)
+    // y la conexión con el servidor podría reutilizarse para otra petición.
+    static boolean relayRespuesta(Lector lector, OutputStream destino, boolean sinCuerpo) throws IOException {
+        int finEncabezados;
+        String encabezados;
+        Marco marco;
+        while (true) {
+            finEncabezados = lector.finDe(FIN_ENCABEZADOS);
+            if (finEncabezados == -1) {
+                if (lector.inicio == lector.fin) {
+                    throw new IOException("El servidor cerró la conexión sin responder");
+                }
+                // El servidor cerró sin terminar los encabezados (ej. "HTTP/1.1 404 File Not Found"): se reenvía tal cual
+                lector.copiarHastaEOF(destino);
+                return false;
+            }
+            // Se analizan antes de enviar nada: una respuesta que no se puede delimitar falla sin llegar al cliente
+            encabezados = new String(lector.buffer, lector.inicio, finEncabezados - lector.inicio, StandardCharsets.ISO_8859_1);
+            marco = Marco.analizar(encabezados);
+            if (!marco.intermedia()) break;
+            // Respuesta informativa (ej. 100 Continue): el proxy ya leyó la petición completa, así que se
+            // descarta y se sigue con la respuesta final
+            lector.inicio = finEncabezados;
+        }
+
+        if (marco.estado == 101) {
+            // Cambio de protocolo: la conexión deja de hablar HTTP y sus encabezados (Upgrade) se reenvían tal cual
+            destino.write(lector.buffer, lector.inicio, finEncabezados - lector.inicio);
+            lector.inicio = finEncabezados;
+            return false;
+        }
+        // Se envían los encabezados en una sola escritura
+        destino.write(encabezadosCliente(encabezados));
+        lector.inicio = finEncabezados;
+
+        if (marco.sinCuerpo(sinCuerpo)) {
+            return !marco.cerrar;
+        }
+        if (marco.chunked) {
+            copiarChunked(lector, destino);
+            return !marco.cerrar;
+        }
+        if (marco.longitud >= 0) {
+            lector.copiar(marco.longitud, destino);
+            return !marco.cerrar;
+        }
+        // Sin delimitado: el cuerpo termina cuando el servidor cierra la conexión
+        lector.copiarHastaEOF(destino);
+        return false;
+    }
+
+    // Copia un cuerpo con Transfer-Encoding: chunked siguiendo los tamaños de cada bloque
+    static void copiarChunked(Lector lector, OutputStream destino) throws IOException {
+        while (true) {
+            int finLinea = lector.finDe(CRLF);
+            if (finLinea == -1) throw new IOException("Respuesta chunked incompleta");
+            long tamano = tamanoChunk(lector.buffer, lector.inicio, finLinea - 2);
+            lector.copiar(finLinea - lector.inicio, destino); // Línea con el tamaño del bloque
+            if (tamano == 0) break;
+            lector.copiar(tamano + 2, destino); // Datos del bloque y su CRLF
+        }
+        // Trailers opcionales, terminan con una línea vacía
+        while (true) {
+            int finLinea = lector.finDe(CRLF);
+            if (finLinea == -1) throw new IOException("Respuesta chunked incompleta");
+            boolean vacia = finLinea - lector.inicio == 2;
+            lector.copiar(finLinea - lector.inicio, destino);
+            if (vacia) return;
+        }
+    }
+
+    // Interpreta el tamaño hexadecimal de un bloque chunked (ignora extensiones después de ';')
+    static long tamanoChunk(byte[] datos, int desde, int hasta) throws IOException {
+        long tamano = 0;
+        int digitos = 0;
+        for (int i = desde; i < hasta; i++) {
+            int c = datos[i];
+            int valor = Character.digit(c, 16);
+            if (valor == -1) {
+                if (c == ';' || c == ' ' || c == '\t') break;
+                throw new IOException("Tamaño de bloque chunked inválido");
+            }
+            if (tamano > Long.MAX_VALUE >> 4) throw new IOException("Tamaño de bloque chunked demasiado grande");
+            tamano = tamano * 16 + valor;
+            digitos++;
+        }
+        if (digitos == 0) throw new IOException("Tamaño de bloque chunked vacío");
+        return tamano;
+    }
+
+    // Extrae el código de estado de la línea "HTTP/1.1 200 OK"; 0 si no se puede interpretar
+    static int codigoEstado(String encabezados) {
+        int espacio = encabezados.indexOf(' ');
+        if (espacio == -1 || encabezados.length() < espacio + 4) return 0;
+        try {
+            return Integer.parseInt(encabezados.substring(espacio + 1, espacio + 4));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
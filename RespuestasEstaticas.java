@@ -0,0 +1,293 @@
+// RespuestasEstaticas.java
+
+import java.io.File;                        // Separador de rutas del sistema para formar la URL de cada archivo
+import java.io.IOException;                 // Errores al cargar o enviar archivos
+import java.io.OutputStream;                // Salida del socket cuando no hay canal disponible
+import java.nio.ByteBuffer;                 // Partes de la escritura con recolección (encabezados + cuerpo)
+import java.nio.channels.FileChannel;       // Mapeo en memoria y transferTo de los archivos estáticos
+import java.nio.channels.SocketChannel;     // Canal del socket para escribir sin copias intermedias
+import java.nio.charset.StandardCharsets;   // Codificación de los encabezados (ASCII) y del HTML (UTF-8)
+import java.nio.file.Files;                 // Recorrido del directorio de archivos estáticos
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;    // Apertura de los archivos en modo de solo lectura
+import java.text.SimpleDateFormat;          // Formato de fecha HTTP para Last-Modified
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;                   // Recursos estáticos indexados por ruta
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;                 // Suma de verificación del contenido para el ETag
+
+// Respuestas de ServidorHTTP codificadas una sola vez al iniciar: línea de estado y encabezados (con
+// Content-length en bytes, Last-Modified y ETag) quedan en arreglos de bytes listos para enviarse con una
+// sola escritura, en dos variantes según el encabezado Connection (cerrar o mantener la conexión).
+// Con -Dservidor.estaticos=<directorio> también se sirven los archivos de ese directorio: los de hasta
+// servidor.estaticos.mapear.bytes se mapean en memoria y se envían junto con sus encabezados en una
+// escritura con recolección; los más grandes se envían con FileChannel.transferTo.
+// Con -Dservidor.compresion=true los recursos de texto en memoria o mapeados tienen además una variante gzip
+// comprimida al cargarlos, que se envía a los clientes que la aceptan (ver Compresion).
+class RespuestasEstaticas {
+    static final String DIRECTORIO = Configuracion.texto("servidor.estaticos", "");
+    // Un mapeo (ByteBuffer) y una respuesta unida a sus encabezados (arreglo) se indexan con int: el máximo
+    // configurado se limita a Integer.MAX_VALUE menos un margen para los encabezados
+    static final int MARGEN_ENCABEZADOS = 64 * 1024;
+    static final long MAXIMO_MAPEO = Math.min(Configuracion.largo("servidor.estaticos.mapear.bytes", 4L * 1024 * 1024),
+            Integer.MAX_VALUE - MARGEN_ENCABEZADOS);
+
+    // Índice de cada variante en los arreglos de respuestas
+    static final int CERRAR = 0;
+    static final int MANTENER = 1;
+
+    // Recurso con sus respuestas precodificadas (200 y 304) y su contenido
+    static class Recurso {
+        final String ultimaModificacion;
+        final String etag;
+        final long longitud;
+        final byte[][] encabezados;  // Respuesta 200 sin el cuerpo
+        final byte[][] completa;     // Respuesta 200 con el cuerpo (solo recursos en memoria)
+        final byte[][] noModificado; // Respuesta 304 para el cliente que ya tiene esta versión
+        final ByteBuffer contenido;  // Cuerpo en memoria o archivo mapeado (null si se envía con transferTo)
+        final FileChannel archivo;   // Archivo grande que se envía con transferTo
+        final String etagComprimido;           // ETag de la variante gzip (null si no la hay)
+        final byte[][] comprimida;             // Respuesta 200 gzip completa (null si no vale la pena comprimir)
+        final byte[][] noModificadoComprimido; // Respuesta 304 para el cliente que ya tiene la variante gzip
+
+        Recurso(String tipo, ByteBuffer contenido, FileChannel archivo, long longitud, String ultimaModificacion, String etag) {
+            this.ultimaModificacion = ultimaModificacion;
+            this.etag = etag;
+            this.longitud = longitud;
+            this.contenido = contenido;
+            this.archivo = archivo;
+            // Variante gzip, solo si resulta más chica; su ETag se distingue con el sufijo "-gz"
+            byte[] cuerpoComprimido = null;
+            if (Compresion.SERVIDOR && contenido != null && longitud >= Compresion.MINIMO && Compresion.tipoComprimible(tipo)) {
+                cuerpoComprimido = Compresion.comprimirCuerpo(contenido, Compresion.GZIP);
+                if (cuerpoComprimido.length >= longitud) cuerpoComprimido = null;
+            }
+            // Todo recurso de un tipo que se comprime depende de Accept-Encoding, aunque este no tenga variante gzip
+            boolean variable = Compresion.SERVIDOR && Compresion.tipoComprimible(tipo);
+            String vary = variable ? "Vary: Accept-Encoding\r\n" : "";
+            String validadores = "Last-Modified: " + ultimaModificacion + "\r\n"
+                    + "ETag: " + etag + "\r\n";
+            this.encabezados = variantes("HTTP/1.1 200 OK\r\n"
+                    + "Content-type: " + tipo + "\r\n"
+                    + "Content-length: " + longitud + "\r\n"
+                    + vary + validadores);
+            this.noModificado = variantes("HTTP/1.1 304 Not Modified\r\n" + vary + validadores);
+            if (cuerpoComprimido != null) {
+                this.etagComprimido = etag.substring(0, etag.length() - 1) + "-gz\"";
+                String validadoresComprimida = "Last-Modified: " + ultimaModificacion + "\r\n"
+                        + "ETag: " + etagComprimido + "\r\n" + vary;
+                byte[][] encabezadosComprimida = variantes("HTTP/1.1 200 OK\r\n"
+                        + "Content-type: " + tipo + "\r\n"
+                        + "Content-Encoding: gzip\r\n"
+                        + "Content-length: " + cuerpoComprimido.length + "\r\n"
+                        + validadoresComprimida);
+                this.comprimida = new byte[2][];
+                for (int v = CERRAR; v <= MANTENER; v++) {
+                    comprimida[v] = new byte[encabezadosComprimida[v].length + cuerpoComprimido.length];
+                    System.arraycopy(encabezadosComprimida[v], 0, comprimida[v], 0, encabezadosComprimida[v].length);
+                    System.arraycopy(cuerpoComprimido, 0, comprimida[v], encabezadosComprimida[v].length, cuerpoComprimido.length);
+                }
+                this.noModificadoComprimido = variantes("HTTP/1.1 304 Not Modified\r\n" + validadoresComprimida);
+            } else {
+                this.etagComprimido = null;
+                this.comprimida = null;
+                this.noModificadoComprimido = null;
+            }
+            // Los cuerpos del heap se unen a sus encabezados; los archivos mapeados no se copian al heap
+            if (contenido != null && contenido.hasArray()) {
+                this.completa = new byte[2][];
+                for (int v = CERRAR; v <= MANTENER; v++) {
+                    completa[v] = new byte[Math.toIntExact(encabezados[v].length + longitud)];
+                    System.arraycopy(encabezados[v], 0, completa[v], 0, encabezados[v].length);
+                    contenido.duplicate().get(completa[v], encabezados[v].length, contenido.remaining());
+                }
+            } else {
+                this.completa = null;
+            }
+        }
+    }
+
+    // Recurso en memoria (ej. la página raíz del servidor), con un ETag calculado de su contenido
+    static Recurso enMemoria(String tipo, byte[] cuerpo, String ultimaModificacion) {
+        ByteBuffer contenido = ByteBuffer.wrap(cuerpo);
+        return new Recurso(tipo, contenido, null, cuerpo.length, ultimaModificacion, etag(cuerpo.length, crc(contenido)));
+    }
+
+    // Encabezados fijos (sin la línea vacía final) en sus dos variantes de Connection
+    static byte[][] variantes(String encabezados) {
+        byte[][] variantes = new byte[2][];
+        variantes[CERRAR] = (encabezados + "Connection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        variantes[MANTENER] = (encabezados + "Connection: keep-alive\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        return variantes;
+    }
+
+    // ETag fuerte: longitud y CRC32 del contenido en hexadecimal (ej. "1a3-5f2c9e01")
+    static String etag(long longitud, long suma) {
+        return "\"" + Long.toHexString(longitud) + "-" + Long.toHexString(suma) + "\"";
+    }
+
+    static long crc(ByteBuffer contenido) {
+        CRC32 crc = new CRC32();
+        crc.update(contenido.duplicate());
+        return crc.getValue();
+    }
+
+    // Fecha en el formato de los encabezados HTTP (ej. "Fri, 01 Mar 2024 12:00:00 GMT")
+    static String fechaHTTP(long milisegundos) {
+        SimpleDateFormat formato = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+        formato.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return formato.format(new Date(milisegundos));
+    }
+
+    // El cliente ya tiene esta versión si envía su ETag en If-None-Match o, sin él, su fecha en If-Modified-Since
+    static boolean vigente(Recurso recurso, String etag, PeticionHTTP peticion) {
+        int ifNoneMatch = peticion.buscar("If-None-Match");
+        if (ifNoneMatch != -1) {
+            return peticion.valorContiene(ifNoneMatch, etag) || peticion.valorEs(ifNoneMatch, "*");
+        }
+        int ifModifiedSince = peticion.buscar("If-Modified-Since");
+        return ifModifiedSince != -1 && peticion.valorEs(ifModifiedSince, recurso.ultimaModificacion);
+    }
+
+    // Envía el recurso (o un 304) con la variante de Connection indicada; la variante gzip, si existe, a
+    // los clientes que la aceptan.
+    // Con canal: encabezados y archivo mapeado en una sola escritura con recolección, o encabezados y
+    // transferTo para los archivos grandes. Sin canal (ej. sockets TLS) se escribe en el flujo de salida.
+    // Las respuestas en memoria quedan en la salida (que puede tener buffer) hasta que quien llama la vacíe;
+    // antes de escribir directo en el canal se vacía para conservar el orden de las respuestas.
+    static void enviar(Recurso recurso, PeticionHTTP peticion, int variante, OutputStream salida, SocketChannel canal) throws IOException {
+        if (recurso.comprimida != null && Compresion.negociar(peticion) == Compresion.GZIP) {
+            salida.write(vigente(recurso, recurso.etagComprimido, peticion)
+                    ? recurso.noModificadoComprimido[variante] : recurso.comprimida[variante]);
+        } else if (vigente(recurso, recurso.etag, peticion)) {
+            salida.write(recurso.noModificado[variante]);
+        } else if (recurso.completa != null) {
+            salida.write(recurso.completa[variante]);
+        } else if (canal != null && recurso.contenido != null) {
+            salida.flush();
+            ByteBuffer[] partes = {ByteBuffer.wrap(recurso.encabezados[variante]), recurso.contenido.duplicate()};
+            while (partes[0].hasRemaining() || partes[1].hasRemaining()) canal.write(partes);
+        } else if (canal != null) {
+            salida.flush();
+            canal.write(ByteBuffer.wrap(recurso.encabezados[variante]));
+            long enviados = 0;
+            while (enviados < recurso.longitud) {
+                enviados += recurso.archivo.transferTo(enviados, recurso.longitud - enviados, canal);
+            }
+        } else {
+            salida.write(recurso.encabezados[variante]);
+            copiar(recurso, salida);
+        }
+    }
+
+    // Copia el contenido al flujo de salida por bloques, con un buffer del pool
+    static void copiar(Recurso recurso, OutputStream salida) throws IOException {
+        byte[] buffer = PoolBuffers.obtener();
+        try {
+            if (recurso.contenido != null) {
+                ByteBuffer contenido = recurso.contenido.duplicate();
+                while (contenido.hasRemaining()) {
+                    int cantidad = Math.min(buffer.length, contenido.remaining());
+                    contenido.get(buffer, 0, cantidad);
+                    salida.write(buffer, 0, cantidad);
+                }
+            } else {
+                long posicion = 0;
+                while (posicion < recurso.longitud) {
+                    int leidos = recurso.archivo.read(ByteBuffer.wrap(buffer), posicion);
+                    if (leidos < 0) throw new IOException("El archivo se acortó mientras se enviaba");
+                    salida.write(buffer, 0, leidos);
+                    posicion += leidos;
+                }
+            }
+        } finally {
+            PoolBuffers.devolver(buffer);
+        }
+    }
+
+    // Carga los archivos del directorio configurado, indexados por su ruta en la URL (ej. "/css/estilo.css").
+    // Sin directorio devuelve un índice vacío.
+    static HashMap<String, Recurso> cargar() {
+        HashMap<String, Recurso> recursos = new HashMap<>();
+        if (DIRECTORIO.isEmpty()) return recursos;
+        Path base = Paths.get(DIRECTORIO).toAbsolutePath().normalize();
+        int mapeados = 0;
+        List<Path> archivos;
+        try (Stream<Path> recorrido = Files.walk(base)) {
+            archivos = recorrido.filter(Files::isRegularFile).collect(Collectors.toList());
+        } catch (IOException e) {
+            System.err.println("Error en archivos estáticos: " + e.getMessage());
+            return recursos;
+        }
+        for (Path ruta : archivos) {
+            try {
+                String url = "/" + base.relativize(ruta).toString().replace(File.separatorChar, '/');
+                recursos.put(url, cargar(ruta));
+                if (recursos.get(url).contenido != null) mapeados++;
+            } catch (IOException e) {
+                System.err.println("Error en archivo estático " + ruta + ": " + e.getMessage());
+            }
+        }
+        // El índice de un directorio se sirve también en su ruta (ej. "/" o "/docs/")
+        for (String url : new ArrayList<>(recursos.keySet())) {
+            if (url.endsWith("/index.html")) recursos.putIfAbsent(url.substring(0, url.length() - "index.html".length()), recursos.get(url));
+        }
+        System.out.println("Archivos estáticos: " + archivos.size() + " desde " + base + " (" + mapeados + " mapeados en memoria)");
+        return recursos;
+    }
+
+    static Recurso cargar(Path ruta) throws IOException {
+        String tipo = tipo(ruta.getFileName().toString());
+        String ultimaModificacion = fechaHTTP(Files.getLastModifiedTime(ruta).toMillis());
+        FileChannel archivo = FileChannel.open(ruta, StandardOpenOption.READ);
+        long longitud = archivo.size();
+        if (longitud <= MAXIMO_MAPEO) {
+            // El mapeo sigue siendo válido después de cerrar el canal
+            ByteBuffer mapeado = archivo.map(FileChannel.MapMode.READ_ONLY, 0, longitud);
+            archivo.close();
+            return new Recurso(tipo, mapeado, null, longitud, ultimaModificacion, etag(longitud, crc(mapeado)));
+        }
+        // Archivo grande: el ETag usa la fecha de modificación en lugar de leer todo el contenido
+        return new Recurso(tipo, null, archivo, longitud, ultimaModificacion,
+                etag(longitud, Files.getLastModifiedTime(ruta).toMillis()));
+    }
+
+    // Content-type según la extensión del archivo
+    static String tipo(String nombre) {
+        String extension = nombre.substring(nombre.lastIndexOf('.') + 1).toLowerCase(Locale.ROOT);
+        switch (extension) {
+            case "html":
+            case "htm":
+                return "text/html; charset=utf-8";
+            case "css":
+                return "text/css; charset=utf-8";
+            case "js":
+                return "text/javascript; charset=utf-8";
+            case "json":
+                return "application/json";
+            case "txt":
+                return "text/plain; charset=utf-8";
+            case "svg":
+                return "image/svg+xml";
+            case "png":
+                return "image/png";
+            case "jpg":
+            case "jpeg":
+                return "image/jpeg";
+            case "gif":
+                return "image/gif";
+            case "ico":
+                return "image/x-icon";
+            case "pdf":
+                return "application/pdf";
+            default:
+                return "application/octet-stream";
+        }
+    }
+}
@@ -1,129 +1,190 @@
 // ServidorHTTP.java
 
-import java.net.ServerSocket;              // Permite crear un servidor que escucha conexiones en un puerto específico
 import java.net.Socket;                    // Representa una conexión entre cliente y servidor
-import java.util.Date;                     // Clase para trabajar con fechas
-import java.text.SimpleDateFormat;         // Clase para formatear fechas en formato legible o compatible con HTTP
-import java.io.BufferedReader;             // Permite leer texto desde un flujo de entrada de manera eficiente
-import java.io.InputStreamReader;          // Convierte flujos de bytes en caracteres
-import java.io.PrintWriter;                // Permite escribir texto en un flujo de salida de manera sencilla
+import java.io.InputStream;                // Flujo de bytes de la petición del cliente (se analiza con PeticionHTTP)
+import java.io.BufferedOutputStream;       // Agrupa las respuestas de peticiones canalizadas en una sola escritura
+import java.net.InetSocketAddress;         // Dirección en la que escucha el canal del servidor
+import java.nio.channels.ServerSocketChannel; // Servidor basado en canales: cada conexión tiene su SocketChannel
+import java.nio.channels.SocketChannel;    // Escrituras con recolección y transferTo de archivos estáticos
+import java.util.HashMap;                  // Archivos estáticos indexados por ruta
+import java.util.concurrent.atomic.LongAdder; // Contadores de peticiones y conexiones (ver Metricas)
+import java.net.SocketTimeoutException;    // Indica que una conexión persistente estuvo inactiva demasiado tiempo
+import java.nio.charset.StandardCharsets;  // Codificación UTF-8 para las respuestas
 
 class ServidorHTTP {
     // Valor constante que se usará como cabecera "Last-Modified" en las respuestas HTTP
     static final String LAST_MODIFIED = "Fri, 01 Mar 2024 12:00:00 GMT";
 
-    // Clase interna que representa un hilo de atención para cada cliente que se conecta
-    static class Worker extends Thread {
+    // Conexiones persistentes (keep-alive): tiempo máximo de inactividad y peticiones máximas por conexión
+    static final int KEEP_ALIVE_MS = Configuracion.entero("servidor.keepalive.ms", 5000);
+    static final int MAX_PETICIONES = Configuracion.entero("servidor.max.peticiones", 1000);
+
+    // HTML con un botón que hace una petición AJAX
+    static final String PAGINA = "<html>"
+            + "<script>"
+            + "function get(req,callback){"
+            + "const xhr = new XMLHttpRequest();"
+            + "xhr.open('GET', req, true);"
+            + "xhr.onload=function(){"
+            + "if (callback != null) callback(xhr.status,xhr.response);"
+            + "};"
+            + "xhr.send();"
+            + "}"
+            + "</script>"
+            + "<body>"
+            + "<button onclick=\"get('/suma?a=1&b=2&c=3',function(status,response){alert(status + ' ' + response);})\">Aceptar</button>"
+            + "</body>"
+            + "</html>";
+
+    // Respuestas codificadas una sola vez al iniciar, en sus variantes de Connection (ver RespuestasEstaticas)
+    static final RespuestasEstaticas.Recurso RAIZ = RespuestasEstaticas.enMemoria("text/html; charset=utf-8",
+            PAGINA.getBytes(StandardCharsets.UTF_8), LAST_MODIFIED);
+    static final byte[][] SIN_CONTENIDO = RespuestasEstaticas.variantes("HTTP/1.1 204 No Content\r\n");
+    static final byte[][] NO_ENCONTRADO = RespuestasEstaticas.variantes("HTTP/1.1 404 File Not Found\r\nContent-length: 0\r\n");
+    // La respuesta de /suma solo varía en el resultado: se arma con estas partes fijas y sus dígitos
+    static final byte[] INICIO_SUMA = ("HTTP/1.1 200 OK\r\n"
+            + "Access-Control-Allow-Origin: *\r\n" // Permite llamadas desde otras páginas (CORS)
+            + "Content-type: text/plain; charset=utf-8\r\n"
+            + "Content-length: ").getBytes(StandardCharsets.US_ASCII);
+    static final byte[][] FIN_SUMA = RespuestasEstaticas.variantes("\r\n");
+
+    // Archivos del directorio -Dservidor.estaticos (vacío si no se configuró)
+    static final HashMap<String, RespuestasEstaticas.Recurso> ARCHIVOS = RespuestasEstaticas.cargar();
+
+    // Métricas del servidor, publicadas en el puerto de administración (ver Metricas)
+    static final LongAdder PETICIONES = Metricas.contador("servidor_peticiones_total", "Peticiones atendidas por ServidorHTTP");
+    static final LongAdder CONEXIONES = Metricas.medidor("servidor_conexiones_activas", "Conexiones abiertas con clientes");
+    static final Metricas.Histograma ATENCION = Metricas.histograma("servidor_atencion_segundos",
+            "Tiempo desde que la petición está completa hasta que se escribe la respuesta", "");
+
+    // Clase interna que representa la atención de cada cliente que se conecta (se ejecuta según el modo de Ejecutor)
+    static class Worker implements Runnable {
         Socket conexion;
+        Admision.Conexion admitida; // Avisa a Admision cuándo se espera una petición y cuándo termina la conexión
 
-        Worker(Socket conexion) {
+        Worker(Socket conexion, Admision.Conexion admitida) {
             this.conexion = conexion;
-        }
-
-        // Función que extrae el valor de una variable (a, b o c) de la URL con formato query (?a=1&b=2)
-        int valor(String parametros, String variable) throws Exception {
-            String[] p = parametros.split("&");
-            for (String parametro : p) {
-                String[] s = parametro.split("=");
-                if (s[0].equals(variable))
-                    return Integer.parseInt(s[1]);
-            }
-            throw new Exception("Se espera la variable: " + variable);
+            this.admitida = admitida;
         }
 
         public void run() {
+            // Petición analizada en su lugar dentro de un buffer reutilizado durante toda la conexión
+            PeticionHTTP peticion = new PeticionHTTP();
+            BufferedOutputStream salida = null;
+            CONEXIONES.increment();
             try {
-                // Lectores y escritores para comunicarse con el cliente
-                BufferedReader entrada = new BufferedReader(new InputStreamReader(conexion.getInputStream()));
-                PrintWriter salida = new PrintWriter(conexion.getOutputStream());
-
-                // Leer la primera línea de la petición (ej. GET / HTTP/1.1)
-                String req = entrada.readLine();
-                if (req == null) {
-                    System.err.println("Conexión cerrada por el cliente.");
-                    return;
-                }
-                System.out.println("Petición recibida: " + req);
-
-                // Ignora la petición de favicon.ico (que hacen los navegadores automáticamente)
-                if (req.startsWith("GET /favicon.ico")) {
-                    salida.println("HTTP/1.1 204 No Content");
-                    salida.println("Connection: close");
-                    salida.println();
-                    salida.flush();
-                    return;
-                }
+                // Flujos de entrada y salida para comunicarse con el cliente; el canal (si la conexión lo tiene)
+                // permite enviar los archivos estáticos sin copiarlos al heap
+                InputStream entrada = conexion.getInputStream();
+                salida = new BufferedOutputStream(conexion.getOutputStream(), 8192);
+                SocketChannel canal = conexion.getChannel();
+                byte[] respuesta = new byte[256]; // Respuesta de /suma, armada en un solo arreglo
+
+                // Tiempo máximo de espera por la siguiente petición en la misma conexión
+                conexion.setSoTimeout(KEEP_ALIVE_MS);
+
+                // Atiende peticiones sucesivas mientras el cliente mantenga la conexión abierta (HTTP/1.1 keep-alive)
+                int atendidas = 0;
+                boolean mantener = true;
+                while (mantener) {
+                    // Leer la línea de petición (ej. GET / HTTP/1.1) y los encabezados; los bytes de una
+                    // petición siguiente que lleguen en la misma lectura se conservan en el buffer
+                    peticion.siguiente();
+                    // Canalización (pipelining): si la siguiente petición ya llegó completa se atiende sin enviar
+                    // todavía las respuestas anteriores, que salen juntas (y en orden) antes de esperar más datos
+                    int resultado = peticion.analizar();
+                    if (resultado == PeticionHTTP.INCOMPLETA) {
+                        salida.flush();
+                        // El tiempo de inactividad se reinicia con cada byte; el plazo de Admision acota la petición entera
+                        admitida.esperando();
+                        try {
+                            resultado = peticion.leer(entrada);
+                        } catch (SocketTimeoutException e) {
+                            break; // Conexión inactiva: se cierra
+                        }
+                        admitida.atendiendo();
+                    }
+                    if (resultado == PeticionHTTP.CERRADA) {
+                        if (atendidas == 0) System.err.println("Conexión cerrada por el cliente.");
+                        break;
+                    }
+                    // El cuerpo se delimita aunque ningún recurso lo use: sin Content-Length válido (chunked o
+                    // longitud inválida) no se sabe dónde empieza la siguiente petición
+                    if (resultado == PeticionHTTP.COMPLETA) resultado = peticion.delimitarCuerpo();
+                    if (resultado != PeticionHTTP.COMPLETA) {
+                        // Encabezados demasiado grandes (431), cuerpo sin longitud (411) o demasiado grande (413), o
+                        // petición mal formada (400): se responde y se cierra
+                        PeticionHTTP.rechazar(resultado, salida);
+                        break;
+                    }
+                    peticion.omitirCuerpo(entrada, salida);
+                    long inicio = System.nanoTime();
+                    PETICIONES.increment();
+                    // Registro asíncrono y muestreado: la línea y los encabezados solo se arman si se van a imprimir
+                    if (Registro.muestrear()) {
+                        StringBuilder linea = new StringBuilder("Petición recibida: ").append(peticion.lineaPeticion());
+                        for (int i = 0; i < peticion.cantidad; i++) {
+                            linea.append(System.lineSeparator()).append("Encabezado: ").append(peticion.encabezado(i));
+                        }
+                        Registro.escribir(linea.toString());
+                    }
 
-                // Leer los encabezados HTTP adicionales
-                String encabezado;
-                String ifModifiedSince = null;
-                while (!(encabezado = entrada.readLine()).equals("")) {
-                    System.out.println("Encabezado: " + encabezado);
-                    if (encabezado.startsWith("If-Modified-Since: ")) {
-                        ifModifiedSince = encabezado.substring(19); // Extraer la fecha
+                    // La conexión se mantiene abierta salvo que el cliente pida cerrarla, use HTTP/1.0 sin keep-alive
+                    // o se alcance el máximo de peticiones por conexión
+                    atendidas++;
+                    int connection = peticion.buscar("Connection");
+                    mantener = atendidas < MAX_PETICIONES
+                            && !(connection != -1 && peticion.valorEsSinMayusculas(connection, "close"))
+                            && (!peticion.http10() || (connection != -1 && peticion.valorEsSinMayusculas(connection, "keep-alive")));
+                    int variante = mantener ? RespuestasEstaticas.MANTENER : RespuestasEstaticas.CERRAR;
+                    RespuestasEstaticas.Recurso archivo;
+
+                    // Ignora la petición de favicon.ico (que hacen los navegadores automáticamente)
+                    if (peticion.esGet() && peticion.rutaEs("/favicon.ico")) {
+                        salida.write(SIN_CONTENIDO[variante]);
+                        ATENCION.registrarDesde(inicio);
+                        continue;
                     }
-                }
 
-                // Si la petición es al recurso raíz
-                if (req.startsWith("GET / ")) {
-                    // Si el cliente ya tiene la versión más reciente, responder con 304
-                    if (ifModifiedSince != null && ifModifiedSince.equals(LAST_MODIFIED)) {
-                        salida.println("HTTP/1.1 304 Not Modified");
-                        salida.println("Connection: close");
-                        salida.println();
+                    // Archivos del directorio estático (mapeados en memoria o enviados con transferTo); van
+                    // primero para que un index.html del directorio reemplace a la página raíz incorporada
+                    if (peticion.esGet() && !ARCHIVOS.isEmpty() && (archivo = ARCHIVOS.get(peticion.ruta())) != null) {
+                        RespuestasEstaticas.enviar(archivo, peticion, variante, salida, canal);
+
+                    // Si la petición es al recurso raíz: HTML precodificado, o 304 si el cliente ya tiene
+                    // la versión más reciente (mismo ETag o misma fecha de modificación)
+                    } else if (peticion.esGet() && peticion.rutaEs("/") && !peticion.tieneQuery()) {
+                        RespuestasEstaticas.enviar(RAIZ, peticion, variante, salida, canal);
+
+                    // Si la petición es al recurso /suma con parámetros a, b y c
+                    } else if (peticion.esGet() && peticion.rutaEs("/suma") && peticion.tieneQuery()) {
+                        // Calcular la suma con los parámetros a, b y c de la URL, interpretados dentro del buffer
+                        String suma = String.valueOf(peticion.parametroEntero("a") + peticion.parametroEntero("b") + peticion.parametroEntero("c"));
+                        // Encabezados y resultado como texto plano, enviados en una sola escritura
+                        int n = copiar(INICIO_SUMA, respuesta, 0);
+                        n = PeticionHTTP.texto(String.valueOf(suma.length()), respuesta, n);
+                        n = copiar(FIN_SUMA[variante], respuesta, n);
+                        n = PeticionHTTP.texto(suma, respuesta, n); // Resultado de la suma
+                        salida.write(respuesta, 0, n);
+
+                    // Si la URL no es reconocida, enviar error 404
                     } else {
-                        // Enviar HTML con un botón que hace una petición AJAX
-                        String respuesta = "<html>"
-                                + "<script>"
-                                + "function get(req,callback){"
-                                + "const xhr = new XMLHttpRequest();"
-                                + "xhr.open('GET', req, true);"
-                                + "xhr.onload=function(){"
-                                + "if (callback != null) callback(xhr.status,xhr.response);"
-                                + "};"
-                                + "xhr.send();"
-                                + "}"
-                                + "</script>"
-                                + "<body>"
-                                + "<button onclick=\"get('/suma?a=1&b=2&c=3',function(status,response){alert(status + ' ' + response);})\">Aceptar</button>"
-                                + "</body>"
-                                + "</html>";
-                        // Encabezados de la respuesta
-                        salida.println("HTTP/1.1 200 OK");
-                        salida.println("Content-type: text/html; charset=utf-8");
-                        salida.println("Content-length: " + respuesta.length());
-                        salida.println("Last-Modified: " + LAST_MODIFIED);
-                        salida.println("Connection: close");
-                        salida.println();
-                        salida.println(respuesta); // Cuerpo HTML
+                        salida.write(NO_ENCONTRADO[variante]);
                     }
-                    salida.flush();
-
-                // Si la petición es al recurso /suma con parámetros a, b y c
-                } else if (req.startsWith("GET /suma?")) {
-                    // Extraer los parámetros de la URL
-                    String parametros = req.split(" ")[1].split("\\?")[1];
-                    // Calcular la suma
-                    String respuesta = String.valueOf(valor(parametros, "a") + valor(parametros, "b") + valor(parametros, "c"));
-                    // Enviar la respuesta como texto plano
-                    salida.println("HTTP/1.1 200 OK");
-                    salida.println("Access-Control-Allow-Origin: *"); // Permite llamadas desde otras páginas (CORS)
-                    salida.println("Content-type: text/plain; charset=utf-8");
-                    salida.println("Content-length: " + respuesta.length());
-                    salida.println("Connection: close");
-                    salida.println();
-                    salida.println(respuesta); // Resultado de la suma
-                    salida.flush();
-
-                // Si la URL no es reconocida, enviar error 404
-                } else {
-                    salida.println("HTTP/1.1 404 File Not Found");
-                    salida.flush();
+                    ATENCION.registrarDesde(inicio);
                 }
 
             } catch (Exception e) {
                 System.err.println("Error en la conexión: " + e.getMessage());
             } finally {
+                CONEXIONES.decrement();
+                admitida.liberar();
+                peticion.liberar();
+                try {
+                    if (salida != null) salida.flush(); // Respuestas pendientes (incluso si falló una petición posterior)
+                } catch (Exception e) {
+                    // El cliente ya cerró: no hay a quién enviarlas
+                }
                 try {
                     conexion.close(); // Cierra la conexión al terminar
                 } catch (Exception e) {
@@ -133,6 +194,11 @@ class ServidorHTTP {
         }
     }
 
+    static int copiar(byte[] origen, byte[] destino, int posicion) {
+        System.arraycopy(origen, 0, destino, posicion, origen.length);
+        return posicion + origen.length;
+    }
+
     public static void main(String[] args) throws Exception {
         // Verificar que se haya pasado el puerto como argumento
         if (args.length != 1) {
@@ -143,17 +209,26 @@ class ServidorHTTP {
         int puerto = Integer.parseInt(args[0]);
         System.out.println("Intentando iniciar servidor en puerto: " + puerto);
 
-        // Crear socket del servidor
-        ServerSocket servidor = new ServerSocket(puerto);
+        // Crear el servidor sobre un canal: los sockets aceptados conservan su SocketChannel (bloqueante)
+        // para las escrituras con recolección y transferTo de RespuestasEstaticas
+        ServerSocketChannel servidor = ServerSocketChannel.open();
+        servidor.bind(new InetSocketAddress(puerto), Ejecutor.BACKLOG);
+        Ejecutor ejecutor = new Ejecutor("servidor");
+        Admision admision = new Admision("servidor", true);
         System.out.println("Servidor HTTP escuchando en puerto: " + puerto);
+        Metricas.iniciarAdministracion();
 
-        // Bucle infinito: atender conexiones una por una, cada una en un hilo (Worker)
+        // Bucle infinito: atender conexiones una por una, cada una en un Worker (hilo propio, virtual o de un pool)
         while (true) {
-            System.out.println("Esperando conexión...");
-            Socket conexion = servidor.accept();
-            System.out.println("Conexión aceptada desde: " + conexion.getInetAddress());
-
-            new Worker(conexion).start(); // Crear y arrancar un nuevo hilo para atender al cliente
+            if (Registro.muestrear()) Registro.escribir("Esperando conexión...");
+            Socket conexion = servidor.accept().socket();
+            if (Registro.muestrear()) Registro.escribir("Conexión aceptada desde: " + conexion.getInetAddress());
+
+            // Límite de conexiones en curso y por cliente: si se rechaza ya se respondió y se cerró (ver Admision)
+            Admision.Conexion admitida = admision.admitir(conexion);
+            if (admitida == null) continue;
+            // Atender al cliente según el modelo de ejecución
+            if (!ejecutor.ejecutar(new Worker(conexion, admitida), conexion)) admitida.liberar();
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,111 @@
+// AdmisionTest.java
+
+import static org.junit.jupiter.api.Assertions.assertEquals;      // Comparación de valores esperados
+import static org.junit.jupiter.api.Assertions.assertFalse;       // Condiciones que deben ser falsas
+import static org.junit.jupiter.api.Assertions.assertNotEquals;   // Claves de clientes distintos
+import static org.junit.jupiter.api.Assertions.assertNotNull;     // Conexiones admitidas
+import static org.junit.jupiter.api.Assertions.assertNull;        // Conexiones rechazadas
+import static org.junit.jupiter.api.Assertions.assertTrue;        // Condiciones que deben ser verdaderas
+
+import java.io.IOException;               // Conexiones de prueba por loopback
+import java.net.InetAddress;              // Direcciones de los clientes
+import java.net.InetSocketAddress;        // Dirección del servidor de prueba
+import java.net.ServerSocket;             // Extremo que acepta en las pruebas de rechazo
+import java.net.Socket;                   // Conexiones admitidas o rechazadas
+import java.nio.charset.StandardCharsets; // Las respuestas de rechazo son ASCII
+
+import org.junit.jupiter.api.Test;        // Marca cada caso de prueba
+
+// Cubetas de fichas por cliente (GCRA), máximo de conexiones en curso, rechazo con cierre diferido y recolección
+// de las conexiones que no completan su petición (ver Admision)
+class AdmisionTest {
+    static final long MS = 1_000_000L;
+
+    @Test
+    void reservarAdmiteLaRafagaYRepone() {
+        Admision admision = new Admision("prueba", false, 0, 10, 3, 0); // Una ficha cada 100 ms, ráfaga de 3
+        long ahora = System.nanoTime();
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, admision.reservar(1, ahora));
+        }
+        assertEquals(100 * MS, admision.reservar(1, ahora)); // Falta una ficha
+        assertEquals(100 * MS, admision.reservar(1, ahora)); // Un rechazo no consume fichas
+        assertEquals(0, admision.reservar(2, ahora));        // Otro cliente tiene su propia cubeta
+        assertEquals(0, admision.reservar(1, ahora + 100 * MS));
+        assertEquals(50 * MS, admision.reservar(1, ahora + 150 * MS));
+        assertEquals(0, admision.reservar(1, ahora + 400 * MS));
+    }
+
+    @Test
+    void claveAgrupaElPrefijoIPv6() throws IOException {
+        long ipv4 = Admision.clave(InetAddress.getByName("192.168.1.10"));
+        assertNotEquals(ipv4, Admision.clave(InetAddress.getByName("192.168.1.11")));
+        assertEquals(ipv4, Admision.clave(InetAddress.getByName("::ffff:192.168.1.10"))); // Java la entrega como IPv4
+        long ipv6 = Admision.clave(InetAddress.getByName("2001:db8:1:2::1"));
+        assertEquals(ipv6, Admision.clave(InetAddress.getByName("2001:db8:1:2:ffff::9"))); // Mismo /64
+        assertNotEquals(ipv6, Admision.clave(InetAddress.getByName("2001:db8:1:3::1")));
+        assertNotEquals(ipv4, Admision.clave(InetAddress.getByName("::c0a8:10a")));
+    }
+
+    @Test
+    void maximoRechazaHastaQueSeLibera() {
+        Admision admision = new Admision("prueba", false, 1, 0, 0, 0);
+        long saturadas = admision.saturadas.sum();
+        Admision.Conexion primera = admision.admitir(new Socket());
+        assertNotNull(primera);
+        Socket rechazado = new Socket();
+        assertNull(admision.admitir(rechazado));
+        assertTrue(rechazado.isClosed()); // Sin respuesta (TLS): se cierra de inmediato
+        assertEquals(saturadas + 1, admision.saturadas.sum());
+        assertEquals(1, admision.enCurso.get());
+        primera.liberar();
+        primera.liberar(); // Liberar otra vez no descuenta dos veces
+        assertEquals(0, admision.enCurso.get());
+        assertNotNull(admision.admitir(new Socket()));
+    }
+
+    @Test
+    void rechazoRespondeYCierraDespues() throws IOException {
+        Admision admision = new Admision("prueba", true, 1, 0, 0, 0);
+        try (ServerSocket servidor = new ServerSocket(0, 5, InetAddress.getLoopbackAddress());
+                Socket cliente = new Socket()) {
+            cliente.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), servidor.getLocalPort()));
+            cliente.getOutputStream().write("GET / HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            Socket aceptado = servidor.accept();
+            assertNotNull(admision.admitir(new Socket()));
+            assertNull(admision.admitir(aceptado));
+
+            // El cliente recibe el 503 completo y el fin de la conexión, no un RST por su petición sin leer
+            cliente.setSoTimeout(5000);
+            assertEquals(new String(Admision.RESPUESTA_503, StandardCharsets.US_ASCII),
+                    new String(cliente.getInputStream().readAllBytes(), StandardCharsets.US_ASCII));
+
+            admision.revisar(System.nanoTime() + (Admision.CIERRE_MS + 1) * MS);
+            assertTrue(aceptado.isClosed());
+            assertEquals(0, admision.pendientes.get());
+            assertTrue(admision.cierres.isEmpty());
+        }
+    }
+
+    @Test
+    void recolectaLasQueNoCompletanSuPeticion() {
+        Admision admision = new Admision("prueba", false, 0, 0, 0, 60_000);
+        long recolectadas = admision.recolectadas.sum();
+        Admision.Conexion esperando = admision.admitir(new Socket());
+        Admision.Conexion atendiendo = admision.admitir(new Socket());
+        atendiendo.atendiendo();
+        Admision.Conexion sinVigilar = admision.admitir(new Socket(), false); // La vigila quien la atiende (MotorNIO)
+
+        long ahora = System.nanoTime();
+        admision.revisar(ahora + 59_000 * MS);
+        assertFalse(esperando.socket.isClosed());
+        admision.revisar(ahora + 61_000 * MS);
+        assertTrue(esperando.socket.isClosed());
+        assertFalse(atendiendo.socket.isClosed());
+        assertFalse(sinVigilar.socket.isClosed());
+        assertEquals(recolectadas + 1, admision.recolectadas.sum());
+
+        admision.revisar(ahora + 62_000 * MS); // Ya no está vigilada: no se cuenta otra vez
+        assertEquals(recolectadas + 1, admision.recolectadas.sum());
+    }
+}
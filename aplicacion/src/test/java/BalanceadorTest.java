@@ -0,0 +1,151 @@
+// BalanceadorTest.java
+
+import static org.junit.jupiter.api.Assertions.assertEquals;    // Comparación de valores esperados
+import static org.junit.jupiter.api.Assertions.assertFalse;     // Condiciones que deben ser falsas
+import static org.junit.jupiter.api.Assertions.assertNotNull;   // Siempre hay un servidor elegido
+import static org.junit.jupiter.api.Assertions.assertNotSame;   // Servidor distinto del excluido
+import static org.junit.jupiter.api.Assertions.assertNull;      // Sin alternativa
+import static org.junit.jupiter.api.Assertions.assertSame;      // El servidor elegido
+import static org.junit.jupiter.api.Assertions.assertThrows;    // Plazo vencido
+import static org.junit.jupiter.api.Assertions.assertTrue;      // Condiciones que deben ser verdaderas
+
+import java.io.ByteArrayOutputStream;     // Destino de la salida vigilada
+import java.io.IOException;               // Escrituras de la salida vigilada
+import java.net.SocketTimeoutException;   // Plazo total vencido
+import java.nio.charset.StandardCharsets; // Respuestas de prueba en ASCII
+
+import org.junit.jupiter.api.Test;        // Marca cada caso de prueba
+
+// Elección de servidor, expulsión tras fallos seguidos, arranque lento y alternativas para reintentos
+class BalanceadorTest {
+    // Servidores de prueba: solo se resuelve su dirección, nunca se conecta
+    static Balanceador balanceador(int cantidad, boolean conRespaldo) {
+        String[] hosts = new String[cantidad];
+        int[] puertos = new int[cantidad];
+        for (int i = 0; i < cantidad; i++) {
+            hosts[i] = "127.0.0.1";
+            puertos[i] = 1 + i;
+        }
+        return conRespaldo ? new Balanceador(null, hosts, puertos, "127.0.0.1", 9) : new Balanceador(null, hosts, puertos);
+    }
+
+    static void expulsar(Balanceador balanceador, Balanceador.Servidor servidor) {
+        for (int i = 0; i < Balanceador.FALLOS_EXPULSION; i++) {
+            balanceador.terminar(servidor, false, balanceador.iniciar(servidor));
+        }
+    }
+
+    @Test
+    void turnoCircularReparteParejo() {
+        Balanceador balanceador = balanceador(3, false);
+        int[] elegidos = new int[3];
+        for (int i = 0; i < 9; i++) {
+            elegidos[balanceador.enTurno(System.nanoTime()).indice]++;
+        }
+        assertEquals(3, elegidos[0]);
+        assertEquals(3, elegidos[1]);
+        assertEquals(3, elegidos[2]);
+    }
+
+    @Test
+    void menosCargadoYDosAlAzarPrefierenMenosPendientes() {
+        Balanceador balanceador = balanceador(3, false);
+        balanceador.servidores[0].pendientes.set(5);
+        balanceador.servidores[1].pendientes.set(1);
+        balanceador.servidores[2].pendientes.set(3);
+        assertSame(balanceador.servidores[1], balanceador.menosCargado(System.nanoTime()));
+        for (int i = 0; i < 50; i++) {
+            // Entre dos al azar nunca gana el más cargado de los tres
+            assertNotSame(balanceador.servidores[0], balanceador.dosAlAzar(System.nanoTime()));
+        }
+    }
+
+    @Test
+    void expulsionTrasFallosSeguidos() {
+        Balanceador balanceador = balanceador(2, false);
+        Balanceador.Servidor servidor = balanceador.servidores[0];
+        for (int i = 0; i < Balanceador.FALLOS_EXPULSION - 1; i++) {
+            balanceador.terminar(servidor, false, balanceador.iniciar(servidor));
+        }
+        balanceador.terminar(servidor, true, balanceador.iniciar(servidor)); // Un éxito reinicia la cuenta
+        assertEquals(0, servidor.fallosSeguidos.get());
+        assertFalse(servidor.expulsado);
+
+        expulsar(balanceador, servidor);
+        assertTrue(servidor.expulsado);
+        assertFalse(servidor.disponible(System.nanoTime()));
+        assertEquals(0, servidor.pendientes.get());
+        for (int i = 0; i < 20; i++) {
+            assertSame(balanceador.servidores[1], balanceador.elegir());
+        }
+    }
+
+    @Test
+    void todosExpulsadosSigueRepartiendo() {
+        Balanceador balanceador = balanceador(2, false);
+        expulsar(balanceador, balanceador.servidores[0]);
+        expulsar(balanceador, balanceador.servidores[1]);
+        assertNotNull(balanceador.elegir());
+        assertNull(balanceador.alternativo(balanceador.servidores[0]));
+    }
+
+    @Test
+    void reincorporacionConArranqueLento() {
+        Balanceador balanceador = balanceador(2, false);
+        Balanceador.Servidor servidor = balanceador.servidores[0];
+        expulsar(balanceador, servidor);
+        long ahora = System.nanoTime();
+        servidor.expulsadoHasta = ahora - 1; // La expulsión ya terminó
+        assertTrue(servidor.disponible(ahora));
+        assertTrue(servidor.arrancando);
+        assertEquals(Balanceador.PESO_MINIMO, servidor.peso(ahora), 1e-9);
+        assertEquals(0.5, servidor.peso(ahora + Balanceador.ARRANQUE_MS * 500_000), 1e-6);
+        assertEquals(1, servidor.peso(ahora + Balanceador.ARRANQUE_MS * 1_000_000));
+        assertFalse(servidor.arrancando);
+    }
+
+    @Test
+    void alternativoExcluyeAlServidorYUsaElRespaldo() {
+        Balanceador balanceador = balanceador(2, true);
+        Balanceador.Servidor primero = balanceador.servidores[0];
+        Balanceador.Servidor segundo = balanceador.servidores[1];
+        assertSame(segundo, balanceador.alternativo(primero));
+        expulsar(balanceador, segundo);
+        assertSame(balanceador.respaldo, balanceador.alternativo(primero));
+        for (int i = 0; i < 20; i++) {
+            assertSame(primero, balanceador.elegir()); // El respaldo no entra al reparto
+        }
+    }
+
+    @Test
+    void salidaVigiladaReconoceElCodigo() throws IOException {
+        Balanceador.SalidaVigilada salida = new Balanceador.SalidaVigilada(new ByteArrayOutputStream());
+        assertFalse(salida.escrita);
+        byte[] respuesta = "HTTP/1.1 503 Service Unavailable\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+        salida.write(respuesta, 0, respuesta.length);
+        assertEquals(503, salida.codigo);
+        assertTrue(salida.escrita);
+    }
+
+    @Test
+    void salidaVigiladaMideSoloElPrimerByte() throws IOException {
+        Balanceador.Servidor servidor = balanceador(1, false).servidores[0];
+        Balanceador.SalidaVigilada salida = new Balanceador.SalidaVigilada(new ByteArrayOutputStream());
+        salida.medir(servidor, System.nanoTime());
+        long antes = Metricas.Histograma.total(servidor.primerByte.copia());
+        byte[] respuesta = "HTTP/1.1 200 OK\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+        salida.write(respuesta, 0, respuesta.length);
+        salida.write(respuesta, 0, respuesta.length);
+        assertEquals(antes + 1, Metricas.Histograma.total(servidor.primerByte.copia()));
+    }
+
+    @Test
+    void plazoTotalAcotaLosTiempos() throws SocketTimeoutException {
+        assertEquals(500, PoolConexiones.acotar(500, 0)); // Sin límite
+        assertEquals(500, PoolConexiones.acotar(500, System.nanoTime() + 60_000_000_000L));
+        int acotado = PoolConexiones.acotar(500, System.nanoTime() + 100_000_000L);
+        assertTrue(acotado > 0 && acotado <= 100);
+        assertTrue(PoolConexiones.acotar(0, System.nanoTime() + 100_000_000L) <= 100); // 0 (sin límite) también se acota
+        assertThrows(SocketTimeoutException.class, () -> PoolConexiones.acotar(500, System.nanoTime() - 1));
+    }
+}
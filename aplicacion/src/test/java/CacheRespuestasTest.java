@@ -0,0 +1,147 @@
+// CacheRespuestasTest.java
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals; // Respuestas guardadas y enviadas
+import static org.junit.jupiter.api.Assertions.assertEquals;      // Comparación de valores esperados
+import static org.junit.jupiter.api.Assertions.assertFalse;       // Condiciones que deben ser falsas
+import static org.junit.jupiter.api.Assertions.assertNotNull;     // Respuestas que sí se guardan
+import static org.junit.jupiter.api.Assertions.assertNull;        // Respuestas que no se guardan
+import static org.junit.jupiter.api.Assertions.assertTrue;        // Condiciones que deben ser verdaderas
+
+import java.io.ByteArrayOutputStream;     // Lo que recibe el cliente
+import java.io.IOException;               // Escrituras hacia el cliente
+import java.nio.charset.StandardCharsets; // Las respuestas de prueba son ASCII
+
+import org.junit.jupiter.api.Test;        // Marca cada caso de prueba
+
+// Política de almacenamiento, respuestas desde la caché, desalojo LRU y las decisiones de Revision
+class CacheRespuestasTest {
+    static final String FECHA = "Fri, 01 Mar 2024 12:00:00 GMT";
+    static final String GUARDABLE = "HTTP/1.1 200 OK\r\nLast-Modified: " + FECHA + "\r\nContent-Length: 4\r\nConnection: close\r\n\r\nhola";
+
+    static byte[] bytes(String texto) {
+        return texto.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    static String texto(ByteArrayOutputStream salida) {
+        return salida.toString(StandardCharsets.ISO_8859_1);
+    }
+
+    @Test
+    void politicaDeAlmacenamiento() {
+        CacheRespuestas cache = new CacheRespuestas();
+        assertNotNull(cache.guardar("GET /a", bytes(GUARDABLE)));
+        assertNotNull(cache.guardar("GET /b", bytes("HTTP/1.1 200 OK\r\nCache-Control: max-age=60\r\n\r\n")));
+        assertNull(cache.guardar("GET /c", bytes("HTTP/1.1 200 OK\r\nContent-Length: 0\r\n\r\n"))); // Sin validador ni max-age
+        assertNull(cache.guardar("GET /d", bytes("HTTP/1.1 404 Not Found\r\nLast-Modified: " + FECHA + "\r\n\r\n")));
+        assertNull(cache.guardar("GET /e", bytes("HTTP/1.1 200 OK\r\nLast-Modified: " + FECHA + "\r\nSet-Cookie: a=1\r\n\r\n")));
+        assertNull(cache.guardar("GET /f", bytes("HTTP/1.1 200 OK\r\nCache-Control: no-store, max-age=60\r\n\r\n")));
+        assertNull(cache.guardar("GET /g", bytes("HTTP/1.1 200 OK\r\nCache-Control: private\r\nLast-Modified: " + FECHA + "\r\n\r\n")));
+        assertNull(cache.guardar("GET /h", bytes("HTTP/1.1 200 OK\r\nContent-Encoding: gzip\r\nLast-Modified: " + FECHA + "\r\n\r\n")));
+        assertEquals(60_000, cache.buscar("GET /b").vigenciaMs);
+        assertNull(cache.buscar("GET /c"));
+    }
+
+    @Test
+    void respondeCompletaO304() throws IOException {
+        CacheRespuestas cache = new CacheRespuestas();
+        CacheRespuestas.Entrada entrada = cache.guardar("GET /", bytes(GUARDABLE));
+        assertTrue(entrada.fresca());
+
+        ByteArrayOutputStream salida = new ByteArrayOutputStream();
+        cache.responder(entrada, FECHA, Compresion.NINGUNA, salida);
+        assertEquals("HTTP/1.1 304 Not Modified\r\nLast-Modified: " + FECHA + "\r\nConnection: close\r\n\r\n", texto(salida));
+
+        salida.reset();
+        cache.responder(entrada, "Sat, 02 Mar 2024 12:00:00 GMT", Compresion.NINGUNA, salida);
+        assertEquals(GUARDABLE, texto(salida));
+    }
+
+    @Test
+    void desalojaLaMenosUsada() {
+        CacheRespuestas cache = new CacheRespuestas();
+        CacheRespuestas.Entrada primera = cache.guardar("GET /1", bytes(GUARDABLE));
+        cache.guardar("GET /2", bytes(GUARDABLE));
+        cache.buscar("GET /1"); // La segunda queda como la menos usada
+        synchronized (cache) {
+            cache.bytesUsados = CacheRespuestas.PRESUPUESTO + 1; // Simula el presupuesto excedido por un byte
+            cache.desalojar(null);
+        }
+        assertNull(cache.buscar("GET /2"));
+        assertNotNull(cache.buscar("GET /1"));
+        assertFalse(primera.desalojada);
+    }
+
+    @Test
+    void capturaSeDescartaAlExcederLaEntrada() throws IOException {
+        ByteArrayOutputStream cliente = new ByteArrayOutputStream();
+        CacheRespuestas.Captura captura = new CacheRespuestas.Captura(cliente);
+        byte[] grande = new byte[CacheRespuestas.MAXIMO_ENTRADA + 1];
+        captura.write(grande, 0, grande.length);
+        assertTrue(captura.excedida);
+        assertEquals(0, captura.copia.size());
+        assertEquals(grande.length, cliente.size()); // El cliente sí recibe todo
+    }
+
+    @Test
+    void revisionReenviaYCaptura() throws IOException {
+        ByteArrayOutputStream salida = new ByteArrayOutputStream();
+        CacheRespuestas.Revision revision = new CacheRespuestas.Revision(salida, salida, null, false);
+        revision.write(bytes(GUARDABLE.substring(0, GUARDABLE.length() - 4)));
+        revision.write(bytes("hola"));
+        revision.terminar();
+        assertEquals(200, revision.codigo);
+        assertEquals(GUARDABLE, texto(salida));
+        assertArrayEquals(bytes(GUARDABLE), revision.completa());
+    }
+
+    @Test
+    void revisionResponde304SiElClienteEstaAlDia() throws IOException {
+        ByteArrayOutputStream salida = new ByteArrayOutputStream();
+        ByteArrayOutputStream directa = new ByteArrayOutputStream();
+        CacheRespuestas.Revision revision = new CacheRespuestas.Revision(salida, directa, FECHA, false);
+        revision.write(bytes(GUARDABLE));
+        revision.terminar();
+        assertTrue(revision.clienteAlDia);
+        assertEquals(0, salida.size());
+        assertTrue(texto(directa).startsWith("HTTP/1.1 304 Not Modified\r\n"));
+        assertArrayEquals(bytes(GUARDABLE), revision.completa()); // El cuerpo igual se guarda
+    }
+
+    @Test
+    void revisionDescartaNoModificadoYErroresConEntrada() throws IOException {
+        for (String respuesta : new String[] {"HTTP/1.1 304 Not Modified\r\n\r\n",
+                "HTTP/1.1 503 Service Unavailable\r\nContent-Length: 0\r\n\r\n"}) {
+            ByteArrayOutputStream salida = new ByteArrayOutputStream();
+            CacheRespuestas.Revision revision = new CacheRespuestas.Revision(salida, salida, null, true);
+            revision.write(bytes(respuesta));
+            revision.terminar();
+            assertTrue(revision.descartada);
+            assertEquals(0, salida.size());
+            assertNull(revision.completa());
+        }
+        // Sin entrada el error sí llega al cliente
+        ByteArrayOutputStream salida = new ByteArrayOutputStream();
+        CacheRespuestas.Revision revision = new CacheRespuestas.Revision(salida, salida, null, false);
+        revision.write(Balanceador.RESPUESTA_502);
+        revision.terminar();
+        assertFalse(revision.descartada);
+        assertArrayEquals(Balanceador.RESPUESTA_502, salida.toByteArray());
+    }
+
+    @Test
+    void revisionSinFinDeEncabezadosSeReenviaAlTerminar() throws IOException {
+        ByteArrayOutputStream salida = new ByteArrayOutputStream();
+        CacheRespuestas.Revision revision = new CacheRespuestas.Revision(salida, salida, null, false);
+        revision.write(bytes("HTTP/1.1 404 File Not Found"));
+        assertEquals(0, salida.size());
+        revision.terminar();
+        assertEquals("HTTP/1.1 404 File Not Found", texto(salida));
+    }
+
+    @Test
+    void encabezadoSinDistinguirMayusculas() {
+        String encabezados = "HTTP/1.1 200 OK\r\ncache-control:  max-age=5 \r\nX: 1\r\n";
+        assertEquals("max-age=5", CacheRespuestas.encabezado(encabezados, "Cache-Control"));
+        assertNull(CacheRespuestas.encabezado(encabezados, "Cache"));
+    }
+}
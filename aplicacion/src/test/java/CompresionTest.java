@@ -0,0 +1,155 @@
+// CompresionTest.java
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals; // Cuerpos descomprimidos
+import static org.junit.jupiter.api.Assertions.assertEquals;      // Comparación de valores esperados
+import static org.junit.jupiter.api.Assertions.assertFalse;       // Condiciones que deben ser falsas
+import static org.junit.jupiter.api.Assertions.assertNotNull;     // Deflater en uso
+import static org.junit.jupiter.api.Assertions.assertNull;        // Deflater ya devuelto
+import static org.junit.jupiter.api.Assertions.assertSame;        // Respuestas que no se tocan
+import static org.junit.jupiter.api.Assertions.assertTrue;        // Condiciones que deben ser verdaderas
+
+import java.io.ByteArrayInputStream;      // Cuerpo comprimido a descomprimir
+import java.io.ByteArrayOutputStream;     // Lo que recibe el cliente
+import java.io.IOException;               // Escrituras hacia el cliente
+import java.util.ArrayList;               // Escrituras que recibe el socket del cliente
+import java.util.List;                    // Lista de esas escrituras
+import java.nio.charset.StandardCharsets; // Las respuestas de prueba son ASCII
+import java.util.zip.GZIPInputStream;     // Verifica el formato gzip completo (encabezado, CRC y longitud)
+
+import org.junit.jupiter.api.Test;        // Marca cada caso de prueba
+
+// Negociación de Accept-Encoding, la etapa de compresión al vuelo (ver Compresion.Salida) y las variantes de la caché
+class CompresionTest {
+    static final String CUERPO = "linea de texto que se repite para comprimir bien\n".repeat(100);
+    static final String ENCABEZADOS = "HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\nETag: \"abc\"\r\nContent-Length: "
+            + CUERPO.length() + "\r\n\r\n";
+
+    static byte[] bytes(String texto) {
+        return texto.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    static String texto(byte[] bytes) {
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    // Une los bloques de un cuerpo chunked (sin extensiones ni trailers)
+    static byte[] sinChunked(String cuerpo) {
+        ByteArrayOutputStream unido = new ByteArrayOutputStream();
+        int i = 0;
+        while (true) {
+            int finLinea = cuerpo.indexOf("\r\n", i);
+            int tamano = Integer.parseInt(cuerpo.substring(i, finLinea), 16);
+            if (tamano == 0) return unido.toByteArray();
+            unido.write(bytes(cuerpo.substring(finLinea + 2, finLinea + 2 + tamano)), 0, tamano);
+            i = finLinea + 2 + tamano + 2;
+        }
+    }
+
+    static byte[] gunzip(byte[] comprimido) throws IOException {
+        try (GZIPInputStream entrada = new GZIPInputStream(new ByteArrayInputStream(comprimido))) {
+            return entrada.readAllBytes();
+        }
+    }
+
+    @Test
+    void negociarRespetaLosValoresQ() {
+        assertEquals(Compresion.GZIP, Compresion.negociar("gzip, deflate"));
+        assertEquals(Compresion.DEFLATE, Compresion.negociar("deflate"));
+        assertEquals(Compresion.DEFLATE, Compresion.negociar("gzip;q=0, deflate"));
+        assertEquals(Compresion.NINGUNA, Compresion.negociar("gzip;q=0"));
+        assertEquals(Compresion.NINGUNA, Compresion.negociar("gzip; q=0.000, deflate;q=0"));
+        assertEquals(Compresion.DEFLATE, Compresion.negociar("deflate, gzip;q=0.5"));  // Gana la q mayor, no el orden
+        assertEquals(Compresion.GZIP, Compresion.negociar("GZIP ; Q=0.9, br"));
+        assertEquals(Compresion.NINGUNA, Compresion.negociar("gzip;q=0.5, identity"));   // identity con q mayor
+        assertEquals(Compresion.GZIP, Compresion.negociar("*"));
+        assertEquals(Compresion.NINGUNA, Compresion.negociar("*;q=0"));
+        assertEquals(Compresion.GZIP, Compresion.negociar("*;q=0.3, identity;q=0.1"));
+        assertEquals(Compresion.DEFLATE, Compresion.negociar("gzip;q=0, *;q=0.2"));   // "*" no cubre a gzip ya nombrado
+        assertEquals(Compresion.NINGUNA, Compresion.negociar("gzip;q=1.5"));          // q inválida: se ignora
+        assertEquals(Compresion.NINGUNA, Compresion.negociar("br"));
+    }
+
+    @Test
+    void salidaComprimeElCuerpoConContentLength() throws IOException {
+        ByteArrayOutputStream cliente = new ByteArrayOutputStream();
+        Compresion.Salida salida = new Compresion.Salida(cliente, Compresion.GZIP);
+        byte[] respuesta = bytes(ENCABEZADOS + CUERPO);
+        salida.write(respuesta, 0, 20); // Encabezados en varias escrituras
+        salida.write(respuesta, 20, respuesta.length - 20);
+        assertNull(salida.deflater); // Terminó al completar Content-Length
+        String enviado = texto(cliente.toByteArray());
+        int fin = enviado.indexOf("\r\n\r\n") + 4;
+        String encabezados = enviado.substring(0, fin);
+        assertTrue(encabezados.contains("Content-Encoding: gzip\r\n"));
+        assertTrue(encabezados.contains("Vary: Accept-Encoding\r\n"));
+        assertTrue(encabezados.contains("Transfer-Encoding: chunked\r\n"));
+        assertTrue(encabezados.contains("ETag: W/\"abc\"\r\n"));
+        assertFalse(encabezados.contains("Content-Length"));
+        assertArrayEquals(bytes(CUERPO), gunzip(sinChunked(enviado.substring(fin))));
+    }
+
+    @Test
+    void salidaEnviaCadaBloqueEnUnaEscritura() throws IOException {
+        // Cada escritura llega al socket sin buffer: se guardan por separado
+        List<String> escrituras = new ArrayList<>();
+        ByteArrayOutputStream cliente = new ByteArrayOutputStream() {
+            public void write(byte[] b, int desde, int cantidad) {
+                escrituras.add(new String(b, desde, cantidad, StandardCharsets.ISO_8859_1));
+                super.write(b, desde, cantidad);
+            }
+        };
+        Compresion.Salida salida = new Compresion.Salida(cliente, Compresion.GZIP);
+        salida.write(bytes(ENCABEZADOS + CUERPO));
+        assertEquals(2, escrituras.size()); // Los encabezados y un solo bloque con el encabezado y la cola gzip
+        assertTrue(escrituras.get(1).endsWith("\r\n0\r\n\r\n"));
+        String enviado = texto(cliente.toByteArray());
+        assertArrayEquals(bytes(CUERPO), gunzip(sinChunked(enviado.substring(enviado.indexOf("\r\n\r\n") + 4))));
+    }
+
+    @Test
+    void salidaSinCodificacionAgregaVary() throws IOException {
+        ByteArrayOutputStream cliente = new ByteArrayOutputStream();
+        Compresion.Salida salida = new Compresion.Salida(cliente, Compresion.NINGUNA);
+        salida.write(bytes(ENCABEZADOS.replace("ETag", "Vary: Origin\r\nETag") + CUERPO));
+        String enviado = texto(cliente.toByteArray());
+        assertTrue(enviado.contains("Vary: Origin, Accept-Encoding\r\n"));
+        assertTrue(enviado.contains("Content-Length: " + CUERPO.length() + "\r\n"));
+        assertTrue(enviado.endsWith("\r\n\r\n" + CUERPO));
+
+        // Un tipo que no se comprime pasa sin cambios
+        cliente.reset();
+        String imagen = ENCABEZADOS.replace("text/plain", "image/png") + CUERPO;
+        salida = new Compresion.Salida(cliente, Compresion.NINGUNA);
+        salida.write(bytes(imagen));
+        assertEquals(imagen, texto(cliente.toByteArray()));
+    }
+
+    @Test
+    void salidaDevuelveElDeflaterAlCerrarseAMedias() throws IOException {
+        Compresion.Salida salida = new Compresion.Salida(new ByteArrayOutputStream(), Compresion.DEFLATE);
+        salida.write(bytes(ENCABEZADOS + CUERPO.substring(0, 100))); // El servidor falla a mitad del cuerpo
+        assertNotNull(salida.deflater);
+        int libres = Compresion.libres[Compresion.DEFLATE].cantidad.get();
+        salida.close();
+        assertNull(salida.deflater);
+        assertNull(salida.buffer);
+        assertEquals(libres + 1, Compresion.libres[Compresion.DEFLATE].cantidad.get());
+        salida.close(); // Cerrar otra vez no lo devuelve dos veces
+        assertEquals(libres + 1, Compresion.libres[Compresion.DEFLATE].cantidad.get());
+    }
+
+    @Test
+    void variantesDeUnaRespuestaCompleta() throws IOException {
+        byte[] respuesta = bytes(ENCABEZADOS + CUERPO);
+        String identidad = texto(Compresion.comprimir(respuesta, Compresion.NINGUNA));
+        assertEquals(ENCABEZADOS.replace("\r\n\r\n", "\r\nVary: Accept-Encoding\r\n\r\n") + CUERPO, identidad);
+
+        String comprimida = texto(Compresion.comprimir(respuesta, Compresion.GZIP));
+        int fin = comprimida.indexOf("\r\n\r\n") + 4;
+        assertTrue(comprimida.substring(0, fin).contains("Content-Length: " + (comprimida.length() - fin) + "\r\n"));
+        assertArrayEquals(bytes(CUERPO), gunzip(bytes(comprimida.substring(fin))));
+
+        byte[] corta = bytes("HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\nContent-Length: 4\r\n\r\nhola");
+        assertSame(corta, Compresion.comprimir(corta, Compresion.GZIP)); // Menos de compresion.minimo: no depende de Accept-Encoding
+    }
+}
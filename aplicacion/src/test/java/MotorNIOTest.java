@@ -0,0 +1,77 @@
+// MotorNIOTest.java
+
+import static org.junit.jupiter.api.Assertions.assertEquals; // Comparación de valores esperados
+import static org.junit.jupiter.api.Assertions.assertFalse;  // Condiciones que deben ser falsas
+import static org.junit.jupiter.api.Assertions.assertThrows; // Errores esperados
+import static org.junit.jupiter.api.Assertions.assertTrue;   // Condiciones que deben ser verdaderas
+
+import java.io.IOException;               // Respuestas que no se pueden delimitar
+import java.nio.ByteBuffer;               // Los bytes llegan al delimitador en buffers, como desde el canal
+import java.nio.charset.StandardCharsets; // Las respuestas de prueba son ASCII
+
+import org.junit.jupiter.api.Test;        // Marca cada caso de prueba
+
+// Delimitado incremental de las respuestas en el motor NIO (ver MotorNIO.Delimitador)
+class MotorNIOTest {
+    static ByteBuffer buffer(String texto) {
+        return ByteBuffer.wrap(texto.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    @Test
+    void contentLengthEnVariasLecturas() throws IOException {
+        MotorNIO.Delimitador delimitador = new MotorNIO.Delimitador();
+        assertEquals(20, delimitador.consumir(buffer("HTTP/1.1 200 OK\r\nCon")));
+        assertEquals(23, delimitador.consumir(buffer("tent-Length: 5\r\n\r\nhola!sobra")));
+        assertTrue(delimitador.completa());
+        assertTrue(delimitador.reutilizable);
+        assertEquals(200, delimitador.codigo);
+    }
+
+    @Test
+    void respuestaInformativaSeDescarta() throws IOException {
+        MotorNIO.Delimitador delimitador = new MotorNIO.Delimitador();
+        String informativa = "HTTP/1.1 100 Continue\r\n\r\n";
+        String finales = "HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\n";
+        delimitador.consumir(buffer(informativa + finales + "ok"));
+        assertTrue(delimitador.completa());
+        assertEquals(200, delimitador.codigo);
+        assertEquals(finales, delimitador.encabezados.toString()); // Solo los encabezados finales se reenvían
+        assertEquals(informativa.length() + finales.length(), delimitador.finEncabezados);
+    }
+
+    @Test
+    void cambioDeProtocoloNoSeReutiliza() throws IOException {
+        MotorNIO.Delimitador delimitador = new MotorNIO.Delimitador();
+        delimitador.consumir(buffer("HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\n\r\n"));
+        assertTrue(delimitador.completa());
+        assertFalse(delimitador.reutilizable);
+    }
+
+    @Test
+    void chunkedConTrailers() throws IOException {
+        MotorNIO.Delimitador delimitador = new MotorNIO.Delimitador();
+        String respuesta = "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n4;x=y\r\nhola\r\n0\r\nX-Fin: si\r\n\r\n";
+        assertEquals(respuesta.length(), delimitador.consumir(buffer(respuesta + "sobra")));
+        assertTrue(delimitador.completa());
+    }
+
+    @Test
+    void chunkedInvalidoFalla() {
+        String encabezados = "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n";
+        assertThrows(IOException.class, () -> new MotorNIO.Delimitador().consumir(buffer(encabezados + "FFFFFFFFFFFFFFFFFF\r\n")));
+        assertThrows(IOException.class, () -> new MotorNIO.Delimitador().consumir(buffer(encabezados + "zz\r\n")));
+    }
+
+    @Test
+    void eofSinEncabezadosCompletos() throws IOException {
+        MotorNIO.Delimitador vacio = new MotorNIO.Delimitador();
+        assertFalse(vacio.terminarEnEOF());
+        MotorNIO.Delimitador parcial = new MotorNIO.Delimitador();
+        parcial.consumir(buffer("HTTP/1.1 404 File Not Found"));
+        assertTrue(parcial.terminarEnEOF());
+        MotorNIO.Delimitador hastaCierre = new MotorNIO.Delimitador();
+        hastaCierre.consumir(buffer("HTTP/1.1 200 OK\r\n\r\ncuerpo"));
+        assertFalse(hastaCierre.completa());
+        assertTrue(hastaCierre.terminarEnEOF());
+    }
+}
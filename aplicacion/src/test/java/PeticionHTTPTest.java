@@ -0,0 +1,141 @@
+// PeticionHTTPTest.java
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals; // Respuestas de rechazo precodificadas
+import static org.junit.jupiter.api.Assertions.assertEquals;      // Comparación de valores esperados
+import static org.junit.jupiter.api.Assertions.assertFalse;       // Condiciones que deben ser falsas
+import static org.junit.jupiter.api.Assertions.assertNull;        // Cuerpo ausente
+import static org.junit.jupiter.api.Assertions.assertThrows;      // Errores esperados
+import static org.junit.jupiter.api.Assertions.assertTrue;        // Condiciones que deben ser verdaderas
+
+import java.io.ByteArrayInputStream;      // Petición del cliente simulada en memoria
+import java.io.ByteArrayOutputStream;     // Lo que se le responde al cliente
+import java.io.IOException;               // Cuerpos incompletos
+import java.io.SequenceInputStream;       // Cuerpo que llega en dos lecturas
+import java.nio.ByteBuffer;               // Análisis incremental como en MotorNIO
+import java.nio.charset.StandardCharsets; // Las peticiones de prueba son ASCII
+
+import org.junit.jupiter.api.Test;        // Marca cada caso de prueba
+
+// Análisis de peticiones (ver PeticionHTTP): encabezados, rechazos, delimitado del cuerpo y la copia que reenvía el proxy
+class PeticionHTTPTest {
+    static PeticionHTTP leer(String peticion, int esperado) throws IOException {
+        PeticionHTTP analizada = new PeticionHTTP();
+        assertEquals(esperado, analizada.leer(entrada(peticion)));
+        return analizada;
+    }
+
+    static ByteArrayInputStream entrada(String texto) {
+        return new ByteArrayInputStream(texto.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    static String texto(byte[] bytes) {
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    @Test
+    void lineaEncabezadosYQuery() throws IOException {
+        PeticionHTTP peticion = leer("GET /suma?a=12&b=-3 HTTP/1.1\r\nHost: x\r\nX-Modo:  rapido \r\n\r\n", PeticionHTTP.COMPLETA);
+        assertTrue(peticion.esGet());
+        assertTrue(peticion.rutaEs("/suma"));
+        assertTrue(peticion.tieneQuery());
+        assertEquals(12, peticion.parametroEntero("a"));
+        assertEquals(-3, peticion.parametroEntero("b"));
+        assertThrows(IllegalArgumentException.class, () -> peticion.parametroEntero("c"));
+        assertTrue(peticion.valorEs(peticion.buscar("x-modo"), "rapido"));
+        assertEquals(-1, peticion.buscar("Cookie"));
+        assertEquals("GET /suma?a=12&b=-3 HTTP/1.1", peticion.lineaPeticion());
+    }
+
+    @Test
+    void analisisIncremental() {
+        PeticionHTTP peticion = new PeticionHTTP(ByteBuffer.allocate(1024));
+        for (String parte : new String[] {"GET / HT", "TP/1.1\r\nHo", "st: x\r\n"}) {
+            peticion.buffer.put(parte.getBytes(StandardCharsets.ISO_8859_1));
+            assertEquals(PeticionHTTP.INCOMPLETA, peticion.analizar());
+        }
+        peticion.buffer.put("\r\n".getBytes(StandardCharsets.ISO_8859_1));
+        assertEquals(PeticionHTTP.COMPLETA, peticion.analizar());
+        assertEquals(1, peticion.cantidad);
+    }
+
+    @Test
+    void siguienteConservaLosSobrantes() throws IOException {
+        PeticionHTTP peticion = leer("GET /a HTTP/1.1\r\n\r\nGET /b HTTP/1.1\r\n\r\n", PeticionHTTP.COMPLETA);
+        assertTrue(peticion.rutaEs("/a"));
+        peticion.siguiente();
+        assertEquals(PeticionHTTP.COMPLETA, peticion.analizar());
+        assertTrue(peticion.rutaEs("/b"));
+    }
+
+    @Test
+    void rechazos() throws IOException {
+        leer("GET /\r\n\r\n", PeticionHTTP.MALFORMADA);
+        leer("GET / HTTP/1.1\r\nsin dos puntos\r\n\r\n", PeticionHTTP.MALFORMADA);
+        leer("GET / HTTP/1.1\r\nX: " + "a".repeat(PeticionHTTP.MAXIMO_BYTES) + "\r\n\r\n", PeticionHTTP.DEMASIADO_GRANDE);
+        leer("GET / HTTP/1.1\r\n" + "X: 1\r\n".repeat(PeticionHTTP.MAXIMO_ENCABEZADOS + 1) + "\r\n", PeticionHTTP.DEMASIADO_GRANDE);
+        leer("GET / HTTP/1.1\r\nHost: x\r\n", PeticionHTTP.CERRADA);
+
+        ByteArrayOutputStream salida = new ByteArrayOutputStream();
+        PeticionHTTP.rechazar(PeticionHTTP.DEMASIADO_GRANDE, salida);
+        assertArrayEquals(PeticionHTTP.RESPUESTA_431, salida.toByteArray());
+        assertArrayEquals(PeticionHTTP.RESPUESTA_400, PeticionHTTP.rechazo(PeticionHTTP.MALFORMADA));
+        assertArrayEquals(PeticionHTTP.RESPUESTA_411, PeticionHTTP.rechazo(PeticionHTTP.SIN_LONGITUD));
+        assertArrayEquals(PeticionHTTP.RESPUESTA_413, PeticionHTTP.rechazo(PeticionHTTP.CUERPO_GRANDE));
+    }
+
+    @Test
+    void delimitadoDelCuerpo() throws IOException {
+        assertEquals(PeticionHTTP.SIN_LONGITUD,
+                leer("POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n", PeticionHTTP.COMPLETA).delimitarCuerpo());
+        assertEquals(PeticionHTTP.MALFORMADA,
+                leer("POST / HTTP/1.1\r\nContent-Length: 1x\r\n\r\n", PeticionHTTP.COMPLETA).delimitarCuerpo());
+        assertEquals(PeticionHTTP.MALFORMADA,
+                leer("POST / HTTP/1.1\r\nContent-Length: 1\r\nContent-Length: 2\r\n\r\n", PeticionHTTP.COMPLETA).delimitarCuerpo());
+        assertEquals(PeticionHTTP.CUERPO_GRANDE, leer("POST / HTTP/1.1\r\nContent-Length: " + (PeticionHTTP.MAXIMO_CUERPO + 1L)
+                + "\r\n\r\n", PeticionHTTP.COMPLETA).delimitarCuerpo());
+        PeticionHTTP sinCuerpo = leer("GET / HTTP/1.1\r\n\r\n", PeticionHTTP.COMPLETA);
+        assertEquals(PeticionHTTP.COMPLETA, sinCuerpo.delimitarCuerpo());
+        assertEquals(0, sinCuerpo.longitudCuerpo);
+    }
+
+    @Test
+    void cuerpoQueLlegaConYDespuesDeLosEncabezados() throws IOException {
+        String encabezados = "POST /datos HTTP/1.1\r\nContent-Length: 10\r\n\r\n";
+        PeticionHTTP peticion = new PeticionHTTP();
+        ByteArrayInputStream entrada = entrada(encabezados + "0123");
+        assertEquals(PeticionHTTP.COMPLETA, peticion.leer(entrada));
+        assertEquals(PeticionHTTP.COMPLETA, peticion.delimitarCuerpo());
+        ByteArrayOutputStream salida = new ByteArrayOutputStream();
+        peticion.leerCuerpo(new SequenceInputStream(entrada, entrada("456789")), salida);
+        assertEquals("0123456789", texto(peticion.cuerpo));
+        assertEquals(0, salida.size()); // Sin Expect no se envía 100 Continue
+        assertTrue(texto(peticion.copia(Despachador.SIN_EXPECT, null, null)).endsWith("\r\n\r\n0123456789"));
+    }
+
+    @Test
+    void cuerpoConExpectEnviaContinuar() throws IOException {
+        PeticionHTTP peticion = leer("PUT / HTTP/1.1\r\nExpect: 100-continue\r\nContent-Length: 2\r\n\r\n", PeticionHTTP.COMPLETA);
+        assertEquals(PeticionHTTP.COMPLETA, peticion.delimitarCuerpo());
+        ByteArrayOutputStream salida = new ByteArrayOutputStream();
+        peticion.leerCuerpo(entrada("ok"), salida);
+        assertArrayEquals(PeticionHTTP.CONTINUAR, salida.toByteArray());
+        assertFalse(texto(peticion.copia(Despachador.SIN_EXPECT, null, null)).contains("Expect"));
+    }
+
+    @Test
+    void cuerpoIncompletoFalla() throws IOException {
+        PeticionHTTP peticion = leer("POST / HTTP/1.1\r\nContent-Length: 5\r\n\r\n", PeticionHTTP.COMPLETA);
+        peticion.delimitarCuerpo();
+        assertThrows(IOException.class, () -> peticion.leerCuerpo(entrada("abc"), new ByteArrayOutputStream()));
+    }
+
+    @Test
+    void copiaSinEncabezadosDeSaltoASalto() throws IOException {
+        PeticionHTTP peticion = leer("GET /x HTTP/1.1\r\nHost: a\r\nConnection: keep-alive, X-Salto\r\nKeep-Alive: 300\r\n"
+                + "TE: trailers\r\nUpgrade: h2c\r\nProxy-Authorization: b\r\nProxy-Connection: close\r\nX-Salto: 1\r\n"
+                + "X-Saltos: 2\r\nAccept: */*\r\n\r\n", PeticionHTTP.COMPLETA);
+        assertNull(peticion.cuerpo);
+        assertEquals("GET /x HTTP/1.1\r\nHost: a\r\nX-Saltos: 2\r\nAccept: */*\r\nX-Extra: 1\r\n\r\n",
+                texto(peticion.copia(Despachador.SIN_EXPECT, "X-Extra", "1")));
+    }
+}
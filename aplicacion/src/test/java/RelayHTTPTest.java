@@ -0,0 +1,158 @@
+// RelayHTTPTest.java
+
+import static org.junit.jupiter.api.Assertions.assertEquals; // Comparación de valores esperados
+import static org.junit.jupiter.api.Assertions.assertFalse;  // Condiciones que deben ser falsas
+import static org.junit.jupiter.api.Assertions.assertThrows; // Errores esperados
+import static org.junit.jupiter.api.Assertions.assertTrue;   // Condiciones que deben ser verdaderas
+
+import java.io.ByteArrayInputStream;      // Respuesta del servidor simulada en memoria
+import java.io.ByteArrayOutputStream;     // Lo que el relay reenvía al cliente
+import java.io.IOException;               // Respuestas que no se pueden delimitar
+import java.nio.charset.StandardCharsets; // Las respuestas de prueba son ASCII
+
+import org.junit.jupiter.api.Test;        // Marca cada caso de prueba
+
+// Delimitado de las respuestas de los servidores (ver RelayHTTP): Content-Length, chunked, hasta EOF,
+// respuestas informativas y encabezados inválidos
+class RelayHTTPTest {
+    // Resultado de reenviar una respuesta: lo enviado al cliente, si la conexión se puede reutilizar y lo que sobró
+    static class Reenvio {
+        String enviado;
+        boolean reutilizable;
+        String sobrante;
+    }
+
+    static Reenvio reenviar(String respuesta, boolean sinCuerpo) throws IOException {
+        RelayHTTP.Lector lector = new RelayHTTP.Lector(new ByteArrayInputStream(respuesta.getBytes(StandardCharsets.ISO_8859_1)));
+        ByteArrayOutputStream destino = new ByteArrayOutputStream();
+        Reenvio reenvio = new Reenvio();
+        try {
+            reenvio.reutilizable = RelayHTTP.relayRespuesta(lector, destino, sinCuerpo);
+            reenvio.sobrante = new String(lector.buffer, lector.inicio, lector.fin - lector.inicio, StandardCharsets.ISO_8859_1);
+        } finally {
+            lector.liberar();
+        }
+        reenvio.enviado = destino.toString(StandardCharsets.ISO_8859_1);
+        return reenvio;
+    }
+
+    @Test
+    void marcoConContentLength() throws IOException {
+        RelayHTTP.Marco marco = RelayHTTP.Marco.analizar("HTTP/1.1 200 OK\r\nContent-Length: 42\r\nConnection: close\r\n\r\n");
+        assertEquals(200, marco.estado);
+        assertEquals(42, marco.longitud);
+        assertFalse(marco.chunked);
+        assertTrue(marco.cerrar);
+    }
+
+    @Test
+    void marcoChunkedSinLongitud() throws IOException {
+        RelayHTTP.Marco marco = RelayHTTP.Marco.analizar("HTTP/1.1 404 Not Found\r\ntransfer-encoding: gzip, chunked\r\n\r\n");
+        assertEquals(404, marco.estado);
+        assertEquals(-1, marco.longitud);
+        assertTrue(marco.chunked);
+        assertFalse(marco.cerrar);
+    }
+
+    @Test
+    void marcoRechazaContentLengthInvalido() {
+        for (String valor : new String[] {"-5", "12abc", "", "1234567890123456789", "+3"}) {
+            assertThrows(IOException.class,
+                    () -> RelayHTTP.Marco.analizar("HTTP/1.1 200 OK\r\nContent-Length: " + valor + "\r\n\r\n"), valor);
+        }
+    }
+
+    @Test
+    void marcoRechazaContentLengthRepetidoDistinto() throws IOException {
+        assertThrows(IOException.class,
+                () -> RelayHTTP.Marco.analizar("HTTP/1.1 200 OK\r\nContent-Length: 2\r\nContent-Length: 3\r\n\r\n"));
+        assertEquals(2, RelayHTTP.Marco.analizar("HTTP/1.1 200 OK\r\nContent-Length: 2\r\nContent-Length: 2\r\n\r\n").longitud);
+    }
+
+    @Test
+    void sinCuerpoPorEstadoOMetodo() throws IOException {
+        assertTrue(RelayHTTP.Marco.analizar("HTTP/1.1 304 Not Modified\r\n\r\n").sinCuerpo(false));
+        assertTrue(RelayHTTP.Marco.analizar("HTTP/1.1 204 No Content\r\n\r\n").sinCuerpo(false));
+        assertTrue(RelayHTTP.Marco.analizar("HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\n").sinCuerpo(true));
+        assertFalse(RelayHTTP.Marco.analizar("HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\n").sinCuerpo(false));
+    }
+
+    @Test
+    void contentLengthDejaLaSiguienteRespuestaEnElBuffer() throws IOException {
+        Reenvio reenvio = reenviar("HTTP/1.1 200 OK\r\nContent-Length: 4\r\n\r\nholaHTTP/1.1 204 No Content\r\n\r\n", false);
+        assertEquals("HTTP/1.1 200 OK\r\nContent-Length: 4\r\nConnection: close\r\n\r\nhola", reenvio.enviado);
+        assertTrue(reenvio.reutilizable);
+        assertEquals("HTTP/1.1 204 No Content\r\n\r\n", reenvio.sobrante);
+    }
+
+    @Test
+    void chunkedConExtensionesYTrailers() throws IOException {
+        String cuerpo = "4;nombre=valor\r\nhola\r\nA\r\n0123456789\r\n0\r\nX-Fin: si\r\n\r\n";
+        Reenvio reenvio = reenviar("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n" + cuerpo + "sobra", false);
+        assertEquals("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\nConnection: close\r\n\r\n" + cuerpo, reenvio.enviado);
+        assertTrue(reenvio.reutilizable);
+        assertEquals("sobra", reenvio.sobrante);
+    }
+
+    @Test
+    void chunkedRechazaTamanoDesbordado() {
+        assertThrows(IOException.class, () -> reenviar("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n"
+                + "FFFFFFFFFFFFFFFFFF\r\nxx", false));
+        assertThrows(IOException.class, () -> reenviar("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n"
+                + "zz\r\nxx", false));
+    }
+
+    @Test
+    void sinDelimitadoHastaEOF() throws IOException {
+        Reenvio reenvio = reenviar("HTTP/1.1 200 OK\r\n\r\ntodo hasta el cierre", false);
+        assertEquals("HTTP/1.1 200 OK\r\nConnection: close\r\n\r\ntodo hasta el cierre", reenvio.enviado);
+        assertFalse(reenvio.reutilizable);
+    }
+
+    @Test
+    void connectionCloseNoSeReutiliza() throws IOException {
+        assertFalse(reenviar("HTTP/1.1 200 OK\r\nContent-Length: 2\r\nConnection: close\r\n\r\nok", false).reutilizable);
+    }
+
+    @Test
+    void clienteRecibeConnectionClose() throws IOException {
+        Reenvio reenvio = reenviar("HTTP/1.1 200 OK\r\nConnection: keep-alive, X-Salto\r\nKeep-Alive: timeout=5\r\n"
+                + "X-Salto: 1\r\nContent-Length: 2\r\n\r\nok", false);
+        assertEquals("HTTP/1.1 200 OK\r\nContent-Length: 2\r\nConnection: close\r\n\r\nok", reenvio.enviado);
+        assertTrue(reenvio.reutilizable); // La conexión con el servidor sí sigue abierta
+    }
+
+    @Test
+    void headNoLeeCuerpo() throws IOException {
+        Reenvio reenvio = reenviar("HTTP/1.1 200 OK\r\nContent-Length: 100\r\n\r\n", true);
+        assertEquals("HTTP/1.1 200 OK\r\nContent-Length: 100\r\nConnection: close\r\n\r\n", reenvio.enviado);
+        assertTrue(reenvio.reutilizable);
+    }
+
+    @Test
+    void respuestasInformativasSeDescartan() throws IOException {
+        Reenvio reenvio = reenviar("HTTP/1.1 100 Continue\r\n\r\nHTTP/1.1 103 Early Hints\r\nLink: </a.css>\r\n\r\n"
+                + "HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok", false);
+        assertEquals("HTTP/1.1 200 OK\r\nContent-Length: 2\r\nConnection: close\r\n\r\nok", reenvio.enviado);
+        assertTrue(reenvio.reutilizable);
+    }
+
+    @Test
+    void cambioDeProtocoloEsFinalYNoSeReutiliza() throws IOException {
+        Reenvio reenvio = reenviar("HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\n\r\n", false);
+        assertEquals("HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\n\r\n", reenvio.enviado);
+        assertFalse(reenvio.reutilizable);
+    }
+
+    @Test
+    void cuerpoIncompletoFalla() {
+        assertThrows(IOException.class, () -> reenviar("HTTP/1.1 200 OK\r\nContent-Length: 10\r\n\r\ncorto", false));
+        assertThrows(IOException.class, () -> reenviar("", false));
+    }
+
+    @Test
+    void tamanoChunkIgnoraExtensiones() throws IOException {
+        byte[] linea = "1f;x=y".getBytes(StandardCharsets.ISO_8859_1);
+        assertEquals(31, RelayHTTP.tamanoChunk(linea, 0, linea.length));
+    }
+}
@@ -0,0 +1,74 @@
+// ServidorHTTPTest.java
+
+import static org.junit.jupiter.api.Assertions.assertEquals; // Comparación de valores esperados
+import static org.junit.jupiter.api.Assertions.assertTrue;   // Condiciones que deben ser verdaderas
+
+import java.io.ByteArrayInputStream;      // Peticiones del cliente en memoria
+import java.io.ByteArrayOutputStream;     // Lo que recibe el cliente
+import java.io.InputStream;               // Flujo de entrada del socket en memoria
+import java.io.OutputStream;              // Flujo de salida del socket en memoria
+import java.net.Socket;                   // Se extiende para atender al Worker sin red
+import java.nio.charset.StandardCharsets; // Las peticiones de prueba son ASCII
+
+import org.junit.jupiter.api.Test;        // Marca cada caso de prueba
+
+// Atención de una conexión persistente en ServidorHTTP.Worker: peticiones canalizadas con y sin cuerpo
+class ServidorHTTPTest {
+    // Conexión sin red: entrega las peticiones indicadas y guarda la respuesta
+    static class SocketEnMemoria extends Socket {
+        final InputStream entrada;
+        final ByteArrayOutputStream salida = new ByteArrayOutputStream();
+
+        SocketEnMemoria(String peticiones) {
+            this.entrada = new ByteArrayInputStream(peticiones.getBytes(StandardCharsets.ISO_8859_1));
+        }
+
+        public InputStream getInputStream() {
+            return entrada;
+        }
+
+        public OutputStream getOutputStream() {
+            return salida;
+        }
+
+        public void setSoTimeout(int tiempo) {
+            // Sin red no hay esperas
+        }
+
+        public void close() {
+            // Nada que cerrar
+        }
+    }
+
+    static String atender(String peticiones) {
+        SocketEnMemoria conexion = new SocketEnMemoria(peticiones);
+        Admision admision = new Admision("prueba", false, 0, 0, 0, 0);
+        new ServidorHTTP.Worker(conexion, admision.admitir(conexion)).run();
+        return conexion.salida.toString(StandardCharsets.ISO_8859_1);
+    }
+
+    static int contar(String texto, String buscado) {
+        int veces = 0;
+        for (int i = texto.indexOf(buscado); i != -1; i = texto.indexOf(buscado, i + 1)) veces++;
+        return veces;
+    }
+
+    @Test
+    void cuerpoDeUnaPeticionCanalizadaNoEsOtraPeticion() {
+        String oculta = "GET /suma?a=40&b=1&c=1 HTTP/1.1\r\nX-Ignorar: ";
+        String respuestas = atender("POST /nada HTTP/1.1\r\nContent-Length: " + oculta.length() + "\r\n\r\n" + oculta
+                + "GET /suma?a=1&b=2&c=3 HTTP/1.1\r\nConnection: close\r\n\r\n");
+        assertEquals(2, contar(respuestas, "HTTP/1.1 "));
+        assertTrue(respuestas.startsWith("HTTP/1.1 404 File Not Found\r\n"));
+        assertTrue(respuestas.endsWith("\r\n\r\n6"));
+    }
+
+    @Test
+    void cuerpoSinLongitudSeRechazaYCierra() {
+        String respuestas = atender("POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n"
+                + "0\r\n\r\nGET / HTTP/1.1\r\n\r\n");
+        assertEquals(new String(PeticionHTTP.RESPUESTA_411, StandardCharsets.ISO_8859_1), respuestas);
+        assertEquals(new String(PeticionHTTP.RESPUESTA_400, StandardCharsets.ISO_8859_1),
+                atender("POST / HTTP/1.1\r\nContent-Length: -1\r\n\r\nGET / HTTP/1.1\r\n\r\n"));
+    }
+}
@@ -0,0 +1,71 @@
+package rendimiento;
+
+import java.lang.invoke.MethodHandle;  // Llamadas directas a los métodos del servidor y de los proxies
+import java.lang.invoke.MethodHandles; // Acceso privado a las clases del paquete por defecto
+import java.lang.invoke.MethodType;    // Firma de cada método buscado
+
+// Acceso a las clases del servidor y de los proxies desde los benchmarks.
+// Esas clases están en el paquete por defecto (no se pueden importar desde un paquete con nombre) y son de
+// acceso de paquete, así que se usan por medio de MethodHandles. Los handles se devuelven con la firma
+// "borrada" (tipos de referencia como Object) para llamarlos con invokeExact desde campos static final,
+// que el JIT trata como constantes y puede expandir en línea.
+final class Acceso {
+    private Acceso() {
+    }
+
+    static Class<?> clase(String nombre) {
+        try {
+            return Class.forName(nombre);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("No se encontró la clase " + nombre + " (¿falta el módulo aplicacion en el classpath?)", e);
+        }
+    }
+
+    static MethodHandles.Lookup lookup(Class<?> clase) throws IllegalAccessException {
+        return MethodHandles.privateLookupIn(clase, MethodHandles.lookup());
+    }
+
+    static MethodHandle constructor(String nombreClase, Class<?>... parametros) {
+        try {
+            Class<?> clase = clase(nombreClase);
+            MethodHandle handle = lookup(clase).findConstructor(clase, MethodType.methodType(void.class, parametros));
+            return handle.asType(handle.type().erase());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Constructor no disponible en " + nombreClase, e);
+        }
+    }
+
+    static MethodHandle metodo(String nombreClase, String nombre, Class<?> retorno, Class<?>... parametros) {
+        try {
+            Class<?> clase = clase(nombreClase);
+            MethodHandle handle = lookup(clase).findVirtual(clase, nombre, MethodType.methodType(retorno, parametros));
+            return handle.asType(handle.type().erase());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Método no disponible: " + nombreClase + "." + nombre, e);
+        }
+    }
+
+    static MethodHandle estatico(String nombreClase, String nombre, Class<?> retorno, Class<?>... parametros) {
+        try {
+            Class<?> clase = clase(nombreClase);
+            MethodHandle handle = lookup(clase).findStatic(clase, nombre, MethodType.methodType(retorno, parametros));
+            return handle.asType(handle.type().erase());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Método no disponible: " + nombreClase + "." + nombre, e);
+        }
+    }
+
+    // Ejecuta el main de una clase (servidor o proxy) en un hilo daemon: su bucle de accept no termina nunca
+    static void iniciarEnHilo(String nombreClase, String... argumentos) {
+        MethodHandle main = estatico(nombreClase, "main", void.class, String[].class);
+        Thread hilo = new Thread(() -> {
+            try {
+                main.invoke((Object) argumentos);
+            } catch (Throwable e) {
+                System.err.println("Error en " + nombreClase + ": " + e);
+            }
+        }, nombreClase);
+        hilo.setDaemon(true);
+        hilo.start();
+    }
+}
@@ -0,0 +1,97 @@
+package rendimiento;
+
+import java.io.BufferedReader;                  // Lectura por líneas, como lo hacían los Worker antes de PeticionHTTP
+import java.io.ByteArrayInputStream;            // Petición en memoria para la lectura por líneas
+import java.io.IOException;                     // Errores de la lectura por líneas (no ocurren en memoria)
+import java.io.InputStreamReader;               // Decodificación con el charset de la plataforma
+import java.lang.invoke.MethodHandle;           // Métodos de PeticionHTTP (ver Acceso)
+import java.nio.ByteBuffer;                     // Buffer reutilizado entre peticiones
+import java.nio.charset.StandardCharsets;       // Bytes de la petición de ejemplo
+import java.util.concurrent.TimeUnit;           // Unidad de los resultados
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Análisis de una petición típica de /suma: línea de petición, encabezados, If-Modified-Since y los tres
+// parámetros de la query. Compara PeticionHTTP (en su lugar sobre un ByteBuffer) con la lectura por líneas
+// con BufferedReader, startsWith, substring y split que usaban los Worker.
+// Con -prof gc se ve la diferencia en bytes reservados por operación.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AnalisisPeticionBenchmark {
+    static final byte[] PETICION = ("GET /suma?a=1&b=2&c=3 HTTP/1.1\r\n"
+            + "Host: 127.0.0.1:8080\r\n"
+            + "User-Agent: Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/120.0 Safari/537.36\r\n"
+            + "Accept: */*\r\n"
+            + "Accept-Encoding: gzip, deflate, br\r\n"
+            + "Accept-Language: es-MX,es;q=0.9,en;q=0.8\r\n"
+            + "Referer: http://127.0.0.1:8080/\r\n"
+            + "If-Modified-Since: Fri, 01 Mar 2024 12:00:00 GMT\r\n"
+            + "Connection: keep-alive\r\n"
+            + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+
+    static final MethodHandle NUEVA = Acceso.constructor("PeticionHTTP", ByteBuffer.class);
+    static final MethodHandle ANALIZAR = Acceso.metodo("PeticionHTTP", "analizar", int.class);
+    static final MethodHandle SIGUIENTE = Acceso.metodo("PeticionHTTP", "siguiente", void.class);
+    static final MethodHandle BUSCAR = Acceso.metodo("PeticionHTTP", "buscar", int.class, String.class);
+    static final MethodHandle VALOR_ES = Acceso.metodo("PeticionHTTP", "valorEs", boolean.class, int.class, String.class);
+    static final MethodHandle PARAMETRO = Acceso.metodo("PeticionHTTP", "parametroEntero", int.class, String.class);
+
+    ByteBuffer buffer;
+    Object peticion;
+
+    @Setup
+    public void preparar() throws Throwable {
+        buffer = ByteBuffer.allocate(16384);
+        peticion = (Object) NUEVA.invokeExact((Object) buffer);
+    }
+
+    @Benchmark
+    public int peticionHTTP() throws Throwable {
+        SIGUIENTE.invokeExact(peticion);
+        buffer.put(PETICION);
+        int resultado = (int) ANALIZAR.invokeExact(peticion);
+        int ifModifiedSince = (int) BUSCAR.invokeExact(peticion, (Object) "If-Modified-Since");
+        boolean vigente = (boolean) VALOR_ES.invokeExact(peticion, ifModifiedSince, (Object) "Fri, 01 Mar 2024 12:00:00 GMT");
+        return resultado + (vigente ? 1 : 0)
+                + (int) PARAMETRO.invokeExact(peticion, (Object) "a")
+                + (int) PARAMETRO.invokeExact(peticion, (Object) "b")
+                + (int) PARAMETRO.invokeExact(peticion, (Object) "c");
+    }
+
+    @Benchmark
+    public int lecturaPorLineas() throws IOException {
+        BufferedReader entrada = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(PETICION)));
+        String req = entrada.readLine();
+        String encabezado;
+        String ifModifiedSince = null;
+        while ((encabezado = entrada.readLine()) != null && !encabezado.isEmpty()) {
+            if (encabezado.startsWith("If-Modified-Since: ")) {
+                ifModifiedSince = encabezado.substring(19);
+            }
+        }
+        boolean vigente = "Fri, 01 Mar 2024 12:00:00 GMT".equals(ifModifiedSince);
+        String parametros = req.split(" ")[1].split("\\?")[1];
+        return (vigente ? 2 : 1) + valor(parametros, "a") + valor(parametros, "b") + valor(parametros, "c");
+    }
+
+    static int valor(String parametros, String variable) {
+        for (String parametro : parametros.split("&")) {
+            String[] s = parametro.split("=");
+            if (s[0].equals(variable)) return Integer.parseInt(s[1]);
+        }
+        throw new IllegalArgumentException("Se espera la variable: " + variable);
+    }
+}
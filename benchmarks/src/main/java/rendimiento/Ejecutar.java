@@ -0,0 +1,31 @@
+package rendimiento;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Ejecuta un benchmark (RelayBenchmark por defecto) con varios niveles de concurrencia seguidos,
+// reportando throughput y percentiles de latencia de cada nivel:
+//   java -Dconcurrencia=1,8,32 -cp benchmarks/target/benchmarks.jar rendimiento.Ejecutar [patrón]
+public final class Ejecutar {
+    private Ejecutar() {
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        String patron = args.length > 0 ? args[0] : RelayBenchmark.class.getSimpleName();
+        String niveles = System.getProperty("concurrencia", "1,4,16,64");
+        for (String nivel : niveles.split(",")) {
+            int hilos = Integer.parseInt(nivel.trim());
+            System.out.println("# Concurrencia: " + hilos + " hilos cliente");
+            Options opciones = new OptionsBuilder()
+                    .include(patron)
+                    .threads(hilos)
+                    .mode(Mode.Throughput)
+                    .mode(Mode.SampleTime)
+                    .build();
+            new Runner(opciones).run();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package rendimiento;
+
+import java.io.File;                          // Keystore temporal para la variante TLS
+import java.io.IOException;                   // Errores al preparar el entorno
+import java.io.OutputStream;                  // Salida descartada de los servidores
+import java.io.PrintStream;                   // Reemplazo de la salida estándar
+import java.net.InetSocketAddress;            // Espera a que cada servidor acepte conexiones
+import java.net.ServerSocket;                 // Búsqueda de puertos libres
+import java.net.Socket;                       // Prueba de conexión
+import java.nio.file.Files;                   // Directorio temporal del keystore
+import java.security.cert.X509Certificate;    // Firma del TrustManager que acepta el certificado de prueba
+import java.util.concurrent.TimeUnit;         // Espera del proceso keytool
+
+import javax.net.ssl.SSLContext;              // Contexto TLS del cliente del benchmark
+import javax.net.ssl.SSLSocketFactory;        // Fábrica de sockets TLS (reutiliza sesiones entre conexiones)
+import javax.net.ssl.TrustManager;            // Confianza en el certificado autofirmado
+import javax.net.ssl.X509TrustManager;
+
+// Entorno local para medir el proxy de extremo a extremo sin red: dos ServidorHTTP como servidores de
+// respaldo y AdministradorTrafico (plano) o AdministradorTraficoSSL (TLS con un keystore autofirmado
+// generado con keytool) escuchando en puertos libres de 127.0.0.1, todos dentro de la JVM del benchmark.
+final class Entorno {
+    static final String HOST = "127.0.0.1";
+
+    static int puertoProxy = -1;
+    static String variante;
+    static SSLSocketFactory fabricaTLS;
+
+    private Entorno() {
+    }
+
+    // Inicia el entorno una sola vez por JVM (JMH usa una JVM nueva por cada combinación de parámetros)
+    static synchronized int iniciar(String varianteBuscada) throws Exception {
+        if (puertoProxy != -1) {
+            if (!varianteBuscada.equals(variante)) throw new IllegalStateException("El entorno ya se inició como " + variante);
+            return puertoProxy;
+        }
+        silenciar();
+        int servidor1 = puertoLibre();
+        int servidor2 = puertoLibre();
+        int proxy = puertoLibre();
+        Acceso.iniciarEnHilo("ServidorHTTP", String.valueOf(servidor1));
+        Acceso.iniciarEnHilo("ServidorHTTP", String.valueOf(servidor2));
+        esperar(servidor1);
+        esperar(servidor2);
+
+        String[] argumentos = {String.valueOf(proxy), HOST, String.valueOf(servidor1), HOST, String.valueOf(servidor2)};
+        if (varianteBuscada.equals("tls")) {
+            // Los parámetros se leen al cargar las clases del proxy: deben fijarse antes de iniciarlo
+            System.setProperty("ssl.keystore", generarKeystore().getPath());
+            System.setProperty("ssl.keystore.clave", "password");
+            Acceso.iniciarEnHilo("AdministradorTraficoSSL", argumentos);
+            fabricaTLS = clienteTLS();
+        } else {
+            Acceso.iniciarEnHilo("AdministradorTrafico", argumentos);
+        }
+        esperar(proxy);
+        variante = varianteBuscada;
+        puertoProxy = proxy;
+        return proxy;
+    }
+
+    // Los servidores y el proxy imprimen cada petición; se descarta para medir solo la atención
+    static void silenciar() {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    static int puertoLibre() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    static void esperar(int puerto) throws Exception {
+        for (int intento = 0; intento < 100; intento++) {
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress(HOST, puerto), 100);
+                return;
+            } catch (IOException e) {
+                Thread.sleep(50);
+            }
+        }
+        throw new IllegalStateException("Nadie escucha en el puerto " + puerto);
+    }
+
+    // Keystore PKCS12 autofirmado (RSA 2048, como el del despliegue) generado con el keytool del mismo JDK
+    static File generarKeystore() throws Exception {
+        File directorio = Files.createTempDirectory("benchmark-tls").toFile();
+        File keystore = new File(directorio, "keystore_servidor.p12");
+        String keytool = System.getProperty("java.home") + File.separator + "bin" + File.separator + "keytool";
+        Process proceso = new ProcessBuilder(keytool, "-genkeypair", "-alias", "servidor", "-keyalg", "RSA", "-keysize", "2048",
+                "-dname", "CN=localhost", "-validity", "30", "-storetype", "PKCS12",
+                "-keystore", keystore.getPath(), "-storepass", "password", "-keypass", "password")
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        if (!proceso.waitFor(60, TimeUnit.SECONDS) || proceso.exitValue() != 0) {
+            throw new IllegalStateException("keytool no pudo generar el keystore de prueba");
+        }
+        keystore.deleteOnExit();
+        directorio.deleteOnExit();
+        return keystore;
+    }
+
+    // Cliente que confía en el certificado autofirmado; la fábrica conserva las sesiones para reanudarlas
+    static SSLSocketFactory clienteTLS() throws Exception {
+        TrustManager[] confiarEnTodo = {new X509TrustManager() {
+            public void checkClientTrusted(X509Certificate[] cadena, String tipo) {
+            }
+
+            public void checkServerTrusted(X509Certificate[] cadena, String tipo) {
+            }
+
+            public X509Certificate[] getAcceptedIssuers() {
+                return new X509Certificate[0];
+            }
+        }};
+        SSLContext contexto = SSLContext.getInstance("TLS");
+        contexto.init(null, confiarEnTodo, null);
+        return contexto.getSocketFactory();
+    }
+}
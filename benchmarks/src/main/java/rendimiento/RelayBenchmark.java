@@ -0,0 +1,78 @@
+package rendimiento;
+
+import java.io.IOException;               // Errores de la conexión con el proxy
+import java.io.InputStream;               // Respuesta del proxy
+import java.io.OutputStream;              // Petición hacia el proxy
+import java.net.InetSocketAddress;        // Dirección del proxy local
+import java.net.Socket;                   // Conexión del cliente (plana o TLS)
+import java.nio.charset.StandardCharsets; // Bytes de la petición
+import java.util.concurrent.TimeUnit;     // Unidad de los resultados
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Relay de extremo a extremo por loopback: el cliente abre una conexión con el proxy (plano o TLS), envía
+// la petición y lee la respuesta hasta que el proxy cierra, como un navegador frente a AdministradorTrafico.
+// Throughput da peticiones por segundo y SampleTime la distribución de latencia (p50, p99, p99.9...).
+// La concurrencia se elige con -t, o con rendimiento.Ejecutar para recorrer varios niveles seguidos.
+// "/suma" siempre llega al Servidor-1; "/" se responde desde la caché del proxy tras la primera petición.
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RelayBenchmark {
+    @Param({"plano", "tls"})
+    public String variante;
+
+    @Param({"/suma?a=1&b=2&c=3", "/"})
+    public String ruta;
+
+    int puerto;
+    byte[] peticion;
+
+    @Setup
+    public void preparar() throws Exception {
+        puerto = Entorno.iniciar(variante);
+        peticion = ("GET " + ruta + " HTTP/1.1\r\n"
+                + "Host: " + Entorno.HOST + ":" + puerto + "\r\n"
+                + "Accept: */*\r\n"
+                + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    // Buffer de lectura propio de cada hilo cliente
+    @State(Scope.Thread)
+    public static class Cliente {
+        final byte[] buffer = new byte[16384];
+    }
+
+    @Benchmark
+    public long peticion(Cliente cliente) throws IOException {
+        try (Socket socket = variante.equals("tls") ? Entorno.fabricaTLS.createSocket() : new Socket()) {
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(Entorno.HOST, puerto), 5000);
+            socket.setSoTimeout(10000);
+            OutputStream salida = socket.getOutputStream();
+            salida.write(peticion);
+            salida.flush();
+            InputStream entrada = socket.getInputStream();
+            long total = 0;
+            int leidos;
+            while ((leidos = entrada.read(cliente.buffer)) != -1) {
+                total += leidos;
+            }
+            if (total == 0) throw new IOException("El proxy cerró la conexión sin responder");
+            return total;
+        }
+    }
+}
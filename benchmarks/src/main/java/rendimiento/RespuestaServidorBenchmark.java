@@ -0,0 +1,126 @@
+package rendimiento;
+
+import java.io.ByteArrayInputStream;      // Peticiones del cliente en memoria
+import java.io.InputStream;               // Flujo de entrada del socket en memoria
+import java.io.OutputStream;              // Flujo de salida del socket en memoria
+import java.io.PrintStream;               // Salida estándar original, restaurada al terminar
+import java.lang.invoke.MethodHandle;     // Constructor y run() de ServidorHTTP.Worker y admisión (ver Acceso)
+import java.net.Socket;                   // Se extiende para atender al Worker sin red
+import java.nio.charset.StandardCharsets; // Bytes de las peticiones
+import java.util.concurrent.TimeUnit;     // Unidad de los resultados
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Generación de respuestas de ServidorHTTP: un Worker atiende una conexión en memoria con varias peticiones
+// seguidas (keep-alive) a la misma ruta; la última pide cerrar la conexión.
+// Mide el análisis de la petición, la construcción de la respuesta y su escritura, sin la pila TCP.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RespuestaServidorBenchmark {
+    static final MethodHandle WORKER = Acceso.constructor("ServidorHTTP$Worker", Socket.class, Acceso.clase("Admision$Conexion"));
+    static final MethodHandle RUN = Acceso.metodo("ServidorHTTP$Worker", "run", void.class);
+    static final MethodHandle ADMITIR = Acceso.metodo("Admision", "admitir", Acceso.clase("Admision$Conexion"), Socket.class, boolean.class);
+    // Admisión sin límites ni plazo (no arranca el recolector): el Worker solo le avisa sus esperas y su fin
+    static final Object ADMISION = admision();
+
+    static Object admision() {
+        try {
+            return (Object) Acceso.constructor("Admision", String.class, boolean.class, int.class, double.class, int.class, long.class)
+                    .invokeExact((Object) "benchmark", false, 0, 0.0, 0, 0L);
+        } catch (Throwable e) {
+            throw new IllegalStateException("No se pudo crear la admisión", e);
+        }
+    }
+
+    // Conexión sin red: entrega las peticiones preparadas y cuenta los bytes de la respuesta
+    static class SocketEnMemoria extends Socket {
+        final InputStream entrada;
+        final Contador salida = new Contador();
+
+        SocketEnMemoria(byte[] peticiones) {
+            this.entrada = new ByteArrayInputStream(peticiones);
+        }
+
+        public InputStream getInputStream() {
+            return entrada;
+        }
+
+        public OutputStream getOutputStream() {
+            return salida;
+        }
+
+        public void setSoTimeout(int tiempo) {
+            // Sin red no hay esperas
+        }
+
+        public void close() {
+            // Nada que cerrar
+        }
+    }
+
+    static class Contador extends OutputStream {
+        long bytes;
+
+        public void write(int b) {
+            bytes++;
+        }
+
+        public void write(byte[] b, int desde, int cantidad) {
+            bytes += cantidad;
+        }
+    }
+
+    @Param({"/", "/suma?a=1&b=2&c=3", "/nada"})
+    public String ruta;
+
+    @Param({"1", "50"})
+    public int peticionesPorConexion;
+
+    byte[] peticiones;
+    PrintStream salidaEstandar;
+
+    @Setup
+    public void preparar() {
+        StringBuilder texto = new StringBuilder();
+        for (int i = 1; i <= peticionesPorConexion; i++) {
+            texto.append("GET ").append(ruta).append(" HTTP/1.1\r\n")
+                    .append("Host: 127.0.0.1\r\n")
+                    .append("Accept: */*\r\n")
+                    .append(i == peticionesPorConexion ? "Connection: close\r\n" : "")
+                    .append("\r\n");
+        }
+        peticiones = texto.toString().getBytes(StandardCharsets.ISO_8859_1);
+        // El servidor imprime cada petición y encabezado: se descarta para medir solo la atención
+        salidaEstandar = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown
+    public void terminar() {
+        System.setOut(salidaEstandar);
+    }
+
+    @Benchmark
+    public long atenderConexion() throws Throwable {
+        SocketEnMemoria conexion = new SocketEnMemoria(peticiones);
+        Object admitida = (Object) ADMITIR.invokeExact(ADMISION, (Object) conexion, false);
+        Object worker = (Object) WORKER.invokeExact((Object) conexion, admitida);
+        RUN.invokeExact(worker);
+        return conexion.salida.bytes;
+    }
+}